@@ -21,11 +21,37 @@
  *       Recebe uma página completa (URL, título, palavras, links)
  *       e adiciona-a ao índice invertido e ao mapa de backlinks.
  *
+ *   - addDocuments(List<PageInfo> pages):
+ *       Igual a addDocument para um lote de páginas (uma só chamada
+ *       RMI e um só fsync do log para todo o lote).
+ *
+ *   - removeDocument(String url):
+ *       Retira do índice uma página que deixou de existir (404/410),
+ *       incluindo os backlinks que ela dava.
+ *
  *   - search(List<String> terms, int page):
  *       Executa a pesquisa de interseção de termos e devolve
  *       resultados paginados (10 por página) ordenados por
  *       relevância (número de backlinks).
  *
+ *   - searchTopK(List<String> terms, int offset, int limit):
+ *       Igual a search, mas com uma janela arbitrária de resultados
+ *       (ex: para o Gateway juntar resultados de vários Barrels).
+ *
+ *   - expandTerms / searchFuzzy:
+ *       Pesquisa aproximada (erros ortográficos) no modo de partição
+ *       por documentos: cada Barrel indica as variantes dos termos que
+ *       não tem e o Gateway escolhe as que todos os shards usam.
+ *
+ *   - estimateMatches / matchChunk / matchUrls / searchWithin:
+ *       Interseção entre Barrels no modo de partição por termos: o
+ *       Gateway passa os candidatos de um dono de termos ao seguinte,
+ *       em blocos de tamanho limitado.
+ *
+ *   - suggest(String prefix, int k):
+ *       Termos do dicionário que começam pelo prefixo, os que
+ *       aparecem em mais documentos primeiro (autocompletar).
+ *
  *   - getBacklinks(String url):
  *       Devolve as páginas que referenciam a URL fornecida.
  *
@@ -35,6 +61,24 @@
  *   - ping():
  *       Utilizado para heartbeat e deteção de falhas pelo Gateway.
  *
+ *   - getStateChunk(long transferId, int cursor, int maxBytes):
+ *       Transferência do estado completo para um Barrel que está a
+ *       recuperar, em blocos de tamanho limitado com cursor.
+ *
+ *   - getSequence() / getUpdatesSince(...):
+ *       Recuperação incremental: cada Barrel numera as páginas que
+ *       aplica; um Barrel que reinicia pede só as posteriores à
+ *       última que já conhecia.
+ *
+ *   - getShard():
+ *       Shard do índice guardado por este Barrel (ver Shards), usado
+ *       pelo Downloader para encaminhar as páginas e pelo Gateway
+ *       para pesquisar uma réplica de cada shard.
+ *
+ *   - getMerkleHashes / getBucketDigest / getPages:
+ *       Anti-entropia entre réplicas: comparação de árvores de
+ *       hashes e cópia apenas das páginas em falta.
+ *
  *  @RMI e Failover:
  *  Cada método pode lançar RemoteException, permitindo ao Gateway
  *  detetar falhas e redirecionar as chamadas para outro Barrel
@@ -42,7 +86,9 @@
  *
  *  @Replicação:
  *  Esta interface suporta múltiplas instâncias de Barrel no sistema,
- *  facilitando replicação e balanceamento de carga.
+ *  facilitando replicação e balanceamento de carga. Com vários shards,
+ *  cada Barrel guarda só as páginas do seu shard e as réplicas de um
+ *  shard sincronizam-se apenas entre si.
  */
 
 package pt.uc.sd.googol.barrel;
@@ -50,6 +96,7 @@ package pt.uc.sd.googol.barrel;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
+import java.util.Map;
 
 import pt.uc.sd.googol.common.PageInfo;
 import pt.uc.sd.googol.gateway.SearchResult;
@@ -65,6 +112,27 @@ public interface BarrelInterface extends Remote {
      * @throws RemoteException Se ocorrer um erro na comunicação RMI.
      */
     void addDocument(PageInfo page) throws RemoteException;
+
+    /**
+     * Adiciona um lote de páginas ao índice do Barrel (enviado pelo Multicast, que junta
+     * as páginas de todos os workers). As páginas de outro shard são ignoradas; o resto é
+     * indexado.
+     *
+     * @param pages Páginas a indexar.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI ou no registo das páginas.
+     */
+    void addDocuments(List<PageInfo> pages) throws RemoteException;
+
+    /**
+     * Remove uma página do índice (o Downloader recebeu 404 ou 410 ao visitá-la de novo).
+     * A página deixa de aparecer nas pesquisas e os links que continha deixam de contar
+     * como backlinks. Remover uma página desconhecida não tem efeito.
+     *
+     * @param url URL da página.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI, no registo da remoção, ou
+     *         se a página for de outro shard (partição por documentos).
+     */
+    void removeDocument(String url) throws RemoteException;
     
     /**
      * Realiza uma pesquisa no índice invertido por um conjunto de termos.
@@ -75,7 +143,108 @@ public interface BarrelInterface extends Remote {
      * @throws RemoteException Se ocorrer um erro na comunicação RMI.
      */
     List<SearchResult> search(List<String> terms, int page) throws RemoteException;
+
+    /**
+     * Devolve uma janela dos melhores resultados de uma pesquisa, ordenados por relevância.
+     * Apenas os {@code offset + limit} melhores documentos são selecionados (heap limitado),
+     * sem ordenar o conjunto completo de resultados.
+     *
+     * @param terms Lista de palavras-chave a pesquisar.
+     * @param offset Número de resultados a saltar (ex: 20 para a terceira página de 10).
+     * @param limit Número máximo de resultados a devolver.
+     * @return Lista de objetos {@link SearchResult} ordenados por relevância.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    List<SearchResult> searchTopK(List<String> terms, int offset, int limit) throws RemoteException;
+
+    /**
+     * Variantes dos termos de uma pesquisa (passo 1 da pesquisa aproximada, partição por
+     * documentos): um termo que existe neste Barrel vem só com ele próprio, a distância 0; um
+     * que não existe vem com os termos do dicionário a 1 ou 2 edições. O Gateway junta as
+     * respostas de todos os shards e só corrige os termos que não existem em nenhum.
+     *
+     * @param terms Termos da pesquisa.
+     * @return Termo -> (variante -> número de edições), por termo distinto.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    Map<String, Map<String, Integer>> expandTerms(List<String> terms) throws RemoteException;
+
+    /**
+     * Pesquisa aproximada (passo 2): cada termo é substituído pelas variantes escolhidas pelo
+     * Gateway, as mesmas em todos os shards, e cada variante pontua menos por cada edição.
+     *
+     * @param terms Termos da pesquisa.
+     * @param expansions Termo -> (variante -> número de edições); os termos sem entrada são
+     *        pesquisados tal como estão.
+     * @param offset Número de resultados a saltar.
+     * @param limit Número máximo de resultados.
+     * @return Lista de objetos {@link SearchResult} ordenados por relevância.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    List<SearchResult> searchFuzzy(List<String> terms, Map<String, Map<String, Integer>> expansions, int offset, int limit) throws RemoteException;
+
+    /**
+     * Estimativa (majorante) do número de documentos com todos os termos, sem executar a
+     * pesquisa. Usada para começar a interseção entre Barrels pelo grupo de termos mais raro.
+     *
+     * @param terms Termos (todos deste Barrel no modo por termos).
+     * @return Número máximo de resultados.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    int estimateMatches(List<String> terms) throws RemoteException;
+
+    /**
+     * Primeiro passo da interseção: os documentos com todos os termos, por ordem de doc ID a
+     * partir do cursor e no máximo {@code limit}, com a parte BM25 dos termos deste Barrel.
+     * O Gateway pede os blocos seguintes com {@link MatchChunk#next} e passa cada um pelos
+     * outros donos, para que nenhuma mensagem leve o conjunto completo de resultados.
+     *
+     * @param terms Termos (todos deste Barrel no modo por termos).
+     * @param cursor Doc ID a partir do qual continuar (0 no primeiro pedido).
+     * @param limit Número máximo de documentos no bloco.
+     * @return Bloco de documentos e o cursor do pedido seguinte.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    MatchChunk matchChunk(List<String> terms, int cursor, int limit) throws RemoteException;
+
+    /**
+     * Filtra um bloco de candidatos (passo intermédio da interseção): devolve os que têm todos
+     * os termos, com a parte BM25 da pontuação acumulada: a dos candidatos recebidos mais a dos
+     * termos deste Barrel (só o dono de um termo conhece a sua frequência de documentos).
+     *
+     * @param terms Termos (todos deste Barrel no modo por termos).
+     * @param candidates URLs a que o resultado se restringe, com a pontuação parcial de cada um.
+     * @return URL de cada documento -> pontuação BM25 parcial.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    Map<String, Double> matchUrls(List<String> terms, Map<String, Double> candidates) throws RemoteException;
+
+    /**
+     * Igual a searchTopK, mas restrito a uma lista de candidatos (último passo da interseção).
+     *
+     * @param terms Termos (todos deste Barrel no modo por termos).
+     * @param candidates URLs candidatos (com os restantes termos da pesquisa) -> pontuação BM25
+     *        parcial desses termos, somada à dos termos deste Barrel.
+     * @param offset Número de resultados a saltar.
+     * @param limit Número máximo de resultados.
+     * @return Lista de objetos {@link SearchResult} ordenados por relevância.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    List<SearchResult> searchWithin(List<String> terms, Map<String, Double> candidates, int offset, int limit) throws RemoteException;
     
+    /**
+     * Sugestões para a pesquisa enquanto se escreve: termos indexados neste Barrel que começam
+     * pelo prefixo, ordenados pelo número de documentos que os contêm. O dicionário de
+     * sugestões é reconstruído em background, por isso termos acabados de indexar podem
+     * demorar alguns segundos a aparecer.
+     *
+     * @param prefix Prefixo (é normalizado para minúsculas).
+     * @param k Número máximo de sugestões.
+     * @return Mapa termo -> número de documentos, por ordem decrescente.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    Map<String, Integer> suggest(String prefix, int k) throws RemoteException;
+
     /**
      * Obtém a lista de URLs que contêm hiperligações para o URL especificado.
      *
@@ -87,7 +256,9 @@ public interface BarrelInterface extends Remote {
     
     /**
      * Retorna uma string formatada com as estatísticas atuais do Barrel.
-     * Inclui o número total de páginas indexadas, termos únicos e backlinks registados.
+     * Inclui o número total de páginas indexadas, termos únicos e backlinks registados,
+     * bem como a memória ocupada pelas listas de ocorrências comprimidas face ao tamanho
+     * que teriam como arrays de inteiros simples.
      *
      * @return String informativa com o estado interno do Barrel.
      * @throws RemoteException Se ocorrer um erro na comunicação RMI.
@@ -104,12 +275,87 @@ public interface BarrelInterface extends Remote {
     String ping() throws RemoteException;
     
     /**
-     * Obtém o estado completo dos dados do Barrel para fins de sincronização.
+     * Obtém um bloco do estado completo do Barrel para fins de sincronização.
      * Este método é crítico para a tolerância a falhas, permitindo que um Barrel que reinicie
      * copie os dados de um Barrel vizinho que já esteja em funcionamento (State Transfer).
+     * <p>
+     * O estado é enviado em blocos de tamanho limitado, todos lidos da mesma vista consistente
+     * (tirada no primeiro pedido), para que nenhum dos lados precise de ter o estado inteiro
+     * serializado em memória. O pedido seguinte usa o {@code transferId} e o cursor
+     * ({@link StateChunk#next}) devolvidos; repetir um pedido retoma a transferência.
+     *
+     * @param transferId 0 para começar uma transferência nova, ou o identificador devolvido no bloco anterior.
+     * @param cursor Posição do bloco pretendido (0 no primeiro pedido).
+     * @param maxBytes Tamanho aproximado máximo do bloco.
+     * @return Bloco {@link StateChunk} com o dicionário, as contagens de backlinks e as páginas dessa posição.
+     * @throws RemoteException Se a transferência não existir (expirou) ou ocorrer um erro na comunicação.
+     */
+    StateChunk getStateChunk(long transferId, int cursor, int maxBytes) throws RemoteException;
+
+    /**
+     * Devolve a posição atual do histórico de páginas aplicadas por este Barrel.
+     * O identificador do histórico muda a cada arranque do Barrel: uma marca guardada com
+     * outro identificador já não é válida e obriga a uma transferência completa.
+     *
+     * @return {identificador do histórico, último número de sequência aplicado}.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    long[] getSequence() throws RemoteException;
+
+    /**
+     * Obtém um bloco das páginas aplicadas por este Barrel depois de um número de sequência
+     * (recuperação incremental de um Barrel que esteve parado pouco tempo).
+     * Os blocos são lidos de uma vista consistente, tirada no primeiro pedido, e têm tamanho
+     * limitado; o pedido seguinte usa o {@code transferId} e o cursor ({@link UpdateChunk#next}).
+     *
+     * @param logId Identificador do histórico a que {@code since} se refere.
+     * @param since Último número de sequência deste Barrel que o pedinte já tem.
+     * @param transferId 0 para começar, ou o identificador devolvido no bloco anterior.
+     * @param cursor Posição do bloco pretendido (0 no primeiro pedido).
+     * @param maxBytes Tamanho aproximado máximo do bloco.
+     * @return Bloco {@link UpdateChunk} com as páginas em falta dessa posição.
+     * @throws RemoteException Se o histórico for outro, a transferência tiver expirado ou a comunicação falhar.
+     */
+    UpdateChunk getUpdatesSince(long logId, int since, long transferId, int cursor, int maxBytes) throws RemoteException;
+
+    /**
+     * Devolve hashes de nós da árvore de Merkle deste Barrel (anti-entropia).
+     * Os documentos estão em {@code 4096} baldes pelo hash do URL; cada nó interno tem 16 filhos
+     * (o nó {@code n} da profundidade {@code d} tem os filhos {@code 16n .. 16n+15} em {@code d+1}).
+     *
+     * @param depth Profundidade dos nós (0 = raiz, 3 = baldes).
+     * @param nodes Índices dos nós pretendidos nessa profundidade.
+     * @return Hash de cada nó, pela mesma ordem.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    long[] getMerkleHashes(int depth, int[] nodes) throws RemoteException;
+
+    /**
+     * Devolve o conteúdo resumido de baldes da árvore de Merkle: URL e hash do conteúdo de
+     * cada página indexada neles (para descobrir as páginas em falta sem as transferir).
      *
-     * @return Objeto {@link SyncData} contendo todos os mapas de dados (páginas, índice, backlinks).
-     * @throws RemoteException Se ocorrer um erro na transferência dos dados.
+     * @param buckets Baldes pretendidos.
+     * @return Mapa URL -> hash do conteúdo.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    Map<String, Integer> getBucketDigest(int[] buckets) throws RemoteException;
+
+    /**
+     * Devolve as páginas indexadas com os URLs pedidos (os que não existirem são ignorados).
+     *
+     * @param urls URLs das páginas.
+     * @return Páginas encontradas.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
+     */
+    List<PageInfo> getPages(List<String> urls) throws RemoteException;
+
+    /**
+     * Indica que parte do índice este Barrel guarda.
+     *
+     * @return {shard, número de shards, modo} (ex: {0, 1, Shards.DOCUMENTS} para uma réplica
+     *         completa); o modo é {@link pt.uc.sd.googol.common.Shards#DOCUMENTS} ou
+     *         {@link pt.uc.sd.googol.common.Shards#TERMS}.
+     * @throws RemoteException Se ocorrer um erro na comunicação RMI.
      */
-    SyncData getFullState() throws RemoteException;
-}
\ No newline at end of file
+    int[] getShard() throws RemoteException;
+}
@@ -14,7 +14,9 @@
  *  @Arquitetura:
  *  - Lê os argumentos de linha de comando:
  *      arg0 → barrelId
- *      arg1 (opcional) → porto RMI
+ *      arg1, arg2 (opcionais) → shard e número de shards
+ *                               (omissão: réplica completa, shard 0 de 1)
+ *      arg3 (opcional) → modo de partição: "docs" (omissão) ou "terms"
  *  - Garante que existe um RMI Registry ativo na porta indicada.
  *  - Cria uma instância de IndexStorageBarrel(barrelId).
  *  - Regista o objeto remoto com o nome "barrel<id>" no registry.
@@ -23,6 +25,15 @@
  *  Exemplos:
  *      mvn exec:java -Dexec.mainClass="pt.uc.sd.googol.barrel.BarrelLauncher" -Dexec.args="0 1099"
  *      mvn exec:java -Dexec.mainClass="pt.uc.sd.googol.barrel.BarrelLauncher" -Dexec.args="1 1100"
+ *      mvn exec:java -Dexec.mainClass="pt.uc.sd.googol.barrel.BarrelLauncher" -Dexec.args="2 1 2"
+ *          (Barrel 2, réplica do shard 1 de 2)
+ *      mvn exec:java -Dexec.mainClass="pt.uc.sd.googol.barrel.BarrelLauncher" -Dexec.args="3 0 2 terms"
+ *          (Barrel 3, dono da primeira metade dos termos)
+ *
+ *  @Configuração:
+ *  Os avisos de alterações ao Gateway são agrupados (ver ChangeNotifier):
+ *      -Dgoogol.notify.debounceMs=250      espera para juntar alterações
+ *      -Dgoogol.notify.minIntervalMs=1000  intervalo mínimo entre avisos
  *
  *  @Comunicação:
  *  O Launcher não comunica diretamente com outros módulos;
@@ -39,6 +50,8 @@ package pt.uc.sd.googol.barrel;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
+import pt.uc.sd.googol.common.Shards;
+
 public class BarrelLauncher {
 
     /**
@@ -49,11 +62,14 @@ public class BarrelLauncher {
      */
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.err.println("Uso: java BarrelLauncher <barrelId>");
+            System.err.println("Uso: java BarrelLauncher <barrelId> [shard numShards [docs|terms]]");
             System.exit(1);
         }
         
         int barrelId = Integer.parseInt(args[0]);
+        int shard = args.length >= 3 ? Integer.parseInt(args[1]) : 0;
+        int shards = args.length >= 3 ? Integer.parseInt(args[2]) : 1;
+        int mode = args.length >= 4 ? Shards.mode(args[3]) : Shards.DOCUMENTS;
         
         try {
             int port = 1099;
@@ -70,7 +86,7 @@ public class BarrelLauncher {
             }
             
             // Criar e registrar este barrel
-            SimpleBarrel barrel = new SimpleBarrel(barrelId);
+            SimpleBarrel barrel = new SimpleBarrel(barrelId, shard, shards, mode);
             registry.rebind("barrel" + barrelId, barrel);
             System.out.println(" Barrel" + barrelId + " rodando");
             
@@ -0,0 +1,92 @@
+/**
+ * Pontuação das pesquisas: BM25 sobre os termos, somado a um termo de rank estático
+ * (backlinks).
+ * <p>
+ * Para cada termo t de uma pesquisa e documento d:
+ * <pre>
+ * idf(t) * tf * (k1 + 1) / (tf + k1 * (1 - b + b * |d| / média))
+ * </pre>
+ * com {@code tf} a frequência de t em d, {@code |d|} o comprimento do texto de d e
+ * {@code idf(t) = ln(1 + (N - df + 0.5) / (df + 0.5))}. A contribuição cresce com a frequência
+ * e decresce com o comprimento, por isso a maior frequência e o menor comprimento de um bloco
+ * de uma lista dão um majorante da pontuação de todos os documentos do bloco
+ * ({@link #bound}). A relevância por backlinks entra como
+ * {@value #BACKLINK_WEIGHT} * ln(1 + backlinks) e o PageRank ({@link PageRank}, normalizado
+ * para média 1) como {@value #PAGERANK_WEIGHT} * ln(1 + rank).
+ * <p>
+ * As pontuações são guardadas no {@link TopKCollector} como inteiros, em milésimos.
+ * As estatísticas (N, df, comprimento médio) são as do índice local: com o índice partido por
+ * documentos cada shard pontua com as suas.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+final class Bm25 {
+
+    /** Saturação da frequência. */
+    static final double K1 = 1.2;
+    /** Peso da normalização pelo comprimento do documento. */
+    static final double B = 0.75;
+    /** Peso do rank estático (por unidade de ln(1 + backlinks)). */
+    static final double BACKLINK_WEIGHT = 1.0;
+    /** Peso do PageRank (por unidade de ln(1 + rank normalizado)). */
+    static final double PAGERANK_WEIGHT = 1.0;
+    /** Escala das pontuações inteiras (milésimos). */
+    static final int SCALE = 1000;
+
+    private final double[] idf;
+    private final double averageLength;
+
+    /**
+     * @param documentFrequencies Número de documentos com cada termo da pesquisa.
+     * @param documents Número de documentos indexados.
+     * @param averageLength Comprimento médio dos documentos.
+     */
+    Bm25(long[] documentFrequencies, int documents, double averageLength) {
+        this.idf = new double[documentFrequencies.length];
+        for (int t = 0; t < idf.length; t++) {
+            // As listas podem ter versões substituídas: df nunca passa de N
+            double df = Math.min(documentFrequencies[t], documents);
+            idf[t] = Math.log(1 + (documents - df + 0.5) / (df + 0.5));
+        }
+        this.averageLength = Math.max(1.0, averageLength);
+    }
+
+    /**
+     * @param term Índice do termo na pesquisa.
+     * @param frequency Frequência do termo no documento.
+     * @param length Comprimento do documento.
+     * @return Contribuição do termo para a pontuação.
+     */
+    double term(int term, int frequency, int length) {
+        double norm = K1 * (1 - B + B * length / averageLength);
+        return idf[term] * frequency * (K1 + 1) / (frequency + norm);
+    }
+
+    /**
+     * Majorante da contribuição de um termo num bloco.
+     *
+     * @param term Índice do termo na pesquisa.
+     * @param maxFrequency Maior frequência do termo no bloco.
+     * @param minLength Menor comprimento de documento no bloco.
+     * @return Contribuição máxima do termo para qualquer documento do bloco.
+     */
+    double bound(int term, int maxFrequency, int minLength) {
+        return term(term, maxFrequency, minLength);
+    }
+
+    /** @return Contribuição do rank estático de um documento com {@code backlinks} backlinks. */
+    static double staticScore(int backlinks) {
+        return BACKLINK_WEIGHT * Math.log1p(Math.max(0, backlinks));
+    }
+
+    /** @return Contribuição do rank estático com backlinks e PageRank normalizado. */
+    static double staticScore(int backlinks, float pageRank) {
+        return staticScore(backlinks) + PAGERANK_WEIGHT * Math.log1p(Math.max(0, pageRank));
+    }
+
+    /** @return Pontuação em milésimos (arredondada por defeito), para o {@link TopKCollector}. */
+    static int scaled(double score) {
+        return (int) Math.min(Integer.MAX_VALUE, score * SCALE);
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Avisos de alterações do Barrel ao Gateway, agrupados numa só thread.
+ * <p>
+ * Cada página indexada só marca que houve alterações ({@link #changed()}). O aviso é enviado
+ * {@code debounceMs} depois da primeira alteração por avisar, juntando todas as que chegarem
+ * entretanto, e nunca mais do que um por {@code minIntervalMs}. O aviso leva os contadores
+ * atuais (lidos no momento do envio), para o Gateway não ter de os pedir de volta.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import pt.uc.sd.googol.gateway.Stats;
+
+final class ChangeNotifier {
+
+    /** Destino dos avisos (ex: o Gateway, se já estiver ligado). */
+    @FunctionalInterface
+    interface Sink {
+        void send(Stats stats) throws RemoteException;
+    }
+
+    private final long debounceMs;
+    private final long minIntervalMs;
+    private final Supplier<Stats> counters;
+    private final Sink sink;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "barrel-notifier");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Protegidos por this: há um aviso agendado; instante do último envio
+    private boolean scheduled = false;
+    private long lastSent = 0;
+    private boolean failing = false;
+
+    /**
+     * @param debounceMs Espera depois da primeira alteração (para juntar as seguintes).
+     * @param minIntervalMs Intervalo mínimo entre dois avisos.
+     * @param counters Contadores atuais do Barrel.
+     * @param sink Destino dos avisos.
+     */
+    ChangeNotifier(long debounceMs, long minIntervalMs, Supplier<Stats> counters, Sink sink) {
+        this.debounceMs = Math.max(0, debounceMs);
+        this.minIntervalMs = Math.max(0, minIntervalMs);
+        this.counters = counters;
+        this.sink = sink;
+    }
+
+    /** Regista que houve alterações; agenda um aviso se ainda não houver nenhum por enviar. */
+    void changed() {
+        long delay;
+        synchronized (this) {
+            if (scheduled) return;
+            scheduled = true;
+            delay = Math.max(debounceMs, lastSent + minIntervalMs - System.currentTimeMillis());
+        }
+        scheduler.schedule(this::send, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void send() {
+        synchronized (this) {
+            scheduled = false;
+            lastSent = System.currentTimeMillis();
+        }
+        try {
+            sink.send(counters.get());
+            failing = false;
+        } catch (RemoteException e) {
+            // Só o primeiro erro seguido é mostrado (o Gateway pode estar a reiniciar)
+            if (!failing) System.err.println(" [Notificação] Gateway indisponível: " + e.getMessage());
+            failing = true;
+        } catch (RuntimeException e) {
+            System.err.println(" [Notificação] Erro: " + e.getMessage());
+        }
+    }
+}
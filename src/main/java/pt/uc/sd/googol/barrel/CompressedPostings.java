@@ -0,0 +1,164 @@
+/**
+ * Lista de doc IDs ordenados, comprimida em blocos de {@value #BLOCK_SIZE} entradas.
+ * <p>
+ * Dentro de cada bloco guardam-se apenas as diferenças (deltas) entre IDs consecutivos,
+ * codificadas em Variable-Byte (7 bits por byte, o bit mais alto indica continuação).
+ * Para cada bloco existe uma entrada na tabela de saltos (skip table) com o último doc ID
+ * do bloco e o deslocamento em bytes onde começa, o que permite a um {@link PostingCursor}
+ * saltar blocos inteiros sem os descodificar.
+ * <p>
+ * As instâncias são vistas imutáveis: a {@link PostingList} pode continuar a acrescentar blocos
+ * aos mesmos arrays, mas uma vista só lê os primeiros {@code blockCount} blocos.
+ * Os segmentos em disco ({@link IndexSegment}) usam uma subclasse que lê o mesmo formato
+ * diretamente do ficheiro mapeado em memória; nas listas de termos dos segmentos cada bloco
+ * tem também as frequências do termo e, na tabela de saltos, a maior frequência e o menor
+ * comprimento de documento do bloco (majorante da pontuação BM25 do bloco).
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.util.Arrays;
+
+class CompressedPostings {
+
+    /** Número de doc IDs por bloco. */
+    static final int BLOCK_SIZE = 128;
+
+    static final CompressedPostings EMPTY = new CompressedPostings(new byte[0], new int[0], new int[0], 0, 0, 0);
+
+    final byte[] data;
+    final int[] blockLast;
+    final int[] blockOffset;
+    final int blockCount;
+    final int dataLength;
+    final int size;
+
+    CompressedPostings(byte[] data, int[] blockLast, int[] blockOffset, int blockCount, int dataLength, int size) {
+        this.data = data;
+        this.blockLast = blockLast;
+        this.blockOffset = blockOffset;
+        this.blockCount = blockCount;
+        this.dataLength = dataLength;
+        this.size = size;
+    }
+
+    /**
+     * Comprime um array ordenado de doc IDs.
+     *
+     * @param docs Doc IDs ordenados e sem repetidos.
+     * @param length Número de posições válidas em {@code docs}.
+     * @return A lista comprimida.
+     */
+    static CompressedPostings encode(int[] docs, int length) {
+        if (length == 0) return EMPTY;
+        int blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        byte[] data = new byte[length * 2 + 8];
+        int[] last = new int[blocks];
+        int[] offset = new int[blocks];
+        int pos = 0;
+        for (int b = 0; b < blocks; b++) {
+            int from = b * BLOCK_SIZE;
+            int to = Math.min(length, from + BLOCK_SIZE);
+            int prev = b == 0 ? -1 : docs[from - 1];
+            offset[b] = pos;
+            last[b] = docs[to - 1];
+            if (data.length - pos < (to - from) * 5) data = Arrays.copyOf(data, Math.max(data.length * 2, pos + (to - from) * 5));
+            pos = writeBlock(data, pos, docs, from, to, prev);
+        }
+        return new CompressedPostings(data, last, offset, blocks, pos, length);
+    }
+
+    /**
+     * Escreve um bloco de deltas em Variable-Byte.
+     *
+     * @return Posição seguinte ao último byte escrito.
+     */
+    static int writeBlock(byte[] out, int pos, int[] docs, int from, int to, int prev) {
+        for (int i = from; i < to; i++) {
+            int delta = docs[i] - prev;
+            prev = docs[i];
+            while ((delta & ~0x7F) != 0) {
+                out[pos++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            out[pos++] = (byte) delta;
+        }
+        return pos;
+    }
+
+    /** @return Último doc ID do bloco {@code b} (entrada da tabela de saltos). */
+    int lastDocOf(int b) {
+        return blockLast[b];
+    }
+
+    /**
+     * Descodifica um bloco para o array de destino.
+     *
+     * @param b Índice do bloco.
+     * @param dest Array com pelo menos {@value #BLOCK_SIZE} posições.
+     * @return Número de doc IDs descodificados.
+     */
+    int decodeBlock(int b, int[] dest) {
+        int count = b == blockCount - 1 ? size - b * BLOCK_SIZE : BLOCK_SIZE;
+        int pos = blockOffset[b];
+        int prev = b == 0 ? -1 : blockLast[b - 1];
+        for (int i = 0; i < count; i++) {
+            int delta = 0, shift = 0, v;
+            do {
+                v = data[pos++];
+                delta |= (v & 0x7F) << shift;
+                shift += 7;
+            } while ((v & 0x80) != 0);
+            prev += delta;
+            dest[i] = prev;
+        }
+        return count;
+    }
+
+    /** @return true se a lista guarda a frequência do termo em cada documento. */
+    boolean hasFrequencies() {
+        return false;
+    }
+
+    /**
+     * Descodifica as frequências de um bloco (só listas com {@link #hasFrequencies()}).
+     *
+     * @param b Índice do bloco.
+     * @param dest Array com pelo menos {@value #BLOCK_SIZE} posições.
+     * @return Número de frequências descodificadas.
+     */
+    int decodeFrequencies(int b, int[] dest) {
+        throw new UnsupportedOperationException("Lista sem frequências");
+    }
+
+    /** @return Maior frequência do bloco {@code b} (1 numa lista sem frequências). */
+    int maxFrequencyOf(int b) {
+        return 1;
+    }
+
+    /** @return Menor comprimento de documento do bloco {@code b} (0 se desconhecido). */
+    int minLengthOf(int b) {
+        return 0;
+    }
+
+    /** @return Todos os doc IDs descodificados, por ordem. */
+    int[] decodeAll() {
+        int[] out = new int[size];
+        int[] block = new int[BLOCK_SIZE];
+        for (int b = 0; b < blockCount; b++) {
+            int n = decodeBlock(b, block);
+            System.arraycopy(block, 0, out, b * BLOCK_SIZE, n);
+        }
+        return out;
+    }
+
+    /** @return Último doc ID da lista, ou -1 se estiver vazia. */
+    int lastDoc() {
+        return blockCount == 0 ? -1 : lastDocOf(blockCount - 1);
+    }
+
+    /** @return Bytes ocupados pelos dados comprimidos e pela tabela de saltos. */
+    long compressedBytes() {
+        return dataLength + (long) blockCount * 8;
+    }
+}
@@ -0,0 +1,343 @@
+/**
+ * Dicionário de documentos do Barrel: atribui a cada URL um identificador inteiro (doc ID).
+ * <p>
+ * Os IDs são densos e atribuídos por ordem de chegada (0, 1, 2, ...), o que permite que o
+ * índice invertido e os backlinks guardem apenas inteiros primitivos em vez de Strings.
+ * Cada URL é guardado uma única vez, aqui, e todas as outras estruturas referem-no pelo ID.
+ * <p>
+ * Os URLs não são guardados como Strings, mas codificados por prefixos (front coding)
+ * agrupados por host: o esquema e o host ("https://exemplo.pt") ficam numa tabela de hosts,
+ * e cada URL guarda só o comprimento do prefixo comum com o URL anterior do mesmo host e os
+ * bytes que faltam. A cada {@value #RESTART_INTERVAL} URLs de um host a cadeia recomeça
+ * (URL completo sem o host), para que descodificar um URL nunca leia mais do que
+ * {@value #RESTART_INTERVAL} entradas. As entradas ficam num monte de bytes só de acréscimo,
+ * em páginas de {@value #PAGE_SIZE} bytes, e a procura por URL usa uma tabela de dispersão
+ * de inteiros (endereçamento aberto) com o hash de cada doc ID, sem objetos por URL.
+ * <p>
+ * Leituras ({@link #lookup(String)} e {@link #url(int)}) não bloqueiam; apenas a atribuição
+ * de novos IDs é sincronizada. Uma entrada só é visível depois de {@code size} (volatile)
+ * a incluir, e nessa altura todos os bytes, deslocamentos e hashes já foram escritos.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class DocIdDictionary {
+
+    /** Valor devolvido por {@link #lookup(String)} quando o URL não é conhecido. */
+    static final int NO_DOC = -1;
+
+    /** Número máximo de entradas seguidas de um host codificadas contra a anterior. */
+    static final int RESTART_INTERVAL = 8;
+    /** Tamanho de cada página do monte de bytes (o deslocamento guarda 16 bits de posição). */
+    static final int PAGE_SIZE = 1 << 16;
+
+    // Monte de bytes: deslocamento de cada doc ID = (página << 16) | posição
+    private byte[][] pages;
+    private int pageCount;
+    private int pagePosition;
+    private int[] offsets;
+    private int[] hashes;
+    private volatile int[] table;
+    private volatile int size;
+
+    // Hosts: os bytes são lidos sem bloqueio (publicados antes de size); o resto só sob o monitor
+    private byte[][] hostBytes;
+    private final Map<String, Integer> hostIds = new HashMap<>();
+    private int[] hostLast;
+    private int[] hostRun;
+
+    DocIdDictionary() {
+        reset(1024);
+    }
+
+    private void reset(int capacity) {
+        pages = new byte[16][];
+        pages[0] = new byte[PAGE_SIZE];
+        pageCount = 1;
+        pagePosition = 0;
+        offsets = new int[capacity];
+        hashes = new int[capacity];
+        table = new int[Integer.highestOneBit(capacity - 1) << 1];
+        hostBytes = new byte[64][];
+        hostIds.clear();
+        hostLast = new int[64];
+        hostRun = new int[64];
+        size = 0;
+    }
+
+    /**
+     * Obtém o ID de um URL, atribuindo um novo se ainda não existir.
+     *
+     * @param url O URL a converter.
+     * @return O doc ID correspondente.
+     */
+    int getOrAssign(String url) {
+        int id = lookup(url);
+        if (id != NO_DOC) return id;
+        synchronized (this) {
+            id = lookup(url);
+            if (id != NO_DOC) return id;
+            return append(url);
+        }
+    }
+
+    /**
+     * Procura o ID de um URL sem o registar.
+     *
+     * @param url O URL a procurar.
+     * @return O doc ID, ou {@link #NO_DOC} se o URL for desconhecido.
+     */
+    int lookup(String url) {
+        int hash = hash(url);
+        int[] slots = table;
+        int mask = slots.length - 1;
+        byte[] target = null;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            int slot = slots[i];
+            if (slot == 0) return NO_DOC;
+            int docId = slot - 1;
+            // Ler size depois da entrada: só IDs já publicados são comparados
+            if (docId >= size || hashes[docId] != hash) continue;
+            if (target == null) target = url.getBytes(StandardCharsets.UTF_8);
+            if (length(docId) == target.length && walk(docId, target, true)) return docId;
+        }
+    }
+
+    /**
+     * Obtém o URL associado a um doc ID.
+     *
+     * @param docId O identificador do documento.
+     * @return O URL, ou null se o ID não existir.
+     */
+    String url(int docId) {
+        if (docId < 0 || docId >= size) return null; // ler o tamanho primeiro publica a entrada
+        return new String(bytes(docId), StandardCharsets.UTF_8);
+    }
+
+    /** @return Número de URLs registados. */
+    int size() { return size; }
+
+    /**
+     * Memória aproximada ocupada pelo dicionário: páginas de bytes em uso, deslocamentos,
+     * hashes, tabela de dispersão e tabela de hosts.
+     *
+     * @return Número de bytes.
+     */
+    synchronized long bytesUsed() {
+        long bytes = (long) (pageCount - 1) * PAGE_SIZE + pagePosition;
+        bytes += 4L * (offsets.length + hashes.length + table.length);
+        // Cada host: bytes, String da chave e entrada do mapa
+        for (int h = 0; h < hostIds.size(); h++) bytes += 2L * hostBytes[h].length + 96;
+        return bytes;
+    }
+
+    /**
+     * Repõe o dicionário a partir de uma lista de URLs (checkpoint ou estado antigo).
+     * Só deve ser usado com o dicionário vazio (arranque ou sincronização).
+     *
+     * @param list Lista de URLs indexada por doc ID.
+     */
+    synchronized void load(List<String> list) {
+        reset(Math.max(1024, Integer.highestOneBit(Math.max(1, list.size())) * 2));
+        for (String url : list) append(url);
+    }
+
+    // ---------------------------------------------------------------
+    // Codificação (sempre sob o monitor)
+    // ---------------------------------------------------------------
+
+    private int append(String url) {
+        int docId = size;
+        if (docId == offsets.length) {
+            offsets = Arrays.copyOf(offsets, docId * 2);
+            hashes = Arrays.copyOf(hashes, docId * 2);
+        }
+        byte[] full = url.getBytes(StandardCharsets.UTF_8);
+        int hostEnd = hostEnd(url);
+        int host = host(url.substring(0, hostEnd));
+        int hostLength = hostBytes[host].length;
+
+        byte[] entry;
+        int anchor = hostLast[host];
+        if (anchor < 0 || hostRun[host] >= RESTART_INTERVAL) {
+            // Recomeço: ID do host e o resto do URL
+            entry = encode(0, host, full, hostLength);
+            hostRun[host] = 1;
+        } else {
+            byte[] previous = bytes(anchor);
+            int prefix = 0;
+            int max = Math.min(previous.length, full.length);
+            while (prefix < max && previous[prefix] == full[prefix]) prefix++;
+            entry = encode(docId - anchor, prefix, full, prefix);
+            hostRun[host]++;
+        }
+        hostLast[host] = docId;
+
+        offsets[docId] = write(entry);
+        int hash = hash(url);
+        hashes[docId] = hash;
+        insert(docId, hash);
+        size = docId + 1;
+        return docId;
+    }
+
+    /** Entrada: distância ao URL âncora (0 = recomeço), host ou prefixo, comprimento e bytes. */
+    private static byte[] encode(int anchorDelta, int hostOrPrefix, byte[] full, int from) {
+        int suffix = full.length - from;
+        byte[] entry = new byte[15 + suffix];
+        int p = writeVarint(entry, 0, anchorDelta);
+        p = writeVarint(entry, p, hostOrPrefix);
+        p = writeVarint(entry, p, suffix);
+        System.arraycopy(full, from, entry, p, suffix);
+        return Arrays.copyOf(entry, p + suffix);
+    }
+
+    private int write(byte[] entry) {
+        if (entry.length > PAGE_SIZE - pagePosition) {
+            // As entradas não atravessam páginas; uma entrada maior que uma página tem página própria
+            if (pageCount == pages.length) pages = Arrays.copyOf(pages, pageCount * 2);
+            pages[pageCount++] = new byte[Math.max(PAGE_SIZE, entry.length)];
+            pagePosition = 0;
+        }
+        int page = pageCount - 1;
+        System.arraycopy(entry, 0, pages[page], pagePosition, entry.length);
+        int offset = (page << 16) | pagePosition;
+        pagePosition = Math.min(PAGE_SIZE, pagePosition + entry.length);
+        return offset;
+    }
+
+    private void insert(int docId, int hash) {
+        int[] slots = table;
+        if ((docId + 1) * 4 > slots.length * 3) {
+            // Nova tabela com o dobro do tamanho, publicada já preenchida
+            int[] grown = new int[slots.length * 2];
+            for (int d = 0; d < docId; d++) place(grown, d, hashes[d]);
+            place(grown, docId, hash);
+            table = grown;
+        } else {
+            place(slots, docId, hash);
+        }
+    }
+
+    private static void place(int[] slots, int docId, int hash) {
+        int mask = slots.length - 1;
+        int i = hash & mask;
+        while (slots[i] != 0) i = (i + 1) & mask;
+        slots[i] = docId + 1;
+    }
+
+    private int host(String host) {
+        Integer id = hostIds.get(host);
+        if (id != null) return id;
+        int newId = hostIds.size();
+        if (newId == hostBytes.length) {
+            hostBytes = Arrays.copyOf(hostBytes, newId * 2);
+            hostLast = Arrays.copyOf(hostLast, newId * 2);
+            hostRun = Arrays.copyOf(hostRun, newId * 2);
+        }
+        hostBytes[newId] = host.getBytes(StandardCharsets.UTF_8);
+        hostLast[newId] = -1;
+        hostRun[newId] = 0;
+        hostIds.put(host, newId);
+        return newId;
+    }
+
+    /** @return Fim do esquema e host do URL ("https://exemplo.pt"), ou 0 se não tiver host. */
+    private static int hostEnd(String url) {
+        int scheme = url.indexOf("://");
+        if (scheme < 0) return 0;
+        int path = url.indexOf('/', scheme + 3);
+        return path < 0 ? url.length() : path;
+    }
+
+    // ---------------------------------------------------------------
+    // Descodificação (sem bloqueio)
+    // ---------------------------------------------------------------
+
+    private byte[] bytes(int docId) {
+        byte[] result = new byte[length(docId)];
+        walk(docId, result, false);
+        return result;
+    }
+
+    /**
+     * Percorre a cadeia de entradas de um URL, do fim para o início: cada entrada fornece os
+     * seus bytes próprios e a anterior (âncora) os do prefixo, até ao recomeço, que fornece o
+     * host. Cada byte é lido uma única vez, sem descodificar os URLs intermédios.
+     *
+     * @param docId Documento.
+     * @param buf Destino (ou URL a comparar), com o comprimento exato do URL.
+     * @param compare true para comparar com {@code buf} em vez de copiar para ele.
+     * @return false se {@code compare} e os bytes forem diferentes.
+     */
+    private boolean walk(int docId, byte[] buf, boolean compare) {
+        int limit = buf.length; // bytes ainda por fornecer: [0, limit)
+        int[] pos = new int[1];
+        for (int doc = docId; ; ) {
+            int offset = offsets[doc];
+            byte[] page = pages[offset >>> 16];
+            pos[0] = offset & 0xFFFF;
+            int anchorDelta = readVarint(page, pos);
+            int hostOrPrefix = readVarint(page, pos);
+            int suffix = readVarint(page, pos);
+            byte[] host = anchorDelta == 0 ? hostBytes[hostOrPrefix] : null;
+            int start = host != null ? host.length : hostOrPrefix;
+
+            int n = Math.min(limit, start + suffix) - start;
+            if (n > 0) {
+                if (!compare) System.arraycopy(page, pos[0], buf, start, n);
+                else if (!Arrays.equals(page, pos[0], pos[0] + n, buf, start, start + n)) return false;
+            }
+            limit = Math.min(limit, start);
+            if (host != null) {
+                if (!compare) System.arraycopy(host, 0, buf, 0, limit);
+                else if (!Arrays.equals(host, 0, limit, buf, 0, limit)) return false;
+                return true;
+            }
+            if (limit == 0) return true;
+            doc -= anchorDelta;
+        }
+    }
+
+    /** @return Comprimento em bytes do URL do documento. */
+    private int length(int docId) {
+        int offset = offsets[docId];
+        int[] pos = { offset & 0xFFFF };
+        byte[] page = pages[offset >>> 16];
+        int anchorDelta = readVarint(page, pos);
+        int hostOrPrefix = readVarint(page, pos);
+        return (anchorDelta == 0 ? hostBytes[hostOrPrefix].length : hostOrPrefix) + readVarint(page, pos);
+    }
+
+    private static int writeVarint(byte[] buf, int p, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[p++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[p++] = (byte) value;
+        return p;
+    }
+
+    private static int readVarint(byte[] buf, int[] pos) {
+        int value = 0, shift = 0, p = pos[0];
+        byte b;
+        do {
+            b = buf[p++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        pos[0] = p;
+        return value;
+    }
+
+    private static int hash(String url) {
+        int h = url.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
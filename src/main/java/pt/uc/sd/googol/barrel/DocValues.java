@@ -0,0 +1,126 @@
+/**
+ * Um valor inteiro por documento, num array indexado por doc ID (ex: número de backlinks,
+ * geração onde está a versão mais recente do documento).
+ * <p>
+ * Evita mapas de objetos para dados por documento que são consultados em cada resultado
+ * de pesquisa. As leituras não bloqueiam: no pior caso devolvem um valor acabado de ser
+ * ultrapassado. Documentos sem valor atribuído valem 0.
+ * <p>
+ * Os valores estão divididos em páginas de {@value #PAGE_SIZE} entradas, partilhadas em
+ * copy-on-write com as cópias de {@link #snapshot()}: tirar uma cópia custa apenas copiar a
+ * tabela de páginas, e cada página só é duplicada na primeira escrita que a altera depois disso.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.util.Arrays;
+
+final class DocValues {
+
+    private static final int PAGE_BITS = 10;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private volatile int[][] pages;
+    // owned[p]: a página p pertence só a esta instância (pode ser alterada sem cópia)
+    private boolean[] owned;
+
+    DocValues() {
+        this(new int[1][PAGE_SIZE], new boolean[] {true});
+    }
+
+    private DocValues(int[][] pages, boolean[] owned) {
+        this.pages = pages;
+        this.owned = owned;
+    }
+
+    /**
+     * @param docId Doc ID.
+     * @return Valor do documento (0 se nunca foi definido).
+     */
+    int get(int docId) {
+        int[][] snapshot = pages;
+        int p = docId >>> PAGE_BITS;
+        return p < snapshot.length ? snapshot[p][docId & (PAGE_SIZE - 1)] : 0;
+    }
+
+    /** Soma {@code delta} ao valor de um documento. */
+    synchronized void add(int docId, int delta) {
+        writablePage(docId)[docId & (PAGE_SIZE - 1)] += delta;
+    }
+
+    /**
+     * Define o valor de um documento.
+     *
+     * @return O valor anterior.
+     */
+    synchronized int set(int docId, int value) {
+        int[] page = writablePage(docId);
+        int previous = page[docId & (PAGE_SIZE - 1)];
+        page[docId & (PAGE_SIZE - 1)] = value;
+        return previous;
+    }
+
+    /**
+     * Cópia só de leitura dos valores atuais. Custa O(páginas), não O(documentos): as páginas
+     * passam a ser partilhadas e esta instância duplica cada uma antes de a voltar a alterar.
+     *
+     * @return Cópia imutável (não deve ser alterada).
+     */
+    synchronized DocValues snapshot() {
+        Arrays.fill(owned, false);
+        return new DocValues(pages.clone(), new boolean[pages.length]);
+    }
+
+    /**
+     * Substitui todos os valores de uma vez (carregamento de um checkpoint).
+     *
+     * @param loaded Valores indexados por doc ID.
+     */
+    synchronized void load(int[] loaded) {
+        int count = Math.max(1, (loaded.length + PAGE_SIZE - 1) >>> PAGE_BITS);
+        int[][] fresh = new int[count][];
+        for (int p = 0; p < count; p++) {
+            int from = Math.min(loaded.length, p << PAGE_BITS);
+            fresh[p] = Arrays.copyOfRange(loaded, from, from + PAGE_SIZE);
+        }
+        owned = new boolean[count];
+        Arrays.fill(owned, true);
+        pages = fresh;
+    }
+
+    /** Apaga todos os valores. */
+    synchronized void clear() {
+        owned = new boolean[] {true};
+        pages = new int[1][PAGE_SIZE];
+    }
+
+    /** @return Número de documentos com valor diferente de 0. */
+    int countNonZero() {
+        int[][] snapshot = pages;
+        int n = 0;
+        for (int[] page : snapshot) {
+            for (int v : page) if (v != 0) n++;
+        }
+        return n;
+    }
+
+    /** @return Página de {@code docId}, criada ou duplicada se ainda não pertencer a esta instância. */
+    private int[] writablePage(int docId) {
+        int p = docId >>> PAGE_BITS;
+        if (p >= pages.length) {
+            int count = Math.max(p + 1, pages.length * 2);
+            int[][] grown = Arrays.copyOf(pages, count);
+            for (int i = pages.length; i < count; i++) grown[i] = new int[PAGE_SIZE];
+            boolean[] grownOwned = Arrays.copyOf(owned, count);
+            Arrays.fill(grownOwned, pages.length, count, true);
+            owned = grownOwned;
+            pages = grown;
+        }
+        if (!owned[p]) {
+            // A tabela já não é a da cópia (clonada em snapshot()), por isso basta trocar a página
+            pages[p] = pages[p].clone();
+            owned[p] = true;
+        }
+        return pages[p];
+    }
+}
@@ -0,0 +1,605 @@
+/**
+ * Segmento imutável do índice, guardado num ficheiro e lido através de um {@link MappedByteBuffer}.
+ * <p>
+ * O ficheiro contém o dicionário de termos, as listas de ocorrências (no mesmo formato de
+ * {@link CompressedPostings}: tabela de saltos + blocos delta/Variable-Byte), as listas de
+ * backlinks e o armazém de documentos (as páginas, na forma compacta de
+ * {@link StoredDocument}). As pesquisas leem diretamente das páginas mapeadas; nada disto
+ * ocupa heap e é o sistema operativo (page cache) que decide o que fica em memória.
+ * <p>
+ * Dentro do segmento os documentos são numerados por ordem decrescente de rank estático
+ * (número de backlinks no momento da construção): o ordinal local 0 é o mais relevante.
+ * As listas de ocorrências guardam esses ordinais, e por isso uma interseção devolve os
+ * resultados do segmento já ordenados e pode parar ao fim de k resultados. A ordem é refeita
+ * sempre que o segmento é reescrito (fusão ou reordenação periódica).
+ * <p>
+ * Um segmento cobre um intervalo contíguo de gerações de {@link MemTable}
+ * [{@link #minGeneration}, {@link #maxGeneration}]; um documento só é visível aqui se a sua
+ * versão mais recente pertencer a esse intervalo.
+ * <p>
+ * Formato do ficheiro (inteiros big-endian, offsets absolutos):
+ * <pre>
+ * [listas de termos: blockLast[n] + blockOffset[n] + freqOffset[n] + maxFreq[n] + minLength[n]
+ *  + doc IDs + frequências]
+ * [listas de backlinks: blockLast[n] + blockOffset[n] + doc IDs]
+ * [armazém: por documento, título, citação e índice direto ({@link StoredDocument#write})]
+ * [tabela de documentos: por ordinal local, docId + geração + offset no armazém]
+ * [doc IDs ordenados: docId + ordinal local]
+ * [entradas de termos: bytes UTF-8 + lista] [índice de termos: offset de cada entrada, por ordem]
+ * [backlinks: destino + lista, por ordem de destino]
+ * [rodapé de {@value #FOOTER_BYTES} bytes]
+ * </pre>
+ * Cada ficheiro é limitado a 2 GB (limite de um único {@link MappedByteBuffer}).
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+final class IndexSegment {
+
+    private static final int MAGIC = 0x47534547; // "GSEG"
+    private static final int VERSION = 3;
+    static final int FOOTER_BYTES = 64;
+
+    /** Bytes por entrada da tabela de documentos, dos doc IDs ordenados e dos backlinks. */
+    private static final int DOC_ENTRY = 12;
+    private static final int SORTED_ENTRY = 8;
+    private static final int LINK_ENTRY = 20;
+
+    final Path file;
+    final int minGeneration;
+    final int maxGeneration;
+    /** Número de atualizações de backlinks já refletidas na ordem por rank deste segmento. */
+    final long rankVersion;
+    final long createdAt = System.currentTimeMillis();
+
+    private final ByteBuffer buffer;
+    private final int docCount;
+    private final int termCount;
+    private final int linkCount;
+    private final long postingEntries;
+    private final int storeOffset;
+    private final int docTableOffset;
+    private final int sortedDocsOffset;
+    private final int termIndexOffset;
+    private final int linkTableOffset;
+
+    private IndexSegment(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        int f = buffer.capacity() - FOOTER_BYTES;
+        if (f < 0 || buffer.getInt(f) != MAGIC || buffer.getInt(f + 4) != VERSION) {
+            throw new IOException("Segmento inválido: " + file);
+        }
+        this.minGeneration = buffer.getInt(f + 8);
+        this.maxGeneration = buffer.getInt(f + 12);
+        this.rankVersion = buffer.getLong(f + 16);
+        this.postingEntries = buffer.getLong(f + 24);
+        this.docCount = buffer.getInt(f + 32);
+        this.termCount = buffer.getInt(f + 36);
+        this.linkCount = buffer.getInt(f + 40);
+        this.storeOffset = buffer.getInt(f + 44);
+        this.docTableOffset = buffer.getInt(f + 48);
+        this.sortedDocsOffset = buffer.getInt(f + 52);
+        this.termIndexOffset = buffer.getInt(f + 56);
+        this.linkTableOffset = buffer.getInt(f + 60);
+    }
+
+    /** Documento a escrever num segmento: doc ID, geração da versão e página. */
+    static final class Doc {
+        final int docId;
+        final int generation;
+        final StoredDocument document;
+
+        Doc(int docId, int generation, StoredDocument document) {
+            this.docId = docId;
+            this.generation = generation;
+            this.document = document;
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Escrita
+    // ═══════════════════════════════════════════════════════
+
+    /**
+     * Escreve um segmento em disco e abre-o mapeado. As listas são derivadas das próprias
+     * páginas, por isso termos de versões antigas de um documento nunca passam para o segmento.
+     *
+     * @param file Ficheiro a criar.
+     * @param minGeneration Primeira geração coberta.
+     * @param maxGeneration Última geração coberta.
+     * @param docs Documentos (um por doc ID).
+     * @param ranks Rank estático de cada documento (maior = mais relevante).
+     * @param rankVersion Versão das contagens de backlinks usadas em {@code ranks}.
+     * @return O segmento escrito, já mapeado.
+     * @throws IOException Se a escrita falhar ou o segmento exceder 2 GB.
+     */
+    static IndexSegment write(Path file, int minGeneration, int maxGeneration, List<Doc> docs,
+                              DocValues ranks, long rankVersion) throws IOException {
+        // 1. Ordem local: rank decrescente, doc ID crescente (ranks fixados: as escritas continuam)
+        DocValues fixed = ranks.snapshot();
+        Doc[] ordered = docs.toArray(new Doc[0]);
+        Arrays.sort(ordered, (a, b) -> {
+            int cmp = Integer.compare(fixed.get(b.docId), fixed.get(a.docId));
+            return cmp != 0 ? cmp : Integer.compare(a.docId, b.docId);
+        });
+        int n = ordered.length;
+
+        // 2. Listas: percorrer por ordinal crescente deixa cada lista de termos já ordenada
+        Map<String, IntList> termLists = new HashMap<>();
+        Map<String, IntList> termFrequencies = new HashMap<>();
+        Map<Integer, IntList> linkLists = new HashMap<>();
+        int[] lengths = new int[n];
+        for (int local = 0; local < n; local++) {
+            Doc doc = ordered[local];
+            lengths[local] = doc.document.length;
+            for (Map.Entry<String, Integer> word : doc.document.frequencies().entrySet()) {
+                termLists.computeIfAbsent(word.getKey(), k -> new IntList()).add(local);
+                termFrequencies.computeIfAbsent(word.getKey(), k -> new IntList()).add(word.getValue());
+            }
+            for (int target : doc.document.distinctLinks()) {
+                linkLists.computeIfAbsent(target, k -> new IntList()).add(doc.docId);
+            }
+        }
+        // Termos por ordem dos bytes UTF-8 (a mesma usada na pesquisa binária do dicionário)
+        byte[][] termKeys = new byte[termLists.size()][];
+        int t = 0;
+        for (String term : termLists.keySet()) termKeys[t++] = term.getBytes(StandardCharsets.UTF_8);
+        Arrays.sort(termKeys, Arrays::compareUnsigned);
+        int[] targets = new int[linkLists.size()];
+        t = 0;
+        for (int target : linkLists.keySet()) targets[t++] = target;
+        Arrays.sort(targets);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            // 3. Listas de ocorrências e de backlinks
+            long entries = 0;
+            int[][] termPostings = new int[termKeys.length][];
+            for (int i = 0; i < termKeys.length; i++) {
+                String term = new String(termKeys[i], StandardCharsets.UTF_8);
+                IntList list = termLists.get(term);
+                termPostings[i] = writeTermPostings(out, list.values, termFrequencies.get(term).values, lengths, list.size);
+                entries += list.size;
+            }
+            int[][] linkPostings = new int[targets.length][];
+            for (int i = 0; i < targets.length; i++) {
+                IntList list = linkLists.get(targets[i]);
+                Arrays.sort(list.values, 0, list.size);
+                linkPostings[i] = writePostings(out, list.values, list.size);
+                entries += list.size;
+            }
+
+            // 4. Armazém de documentos
+            int store = position(out);
+            int[] recordOffset = new int[n];
+            for (int local = 0; local < n; local++) {
+                recordOffset[local] = position(out);
+                ordered[local].document.write(out);
+            }
+
+            // 5. Tabela de documentos e doc IDs ordenados
+            int docTable = position(out);
+            for (int local = 0; local < n; local++) {
+                out.writeInt(ordered[local].docId);
+                out.writeInt(ordered[local].generation);
+                out.writeInt(recordOffset[local]);
+            }
+            long[] byDoc = new long[n];
+            for (int local = 0; local < n; local++) byDoc[local] = ((long) ordered[local].docId << 32) | local;
+            Arrays.sort(byDoc);
+            int sortedDocs = position(out);
+            for (long entry : byDoc) {
+                out.writeInt((int) (entry >>> 32));
+                out.writeInt((int) entry);
+            }
+
+            // 6. Dicionário de termos (entradas + índice para pesquisa binária)
+            int[] termEntry = new int[termKeys.length];
+            for (int i = 0; i < termKeys.length; i++) {
+                termEntry[i] = position(out);
+                out.writeInt(termKeys[i].length);
+                out.write(termKeys[i]);
+                for (int v : termPostings[i]) out.writeInt(v);
+            }
+            int termIndex = position(out);
+            for (int offset : termEntry) out.writeInt(offset);
+
+            // 7. Backlinks
+            int linkTable = position(out);
+            for (int i = 0; i < targets.length; i++) {
+                out.writeInt(targets[i]);
+                for (int v : linkPostings[i]) out.writeInt(v);
+            }
+
+            // 8. Rodapé
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(minGeneration);
+            out.writeInt(maxGeneration);
+            out.writeLong(rankVersion);
+            out.writeLong(entries);
+            out.writeInt(n);
+            out.writeInt(termKeys.length);
+            out.writeInt(targets.length);
+            out.writeInt(store);
+            out.writeInt(docTable);
+            out.writeInt(sortedDocs);
+            out.writeInt(termIndex);
+            out.writeInt(linkTable);
+            position(out);
+        }
+        return open(file);
+    }
+
+    /**
+     * Escreve uma lista comprimida: tabela de saltos (últimos doc IDs e offsets) e dados.
+     *
+     * @return {offset, número de doc IDs, número de blocos, bytes de dados}.
+     */
+    private static int[] writePostings(DataOutputStream out, int[] docs, int length) throws IOException {
+        CompressedPostings postings = CompressedPostings.encode(docs, length);
+        int offset = position(out);
+        for (int b = 0; b < postings.blockCount; b++) out.writeInt(postings.blockLast[b]);
+        for (int b = 0; b < postings.blockCount; b++) out.writeInt(postings.blockOffset[b]);
+        out.write(postings.data, 0, postings.dataLength);
+        return new int[] {offset, postings.size, postings.blockCount, postings.dataLength};
+    }
+
+    /**
+     * Escreve uma lista de termo: como {@link #writePostings}, mais as frequências de cada
+     * bloco (Variable-Byte, depois dos doc IDs) e, por bloco, o offset das frequências, a maior
+     * frequência e o menor comprimento de documento (majorantes para a poda da pesquisa).
+     *
+     * @return {offset, número de doc IDs, número de blocos, bytes de doc IDs}.
+     */
+    private static int[] writeTermPostings(DataOutputStream out, int[] docs, int[] frequencies, int[] lengths,
+                                           int length) throws IOException {
+        CompressedPostings postings = CompressedPostings.encode(docs, length);
+        int blocks = postings.blockCount;
+        int[] freqOffset = new int[blocks];
+        int[] maxFreq = new int[blocks];
+        int[] minLength = new int[blocks];
+        byte[] freqData = new byte[length * 2 + 8];
+        int pos = 0;
+        for (int b = 0; b < blocks; b++) {
+            int from = b * CompressedPostings.BLOCK_SIZE;
+            int to = Math.min(length, from + CompressedPostings.BLOCK_SIZE);
+            freqOffset[b] = pos;
+            minLength[b] = Integer.MAX_VALUE;
+            if (freqData.length - pos < (to - from) * 5) freqData = Arrays.copyOf(freqData, Math.max(freqData.length * 2, pos + (to - from) * 5));
+            for (int i = from; i < to; i++) {
+                maxFreq[b] = Math.max(maxFreq[b], frequencies[i]);
+                minLength[b] = Math.min(minLength[b], lengths[docs[i]]);
+                int value = frequencies[i];
+                while ((value & ~0x7F) != 0) {
+                    freqData[pos++] = (byte) ((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                freqData[pos++] = (byte) value;
+            }
+        }
+        int offset = position(out);
+        for (int b = 0; b < blocks; b++) out.writeInt(postings.blockLast[b]);
+        for (int b = 0; b < blocks; b++) out.writeInt(postings.blockOffset[b]);
+        for (int b = 0; b < blocks; b++) out.writeInt(freqOffset[b]);
+        for (int b = 0; b < blocks; b++) out.writeInt(maxFreq[b]);
+        for (int b = 0; b < blocks; b++) out.writeInt(minLength[b]);
+        out.write(postings.data, 0, postings.dataLength);
+        out.write(freqData, 0, pos);
+        return new int[] {offset, postings.size, blocks, postings.dataLength};
+    }
+
+    /** Posição atual do ficheiro; os offsets são int, por isso um segmento não pode passar de 2 GB. */
+    private static int position(DataOutputStream out) throws IOException {
+        int position = out.size();
+        if (position < 0) throw new IOException("Segmento excede 2 GB");
+        return position;
+    }
+
+    /**
+     * Abre um segmento existente, mapeando o ficheiro só para leitura.
+     *
+     * @param file Ficheiro do segmento.
+     * @return O segmento.
+     * @throws IOException Se o ficheiro não puder ser lido ou não for um segmento válido.
+     */
+    static IndexSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Segmento excede 2 GB: " + file);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new IndexSegment(file, mapped);
+        }
+    }
+
+    /** Apaga o ficheiro do segmento (ou agenda a remoção, se o sistema não deixar apagar um ficheiro mapeado). */
+    void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Leitura
+    // ═══════════════════════════════════════════════════════
+
+    /** @return true se a geração indicada está coberta por este segmento. */
+    boolean covers(int generation) {
+        return generation >= minGeneration && generation <= maxGeneration;
+    }
+
+    /**
+     * @param term Termo normalizado.
+     * @return Cursor sobre os ordinais locais (por rank) do termo, ou null se não existir.
+     */
+    PostingCursor cursor(String term) {
+        int entry = findTerm(term.getBytes(StandardCharsets.UTF_8));
+        if (entry < 0) return null;
+        return new PostingCursor(postingsAt(entry + 4 + buffer.getInt(entry), true));
+    }
+
+    /** Pesquisa binária no índice de termos, comparando os bytes UTF-8 sem criar Strings. */
+    private int findTerm(byte[] key) {
+        int lo = 0, hi = termCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = buffer.getInt(termIndexOffset + mid * 4);
+            int cmp = compareKey(entry, key);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return entry;
+        }
+        return -1;
+    }
+
+    private int compareKey(int entry, byte[] key) {
+        int length = buffer.getInt(entry);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Integer.compare(buffer.get(entry + 4 + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) return cmp;
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    /** Lê a descrição de uma lista ({offset, tamanho, blocos, bytes}) a partir de {@code pos}. */
+    private CompressedPostings postingsAt(int pos, boolean frequencies) {
+        return new MappedPostings(buffer, buffer.getInt(pos), buffer.getInt(pos + 4),
+            buffer.getInt(pos + 8), buffer.getInt(pos + 12), frequencies);
+    }
+
+    /** Converte um ordinal local no doc ID. */
+    int docAt(int local) { return buffer.getInt(docTableOffset + local * DOC_ENTRY); }
+
+    /**
+     * @param docId Doc ID.
+     * @return A página guardada neste segmento, ou null se o documento não estiver aqui.
+     */
+    StoredDocument document(int docId) {
+        int lo = 0, hi = docCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = sortedDocsOffset + mid * SORTED_ENTRY;
+            int value = buffer.getInt(entry);
+            if (value < docId) lo = mid + 1;
+            else if (value > docId) hi = mid - 1;
+            else return readDocument(buffer.getInt(docTableOffset + buffer.getInt(entry + 4) * DOC_ENTRY + 8), docId);
+        }
+        return null;
+    }
+
+    /**
+     * @param target Doc ID de destino.
+     * @return Doc IDs (ordenados) das páginas deste segmento que apontam para o destino.
+     */
+    int[] linkSources(int target) {
+        int lo = 0, hi = linkCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = linkTableOffset + mid * LINK_ENTRY;
+            int value = buffer.getInt(entry);
+            if (value < target) lo = mid + 1;
+            else if (value > target) hi = mid - 1;
+            else return postingsAt(entry + 4, false).decodeAll();
+        }
+        return new int[0];
+    }
+
+    /**
+     * @param latest Geração da versão mais recente de cada documento.
+     * @return Número de documentos cuja versão guardada aqui ainda é a visível.
+     */
+    int liveCount(DocValues latest) {
+        int live = 0;
+        for (int local = 0; local < docCount; local++) {
+            int entry = docTableOffset + local * DOC_ENTRY;
+            if (latest.get(buffer.getInt(entry)) == buffer.getInt(entry + 4)) live++;
+        }
+        return live;
+    }
+
+    /** Entrega a {@code consumer} os documentos deste segmento, por ordem de rank (para fusões e checkpoints). */
+    void forEachDoc(Consumer<Doc> consumer) {
+        for (int local = 0; local < docCount; local++) {
+            int entry = docTableOffset + local * DOC_ENTRY;
+            int docId = buffer.getInt(entry);
+            consumer.accept(new Doc(docId, buffer.getInt(entry + 4), readDocument(buffer.getInt(entry + 8), docId)));
+        }
+    }
+
+    private StoredDocument readDocument(int pos, int docId) {
+        return StoredDocument.read(buffer.duplicate().position(pos), docId);
+    }
+
+    /** @return Número de termos do dicionário. */
+    int termCount() { return termCount; }
+
+    /** @return Bytes UTF-8 do i-ésimo termo, pela ordem do dicionário. */
+    byte[] termKey(int i) {
+        int entry = buffer.getInt(termIndexOffset + i * 4);
+        byte[] key = new byte[buffer.getInt(entry)];
+        buffer.get(entry + 4, key);
+        return key;
+    }
+
+    /** @return Número de documentos na lista do i-ésimo termo (incluindo versões substituídas). */
+    int termDocs(int i) {
+        int entry = buffer.getInt(termIndexOffset + i * 4);
+        return buffer.getInt(entry + 4 + buffer.getInt(entry) + 4);
+    }
+
+    /** @return Número de documentos no segmento. */
+    int docCount() { return docCount; }
+
+    /** @return Bytes das listas comprimidas (termos e links), que ocupam o início do ficheiro. */
+    long compressedBytes() { return storeOffset; }
+
+    /** @return Tamanho do ficheiro mapeado. */
+    long fileBytes() { return buffer.capacity(); }
+
+    /** @return Número total de entradas nas listas (termos e links). */
+    long postingEntries() { return postingEntries; }
+
+    /**
+     * Junta os documentos de vários segmentos contíguos num só, mantendo apenas a versão
+     * mais recente de cada documento e descartando as que já foram substituídas.
+     *
+     * @param file Ficheiro do novo segmento.
+     * @param run Segmentos a juntar, por ordem de geração.
+     * @param latest Geração da versão mais recente de cada documento.
+     * @param ranks Rank estático atual.
+     * @param rankVersion Versão das contagens de backlinks usadas em {@code ranks}.
+     * @return O segmento resultante.
+     * @throws IOException Se a escrita falhar.
+     */
+    static IndexSegment merge(Path file, List<IndexSegment> run, DocValues latest, DocValues ranks,
+                              long rankVersion) throws IOException {
+        List<Doc> all = new ArrayList<>();
+        for (IndexSegment segment : run) segment.forEachDoc(all::add);
+        List<Doc> live = new ArrayList<>(all.size());
+        for (Doc doc : all) {
+            if (latest.get(doc.docId) == doc.generation) live.add(doc);
+        }
+        int minGeneration = Integer.MAX_VALUE, maxGeneration = Integer.MIN_VALUE;
+        for (IndexSegment segment : run) {
+            minGeneration = Math.min(minGeneration, segment.minGeneration);
+            maxGeneration = Math.max(maxGeneration, segment.maxGeneration);
+        }
+        return write(file, minGeneration, maxGeneration, live, ranks, rankVersion);
+    }
+
+    /** Array de inteiros que cresce por duplicação (evita Integer em listas temporárias). */
+    private static final class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * Lista comprimida lida diretamente do ficheiro mapeado: a tabela de saltos e os blocos
+     * são lidos com acessos absolutos ao buffer, sem copiar a lista para a heap.
+     */
+    private static final class MappedPostings extends CompressedPostings {
+
+        private final ByteBuffer buffer;
+        private final boolean frequencies;
+        private final int lastBase;
+        private final int offsetBase;
+        private final int freqOffsetBase;
+        private final int maxFreqBase;
+        private final int minLengthBase;
+        private final int dataBase;
+        private final int freqBase;
+
+        MappedPostings(ByteBuffer buffer, int offset, int size, int blockCount, int dataLength, boolean frequencies) {
+            super(null, null, null, blockCount, dataLength, size);
+            this.buffer = buffer;
+            this.frequencies = frequencies;
+            this.lastBase = offset;
+            this.offsetBase = offset + blockCount * 4;
+            this.freqOffsetBase = offset + blockCount * 8;
+            this.maxFreqBase = offset + blockCount * 12;
+            this.minLengthBase = offset + blockCount * 16;
+            this.dataBase = offset + blockCount * (frequencies ? 20 : 8);
+            this.freqBase = dataBase + dataLength;
+        }
+
+        @Override
+        boolean hasFrequencies() {
+            return frequencies;
+        }
+
+        @Override
+        int decodeFrequencies(int b, int[] dest) {
+            if (!frequencies) return super.decodeFrequencies(b, dest);
+            int count = b == blockCount - 1 ? size - b * BLOCK_SIZE : BLOCK_SIZE;
+            int pos = freqBase + buffer.getInt(freqOffsetBase + b * 4);
+            for (int i = 0; i < count; i++) {
+                int value = 0, shift = 0, v;
+                do {
+                    v = buffer.get(pos++);
+                    value |= (v & 0x7F) << shift;
+                    shift += 7;
+                } while ((v & 0x80) != 0);
+                dest[i] = value;
+            }
+            return count;
+        }
+
+        @Override
+        int maxFrequencyOf(int b) {
+            return frequencies ? buffer.getInt(maxFreqBase + b * 4) : 1;
+        }
+
+        @Override
+        int minLengthOf(int b) {
+            return frequencies ? buffer.getInt(minLengthBase + b * 4) : 0;
+        }
+
+        @Override
+        int lastDocOf(int b) {
+            return buffer.getInt(lastBase + b * 4);
+        }
+
+        @Override
+        int decodeBlock(int b, int[] dest) {
+            int count = b == blockCount - 1 ? size - b * BLOCK_SIZE : BLOCK_SIZE;
+            int pos = dataBase + buffer.getInt(offsetBase + b * 4);
+            int prev = b == 0 ? -1 : lastDocOf(b - 1);
+            for (int i = 0; i < count; i++) {
+                int delta = 0, shift = 0, v;
+                do {
+                    v = buffer.get(pos++);
+                    delta |= (v & 0x7F) << shift;
+                    shift += 7;
+                } while ((v & 0x80) != 0);
+                prev += delta;
+                dest[i] = prev;
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Autómato de Levenshtein de um termo: aceita as palavras a no máximo {@code maxEdits}
+ * inserções, remoções ou substituições (por carácter Unicode, não por byte) do termo.
+ * <p>
+ * É simulado pela linha da matriz de distâncias: o estado depois de ler um prefixo p é o
+ * vetor {@code row[i] = distância(p, primeiros i caracteres do termo)}. Ler um carácter custa
+ * O(|termo|) e, se nenhuma posição da linha estiver dentro do limite ({@link #canMatch}),
+ * nenhuma palavra que comece por p pode ser aceite; é isso que permite percorrer o dicionário
+ * como uma árvore de prefixos e cortar os ramos logo no primeiro carácter impossível
+ * ({@link Suggester#fuzzy}).
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.nio.charset.StandardCharsets;
+
+final class LevenshteinAutomaton {
+
+    private final int[] term;
+    // Bytes UTF-8 do termo a partir de cada carácter
+    private final byte[][] suffixes;
+    final int maxEdits;
+
+    /**
+     * @param term Termo normalizado.
+     * @param maxEdits Distância máxima aceite.
+     */
+    LevenshteinAutomaton(String term, int maxEdits) {
+        this.term = term.codePoints().toArray();
+        this.suffixes = new byte[this.term.length][];
+        for (int i = 0; i < this.term.length; i++) {
+            suffixes[i] = term.substring(term.offsetByCodePoints(0, i)).getBytes(StandardCharsets.UTF_8);
+        }
+        this.maxEdits = maxEdits;
+    }
+
+    /** @return Estado inicial (prefixo vazio). */
+    int[] start() {
+        int[] row = new int[term.length + 1];
+        for (int i = 0; i < row.length; i++) row[i] = i;
+        return row;
+    }
+
+    /**
+     * @param row Estado atual.
+     * @param c Carácter lido (code point).
+     * @return Estado seguinte.
+     */
+    int[] step(int[] row, int c) {
+        int[] next = new int[row.length];
+        next[0] = row[0] + 1;
+        for (int i = 1; i < row.length; i++) {
+            int substitution = row[i - 1] + (term[i - 1] == c ? 0 : 1);
+            next[i] = Math.min(substitution, Math.min(row[i], next[i - 1]) + 1);
+        }
+        return next;
+    }
+
+    /**
+     * Quando o estado já gastou todas as edições ({@code min(row) == maxEdits}), qualquer
+     * carácter diferente do esperado passa do limite: as únicas palavras aceites são o prefixo
+     * lido seguido exatamente de um sufixo {@link #suffix(int)} do termo, para cada posição
+     * i com {@code row[i] == maxEdits}, todas à distância {@code maxEdits}.
+     *
+     * @param i Posição no termo (0 a |termo| - 1).
+     * @return Bytes UTF-8 do termo a partir do carácter i.
+     */
+    byte[] suffix(int i) {
+        return suffixes[i];
+    }
+
+    /** @return true se o carácter aparece no termo (os restantes levam todos ao mesmo estado). */
+    boolean contains(int c) {
+        for (int t : term) {
+            if (t == c) return true;
+        }
+        return false;
+    }
+
+    /** @return Menor distância do estado (edições já gastas no melhor caso). */
+    int min(int[] row) {
+        int min = Integer.MAX_VALUE;
+        for (int d : row) min = Math.min(min, d);
+        return min;
+    }
+
+    /** @return true se alguma palavra começada pelo prefixo lido ainda pode ser aceite. */
+    boolean canMatch(int[] row) {
+        return min(row) <= maxEdits;
+    }
+
+    /** @return Distância do prefixo lido ao termo, ou -1 se passar do limite. */
+    int distance(int[] row) {
+        int d = row[row.length - 1];
+        return d <= maxEdits ? d : -1;
+    }
+
+    /**
+     * Distância máxima para um termo, pelo seu comprimento: termos muito curtos não são
+     * expandidos (quase tudo estaria a uma edição), os médios aceitam 1 e os longos 2.
+     *
+     * @param term Termo normalizado.
+     * @return 0, 1 ou 2.
+     */
+    static int editsFor(String term) {
+        int length = term.codePointCount(0, term.length());
+        if (length <= 2) return 0;
+        return length <= 5 ? 1 : 2;
+    }
+}
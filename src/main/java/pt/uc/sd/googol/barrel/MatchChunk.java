@@ -0,0 +1,37 @@
+/**
+ * Bloco do primeiro passo da interseção entre Barrels na partição por termos
+ * ({@link BarrelInterface#matchChunk(java.util.List, int, int)}).
+ * <p>
+ * O dono do grupo de termos mais raro não devolve todos os documentos de uma vez: devolve-os
+ * por ordem de doc ID, em blocos de tamanho limitado, e {@link #next} é o cursor do pedido
+ * seguinte. Os doc IDs de um Barrel não mudam, por isso um bloco pedido de novo com o mesmo
+ * cursor começa no mesmo documento (mais as páginas entretanto indexadas).
+ *
+ * @author Elemento 1: André Ramos 2023227306
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.io.Serializable;
+import java.util.Map;
+
+public class MatchChunk implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** URL de cada documento do bloco -> parte BM25 da pontuação (termos deste Barrel). */
+    public final Map<String, Double> scores;
+
+    /** Cursor do pedido seguinte (doc ID por onde continuar), ou -1 se não há mais documentos. */
+    public final int next;
+
+    public MatchChunk(Map<String, Double> scores, int next) {
+        this.scores = scores;
+        this.next = next;
+    }
+
+    /** @return true se este é o último bloco. */
+    public boolean isLast() {
+        return next < 0;
+    }
+}
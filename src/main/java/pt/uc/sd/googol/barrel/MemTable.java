@@ -0,0 +1,108 @@
+/**
+ * Buffer de escrita do índice segmentado: recebe os documentos novos até ser congelado
+ * e transformado num {@link IndexSegment} imutável.
+ * <p>
+ * Está ordenado por doc ID (listas {@link PostingList} normais) e é pesquisado por
+ * completo, o que só é aceitável porque é pequeno. Cada MemTable tem uma geração
+ * única e crescente; o segmento que resulta dela herda essa geração.
+ * <p>
+ * As listas só crescem: se um documento for escrito duas vezes no mesmo buffer, as entradas
+ * da versão anterior ficam lá. Esses documentos são marcados em {@link #rewritten} e os seus
+ * resultados confirmados contra a página atual (ver {@link #matches}).
+ * <p>
+ * As páginas ficam na forma compacta {@link StoredDocument}: as palavras só existem como
+ * Strings nas chaves de {@link #terms}, uma vez por buffer.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class MemTable {
+
+    final int generation;
+    final long createdAt = System.currentTimeMillis();
+
+    final Map<Integer, StoredDocument> pages = new ConcurrentHashMap<>();
+    final Map<String, PostingList> terms = new ConcurrentHashMap<>();
+    final Map<Integer, PostingList> links = new ConcurrentHashMap<>();
+    final Set<Integer> rewritten = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong postings = new AtomicLong();
+
+    MemTable(int generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * Acrescenta (ou substitui) um documento.
+     *
+     * @param docId Doc ID da página.
+     * @param document Página indexada, na forma compacta.
+     * @param words Palavras da página.
+     * @param linkTargets Doc IDs distintos das páginas para onde aponta.
+     */
+    void add(int docId, StoredDocument document, Collection<String> words, int[] linkTargets) {
+        if (pages.put(docId, document) != null) rewritten.add(docId);
+        for (String word : words) {
+            terms.computeIfAbsent(word, k -> new PostingList()).add(docId);
+        }
+        for (int target : linkTargets) {
+            links.computeIfAbsent(target, k -> new PostingList()).add(docId);
+        }
+        postings.addAndGet(words.size() + linkTargets.length);
+    }
+
+    /**
+     * @param term Termo normalizado.
+     * @return Cursor sobre os doc IDs do termo, ou null se não existir neste buffer.
+     */
+    PostingCursor cursor(String term) {
+        PostingList list = terms.get(term);
+        return list == null ? null : list.cursor();
+    }
+
+    /**
+     * Confirma que a versão atual de um documento contém todos os termos (só é preciso
+     * para documentos reescritos neste buffer).
+     *
+     * @param docId Doc ID devolvido pelas listas.
+     * @param terms Termos normalizados da pesquisa.
+     * @return true se o resultado é válido.
+     */
+    boolean matches(int docId, List<String> terms) {
+        if (!rewritten.contains(docId)) return true;
+        StoredDocument document = pages.get(docId);
+        return document != null && document.containsAll(terms);
+    }
+
+    /**
+     * @param source Doc ID de origem devolvido pelas listas de links.
+     * @param target Doc ID de destino.
+     * @return true se a versão atual da página ainda aponta para o destino.
+     */
+    boolean linksTo(int source, int target) {
+        if (!rewritten.contains(source)) return true;
+        StoredDocument document = pages.get(source);
+        return document != null && document.linksTo(target);
+    }
+
+    /** @return Número de documentos no buffer. */
+    int docCount() { return pages.size(); }
+
+    /** @return Número de entradas (termos + links) escritas no buffer. */
+    long postingCount() { return postings.get(); }
+
+    /** @return Bytes ocupados pelas listas comprimidas do buffer. */
+    long compressedBytes() {
+        long bytes = 0;
+        for (PostingList list : terms.values()) bytes += list.compressedBytes();
+        for (PostingList list : links.values()) bytes += list.compressedBytes();
+        return bytes;
+    }
+}
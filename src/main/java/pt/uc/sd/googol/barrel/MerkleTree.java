@@ -0,0 +1,118 @@
+/**
+ * Árvore de hashes (Merkle) sobre o conteúdo do índice, usada na anti-entropia entre Barrels.
+ * <p>
+ * Os documentos são distribuídos por {@value #LEAVES} baldes pelo hash do URL (igual em todos
+ * os Barrels, ao contrário dos doc IDs). Cada folha guarda a soma dos hashes (URL + conteúdo)
+ * dos documentos do seu balde, mantida incrementalmente a cada escrita; os nós internos, com
+ * {@value #FANOUT} filhos cada, são calculados a partir das folhas quando são pedidos.
+ * <p>
+ * Duas réplicas iguais têm a mesma raiz. Quando diferem, basta descer pelos nós diferentes
+ * para encontrar os baldes a comparar: o tráfego é proporcional à divergência.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32;
+
+import pt.uc.sd.googol.common.PageInfo;
+
+final class MerkleTree {
+
+    /** Filhos de cada nó interno. */
+    static final int FANOUT = 16;
+    /** Profundidade das folhas (a raiz tem profundidade 0). */
+    static final int DEPTH = 3;
+    private static final int LEAF_BITS = 12;
+    /** Número de folhas (baldes de URLs): FANOUT^DEPTH. */
+    static final int LEAVES = 1 << LEAF_BITS;
+
+    /**
+     * Hash de conteúdo de um documento removido (marca de remoção): as réplicas que ainda têm
+     * a página veem-no como diferente e sabem que a devem apagar. Nenhuma página tem este hash.
+     */
+    static final int TOMBSTONE = 0x7FFFFFFF;
+
+    private final AtomicLongArray leaves = new AtomicLongArray(LEAVES);
+
+    /**
+     * Aplica a mudança de um documento à folha do seu balde.
+     *
+     * @param url URL do documento.
+     * @param oldContent Hash do conteúdo anterior (0 se o documento não existia).
+     * @param newContent Hash do conteúdo novo (0 se o documento deixou de existir).
+     */
+    void update(String url, int oldContent, int newContent) {
+        long delta = (newContent == 0 ? 0 : docHash(url, newContent)) - (oldContent == 0 ? 0 : docHash(url, oldContent));
+        if (delta != 0) leaves.addAndGet(bucket(url), delta);
+    }
+
+    /** Apaga todas as folhas (índice vazio). */
+    void clear() {
+        for (int i = 0; i < LEAVES; i++) leaves.set(i, 0);
+    }
+
+    /**
+     * @param depth Profundidade dos nós (0 = raiz, {@value #DEPTH} = folhas).
+     * @param nodes Índices dos nós nessa profundidade (0 .. FANOUT^depth - 1).
+     * @return Hash de cada nó, pela mesma ordem.
+     */
+    long[] hashes(int depth, int[] nodes) {
+        if (depth < 0 || depth > DEPTH) throw new IllegalArgumentException("Profundidade inválida: " + depth);
+        long[] level = new long[LEAVES];
+        for (int i = 0; i < LEAVES; i++) level[i] = leaves.get(i);
+        for (int d = DEPTH; d > depth; d--) {
+            long[] parents = new long[level.length / FANOUT];
+            for (int p = 0; p < parents.length; p++) {
+                long h = 0;
+                for (int c = 0; c < FANOUT; c++) h = mix(h * 31 + level[p * FANOUT + c]);
+                parents[p] = h;
+            }
+            level = parents;
+        }
+        long[] out = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) out[i] = level[nodes[i]];
+        return out;
+    }
+
+    /** @return Balde de um URL (a partir do hash da String, definido pela especificação do Java). */
+    static int bucket(String url) {
+        return (int) (mix(url.hashCode()) >>> (64 - LEAF_BITS));
+    }
+
+    /**
+     * Hash do conteúdo de uma página, independente da ordem de iteração do conjunto de palavras
+     * (que pode variar entre Barrels para a mesma página). Nunca é 0.
+     */
+    static int contentHash(PageInfo page) {
+        CRC32 crc = new CRC32();
+        update(crc, page.getUrl());
+        update(crc, page.getTitle());
+        update(crc, page.getCitation());
+        for (String link : page.getLinks()) update(crc, link);
+        long words = 0;
+        for (String word : page.getWords()) words += mix(word.hashCode());
+        int h = (int) (crc.getValue() * 0x9E3779B1L) ^ (int) (words ^ (words >>> 32)) ^ page.getWords().size();
+        return h == 0 || h == TOMBSTONE ? 1 : h;
+    }
+
+    private static long docHash(String url, int content) {
+        return mix(((long) url.hashCode() << 32) ^ (content & 0xFFFFFFFFL));
+    }
+
+    private static void update(CRC32 crc, String value) {
+        if (value != null) crc.update(value.getBytes(StandardCharsets.UTF_8));
+        crc.update(0);
+    }
+
+    /** Finalizador do MurmurHash3 (64 bits). */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Formato binário de uma {@link PageInfo}, partilhado pelo log de escrita ({@link WriteAheadLog})
+ * e pelos checkpoints (os segmentos guardam a forma compacta, {@link StoredDocument}).
+ * <p>
+ * Sequência: url, título, citação, número de palavras (com o bit {@link #WITH_FREQUENCIES}),
+ * comprimento do texto, palavras (cada uma seguida da frequência, short sem sinal, limitada a
+ * {@value #MAX_FREQUENCY}), número de links + links. Registos sem o bit (formato anterior) não
+ * têm comprimento nem frequências: cada palavra conta uma vez.
+ * Cada String é escrita como um int com o tamanho em bytes UTF-8 (-1 para null) seguido dos bytes.
+ * <p>
+ * A remoção de uma página (só no log) é um registo com o URL, título e citação nulos e número
+ * de palavras {@value #REMOVED}, que nenhuma página real pode ter.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pt.uc.sd.googol.common.PageInfo;
+
+final class PageCodec {
+
+    /** Número de palavras que marca um registo de remoção. */
+    static final int REMOVED = -1;
+    /** Bit do número de palavras que indica que o registo tem comprimento e frequências. */
+    static final int WITH_FREQUENCIES = 1 << 30;
+    /** Maior frequência guardada (o BM25 satura muito antes). */
+    static final int MAX_FREQUENCY = 0xFFFF;
+
+    private PageCodec() { }
+
+    /** Escreve uma página em {@code out}. */
+    static void write(DataOutput out, PageInfo page) throws IOException {
+        writeString(out, page.getUrl());
+        writeString(out, page.getTitle());
+        writeString(out, page.getCitation());
+        out.writeInt(WITH_FREQUENCIES | page.getWords().size());
+        out.writeInt(page.getLength());
+        for (String word : page.getWords()) {
+            writeString(out, word);
+            out.writeShort(Math.min(MAX_FREQUENCY, page.getFrequency(word)));
+        }
+        out.writeInt(page.getLinks().size());
+        for (String link : page.getLinks()) writeString(out, link);
+    }
+
+    /** @return A página codificada num array de bytes. */
+    static byte[] encode(PageInfo page) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            write(new DataOutputStream(bytes), page);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // impossível: escrita em memória
+        }
+        return bytes.toByteArray();
+    }
+
+    /** @return O registo de remoção de um URL, num array de bytes. */
+    static byte[] encodeRemoval(String url) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, url);
+            writeString(out, null);
+            writeString(out, null);
+            out.writeInt(REMOVED);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // impossível: escrita em memória
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Verifica, sem avançar o buffer, se o registo é uma remoção.
+     *
+     * @param in Buffer posicionado no início do registo.
+     * @return O URL removido, ou null se o registo for uma página.
+     */
+    static String removedUrl(ByteBuffer in) {
+        ByteBuffer peek = in.duplicate();
+        String url = readString(peek);
+        readString(peek);
+        readString(peek);
+        return peek.getInt() == REMOVED ? url : null;
+    }
+
+    /**
+     * Lê uma página a partir da posição atual do buffer (que avança até ao fim do registo).
+     *
+     * @param in Buffer posicionado no início do registo.
+     * @return A página lida.
+     */
+    static PageInfo read(ByteBuffer in) {
+        String url = readString(in);
+        String title = readString(in);
+        String citation = readString(in);
+        int wordCount = in.getInt();
+        if ((wordCount & WITH_FREQUENCIES) == 0) {
+            Set<String> words = new HashSet<>(wordCount * 2);
+            for (int i = 0; i < wordCount; i++) words.add(readString(in));
+            return new PageInfo(url, title, citation, words, readLinks(in));
+        }
+        wordCount &= ~WITH_FREQUENCIES;
+        int length = in.getInt();
+        Map<String, Integer> frequencies = new HashMap<>(wordCount * 2);
+        for (int i = 0; i < wordCount; i++) frequencies.put(readString(in), in.getShort() & 0xFFFF);
+        return new PageInfo(url, title, citation, frequencies, length, readLinks(in));
+    }
+
+    private static List<String> readLinks(ByteBuffer in) {
+        int linkCount = in.getInt();
+        List<String> links = new ArrayList<>(linkCount);
+        for (int i = 0; i < linkCount; i++) links.add(readString(in));
+        return links;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * PageRank do grafo de links do Barrel, calculado em background.
+ * <p>
+ * O grafo é guardado em CSR (compressed sparse row) pelas arestas de entrada: para cada
+ * documento v, {@code sources[offsets[v] .. offsets[v + 1])} são os documentos que apontam
+ * para v. Cada iteração é então um "pull": o novo rank de v só lê os ranks da iteração
+ * anterior, por isso os documentos são divididos em blocos contíguos e calculados em paralelo
+ * (ForkJoin, um bloco por tarefa) sem qualquer sincronização entre eles.
+ * <p>
+ * Iteração (power iteration), com N nós, fator de amortecimento d e massa pendente D (rank
+ * dos documentos sem links de saída, repartido por todos):
+ * <pre>
+ * r'(v) = (1 - d) / N + d * (D / N + soma_{u -> v} r(u) / saída(u))
+ * </pre>
+ * Pára quando a diferença L1 entre iterações fica abaixo de {@value #TOLERANCE} ou ao fim de
+ * {@value #MAX_ITERATIONS} iterações. Os nós são todos os URLs do dicionário (páginas ainda
+ * não indexadas entram como documentos sem links de saída).
+ * <p>
+ * O resultado é publicado normalizado por N (média 1), para que o peso no {@link Bm25} não
+ * dependa do tamanho do índice. Progresso (fase, iteração, diferença) e métricas da última
+ * execução ficam disponíveis em {@link #report()}.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+final class PageRank {
+
+    /** Fator de amortecimento (probabilidade de seguir um link). */
+    static final double DAMPING = 0.85;
+    /** Diferença L1 entre iterações abaixo da qual o cálculo convergiu. */
+    static final double TOLERANCE = 1e-6;
+    /** Número máximo de iterações. */
+    static final int MAX_ITERATIONS = 50;
+    /** Documentos por tarefa paralela. */
+    private static final int BLOCK = 16 * 1024;
+
+    /** Grafo de links em CSR, pelas arestas de entrada. */
+    static final class Graph {
+        final int nodes;
+        final int[] offsets;
+        final int[] sources;
+        final int[] outDegree;
+
+        private Graph(int nodes, int[] offsets, int[] sources, int[] outDegree) {
+            this.nodes = nodes;
+            this.offsets = offsets;
+            this.sources = sources;
+            this.outDegree = outDegree;
+        }
+
+        /** @return Número de arestas. */
+        int edges() { return sources.length; }
+
+        /**
+         * Constrói o grafo a partir dos links de saída de cada documento.
+         *
+         * @param nodes Número de nós (doc IDs 0 .. nodes - 1).
+         * @param links Links de saída distintos de um doc ID (null se não tiver versão visível).
+         * @return O grafo.
+         */
+        static Graph build(int nodes, IntFunction<int[]> links) {
+            // Os links são lidos (e descodificados) uma só vez, em paralelo
+            int[][] out = new int[nodes][];
+            IntStream.range(0, nodes).parallel().forEach(u -> out[u] = links.apply(u));
+
+            int[] outDegree = new int[nodes];
+            int[] offsets = new int[nodes + 1];
+            for (int u = 0; u < nodes; u++) {
+                if (out[u] == null) continue;
+                for (int v : out[u]) {
+                    if (v == u || v < 0 || v >= nodes) continue;
+                    outDegree[u]++;
+                    offsets[v + 1]++;
+                }
+            }
+            for (int v = 0; v < nodes; v++) offsets[v + 1] += offsets[v];
+
+            int[] sources = new int[offsets[nodes]];
+            int[] fill = new int[nodes];
+            for (int u = 0; u < nodes; u++) {
+                if (out[u] == null) continue;
+                for (int v : out[u]) {
+                    if (v == u || v < 0 || v >= nodes) continue;
+                    sources[offsets[v] + fill[v]++] = u;
+                }
+                out[u] = null;
+            }
+            return new Graph(nodes, offsets, sources, outDegree);
+        }
+    }
+
+    /** Resultado de uma execução. */
+    static final class Result {
+        /** Rank de cada doc ID, normalizado para média 1. */
+        final float[] scores;
+        /** Maior valor de {@link #scores}. */
+        final float max;
+        final int iterations;
+        final double delta;
+        final boolean converged;
+
+        private Result(float[] scores, float max, int iterations, double delta, boolean converged) {
+            this.scores = scores;
+            this.max = max;
+            this.iterations = iterations;
+            this.delta = delta;
+            this.converged = converged;
+        }
+    }
+
+    // Progresso da execução em curso e métricas da última (lidos pelas estatísticas)
+    private volatile String phase = "à espera";
+    private volatile int iteration = 0;
+    private volatile double lastDelta = 0;
+    private volatile String lastRun = "nunca executado";
+
+    /**
+     * Constrói o grafo e calcula o PageRank.
+     *
+     * @param nodes Número de nós.
+     * @param links Links de saída de cada doc ID (ver {@link Graph#build}).
+     * @return O resultado, ou null se o grafo estiver vazio.
+     */
+    Result run(int nodes, IntFunction<int[]> links) {
+        if (nodes == 0) return null;
+        long start = System.nanoTime();
+        phase = "a construir o grafo";
+        Graph graph = Graph.build(nodes, links);
+        long built = System.nanoTime();
+        phase = "a iterar";
+        Result result = compute(graph);
+        long end = System.nanoTime();
+        phase = "à espera";
+        lastRun = String.format(Locale.US, "%d nós, %d arestas, grafo %.0f ms, %d iterações %.0f ms, δ=%.1e%s",
+            graph.nodes, graph.edges(), (built - start) / 1e6, result.iterations, (end - built) / 1e6,
+            result.delta, result.converged ? "" : " (sem convergir)");
+        System.out.println(" [PageRank] " + lastRun);
+        return result;
+    }
+
+    /**
+     * Power iteration paralela sobre o grafo.
+     *
+     * @param graph Grafo em CSR.
+     * @return Ranks normalizados e métricas de convergência.
+     */
+    Result compute(Graph graph) {
+        int n = graph.nodes;
+        double[] rank = new double[n];
+        double[] next = new double[n];
+        double[] contribution = new double[n];
+        Arrays.fill(rank, 1.0 / n);
+        int blocks = (n + BLOCK - 1) / BLOCK;
+
+        double delta = Double.MAX_VALUE;
+        int it = 0;
+        while (it < MAX_ITERATIONS && delta >= TOLERANCE) {
+            double[] current = rank;
+            // Contribuição de cada nó pelas suas arestas de saída; os pendentes vão para todos
+            double dangling = IntStream.range(0, blocks).parallel().mapToDouble(b -> {
+                double sum = 0;
+                for (int u = b * BLOCK, end = Math.min(n, u + BLOCK); u < end; u++) {
+                    int degree = graph.outDegree[u];
+                    if (degree == 0) {
+                        contribution[u] = 0;
+                        sum += current[u];
+                    } else {
+                        contribution[u] = current[u] / degree;
+                    }
+                }
+                return sum;
+            }).sum();
+
+            double base = (1 - DAMPING) / n + DAMPING * dangling / n;
+            double[] target = next;
+            delta = IntStream.range(0, blocks).parallel().mapToDouble(b -> {
+                double diff = 0;
+                for (int v = b * BLOCK, end = Math.min(n, v + BLOCK); v < end; v++) {
+                    double sum = 0;
+                    for (int e = graph.offsets[v]; e < graph.offsets[v + 1]; e++) sum += contribution[graph.sources[e]];
+                    target[v] = base + DAMPING * sum;
+                    diff += Math.abs(target[v] - current[v]);
+                }
+                return diff;
+            }).sum();
+
+            next = rank;
+            rank = target;
+            iteration = ++it;
+            lastDelta = delta;
+        }
+
+        float[] scores = new float[n];
+        float max = 0;
+        for (int v = 0; v < n; v++) {
+            scores[v] = (float) (rank[v] * n);
+            max = Math.max(max, scores[v]);
+        }
+        return new Result(scores, max, it, delta, delta < TOLERANCE);
+    }
+
+    /** @return Estado atual e métricas da última execução, para as estatísticas do Barrel. */
+    String report() {
+        String current = "a iterar".equals(phase)
+            ? String.format(Locale.US, "a iterar (%d/%d, δ=%.1e)", iteration, MAX_ITERATIONS, lastDelta)
+            : phase;
+        return "PageRank: " + current + "; último: " + lastRun;
+    }
+}
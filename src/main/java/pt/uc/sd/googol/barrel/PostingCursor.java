@@ -0,0 +1,210 @@
+/**
+ * Iterador sobre uma lista de ocorrências comprimida ({@link CompressedPostings}) seguida,
+ * opcionalmente, de uma cauda de doc IDs ainda por comprimir.
+ * <p>
+ * Só descodifica o bloco onde está posicionado. {@link #advance(int)} consulta primeiro
+ * a tabela de saltos e ignora, sem os descodificar, todos os blocos cujo último doc ID
+ * é inferior ao alvo. Tanto a procura na tabela de saltos como a procura dentro do bloco
+ * são galopantes (exponenciais): passos de 1, 2, 4, ... a partir da posição atual, seguidos
+ * de pesquisa binária, o que custa O(log d) para um salto de distância d.
+ * <p>
+ * Para a poda por máximos de bloco, {@link #shallowAdvance(int)} só consulta a tabela de
+ * saltos: indica o bloco onde estaria um doc ID e o majorante desse bloco (maior frequência,
+ * menor comprimento), sem o descodificar. As frequências do bloco atual só são descodificadas
+ * quando pedidas ({@link #frequency()}).
+ */
+
+package pt.uc.sd.googol.barrel;
+
+final class PostingCursor {
+
+    /** Valor devolvido quando o cursor já passou o fim da lista. */
+    static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    private static final int[] NO_TAIL = new int[0];
+
+    private final CompressedPostings postings;
+    private final int[] tail;
+    private final int tailCount;
+
+    /** Índice do termo na pesquisa (atribuído pelo {@link QueryPlanner}). */
+    int term;
+
+    private final int[] buffer = new int[CompressedPostings.BLOCK_SIZE];
+    private final int[] frequencies = new int[CompressedPostings.BLOCK_SIZE];
+    private int frequencyBlock = -1;
+    private int shallowBlock = 0;
+    private int[] current = buffer;
+    private int currentLength = 0;
+    private int blockIndex = -1;
+    private int pos = 0;
+    private int doc = -1;
+
+    /**
+     * @param postings Blocos comprimidos.
+     * @param tail Doc IDs (ordenados, maiores que o último bloco) ainda não comprimidos.
+     * @param tailCount Número de posições válidas em {@code tail}.
+     */
+    PostingCursor(CompressedPostings postings, int[] tail, int tailCount) {
+        this.postings = postings;
+        this.tail = tail;
+        this.tailCount = tailCount;
+    }
+
+    PostingCursor(CompressedPostings postings) {
+        this(postings, NO_TAIL, 0);
+    }
+
+    /** @return Doc ID atual, -1 antes da primeira chamada, ou {@link #NO_MORE_DOCS} no fim. */
+    int docId() { return doc; }
+
+    /** @return Número total de doc IDs na lista (custo de percorrê-la). */
+    int cost() { return postings.size + tailCount; }
+
+    /** @return true se a lista guarda frequências (e majorantes por bloco). */
+    boolean hasFrequencies() { return postings.hasFrequencies(); }
+
+    /** @return Frequência do termo no documento atual (1 se a lista não guardar frequências). */
+    int frequency() {
+        if (!postings.hasFrequencies() || blockIndex >= postings.blockCount) return 1;
+        if (frequencyBlock != blockIndex) {
+            postings.decodeFrequencies(blockIndex, frequencies);
+            frequencyBlock = blockIndex;
+        }
+        return frequencies[pos];
+    }
+
+    /**
+     * Escolhe, só pela tabela de saltos, o bloco que conteria {@code target} (não avança o cursor).
+     *
+     * @param target Doc ID alvo (não inferior ao de chamadas anteriores).
+     * @return Último doc ID desse bloco, ou {@link #NO_MORE_DOCS} se a lista acabar antes do alvo.
+     */
+    int shallowAdvance(int target) {
+        int from = Math.max(shallowBlock, Math.max(blockIndex, 0));
+        shallowBlock = gallopBlocks(from, target);
+        int last = lastOfBlock(shallowBlock);
+        return last < target ? NO_MORE_DOCS : last;
+    }
+
+    /** @return Maior frequência do bloco escolhido por {@link #shallowAdvance(int)}. */
+    int shallowMaxFrequency() {
+        return shallowBlock < postings.blockCount ? postings.maxFrequencyOf(shallowBlock) : 1;
+    }
+
+    /** @return Menor comprimento de documento do bloco escolhido por {@link #shallowAdvance(int)}. */
+    int shallowMinLength() {
+        return shallowBlock < postings.blockCount ? postings.minLengthOf(shallowBlock) : 0;
+    }
+
+    /**
+     * Avança para o doc ID seguinte.
+     *
+     * @return O novo doc ID ou {@link #NO_MORE_DOCS}.
+     */
+    int nextDoc() {
+        if (pos + 1 < currentLength) {
+            return doc = current[++pos];
+        }
+        if (!loadBlock(blockIndex + 1)) return doc = NO_MORE_DOCS;
+        pos = 0;
+        return doc = current[0];
+    }
+
+    /**
+     * Avança para o primeiro doc ID maior ou igual a {@code target}.
+     *
+     * @param target Doc ID alvo.
+     * @return O doc ID encontrado ou {@link #NO_MORE_DOCS}.
+     */
+    int advance(int target) {
+        if (doc >= target) return doc;
+        if (blockIndex < 0 || lastOfBlock(blockIndex) < target) {
+            // Tabela de saltos: ignora blocos inteiros sem os descodificar
+            int b = gallopBlocks(Math.max(blockIndex + 1, 0), target);
+            if (lastOfBlock(b) < target) {
+                blockIndex = postings.blockCount + 1;
+                currentLength = 0;
+                return doc = NO_MORE_DOCS;
+            }
+            loadBlock(b);
+            pos = 0;
+        }
+        pos = gallop(current, pos, currentLength - 1, target);
+        return doc = current[pos];
+    }
+
+    /**
+     * Procura galopante na tabela de saltos.
+     *
+     * @return Primeiro bloco a partir de {@code from} cujo último doc ID é >= target
+     *         (ou {@code blockCount}, que representa a cauda).
+     */
+    private int gallopBlocks(int from, int target) {
+        int count = postings.blockCount;
+        if (from >= count || postings.lastDocOf(from) >= target) return from;
+        int lo = from, step = 1;
+        int hi = from + 1;
+        while (hi < count && postings.lastDocOf(hi) < target) {
+            lo = hi;
+            step <<= 1;
+            hi = from + step;
+        }
+        if (hi >= count) {
+            if (postings.lastDocOf(count - 1) < target) return count;
+            hi = count - 1;
+        }
+        // Invariante: last(lo) < target <= last(hi)
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (postings.lastDocOf(mid) < target) lo = mid; else hi = mid;
+        }
+        return hi;
+    }
+
+    /**
+     * Procura galopante num array ordenado.
+     *
+     * @param values Array ordenado.
+     * @param from Posição inicial.
+     * @param end Última posição válida; tem de conter um valor >= target.
+     * @return Primeira posição em [from, end] com valor >= target.
+     */
+    private static int gallop(int[] values, int from, int end, int target) {
+        if (values[from] >= target) return from;
+        int lo = from, step = 1;
+        int hi = from + 1;
+        while (hi < end && values[hi] < target) {
+            lo = hi;
+            step <<= 1;
+            hi = from + step;
+        }
+        if (hi > end) hi = end;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < target) lo = mid; else hi = mid;
+        }
+        return hi;
+    }
+
+    private int lastOfBlock(int b) {
+        if (b < postings.blockCount) return postings.lastDocOf(b);
+        return b == postings.blockCount && tailCount > 0 ? tail[tailCount - 1] : -1;
+    }
+
+    private boolean loadBlock(int b) {
+        blockIndex = b;
+        if (b < postings.blockCount) {
+            current = buffer;
+            currentLength = postings.decodeBlock(b, buffer);
+            return true;
+        }
+        if (b == postings.blockCount && tailCount > 0) {
+            current = tail;
+            currentLength = tailCount;
+            return true;
+        }
+        currentLength = 0;
+        return false;
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Lista de ocorrências (posting list) de um termo: doc IDs ordenados e sem repetidos.
+ * <p>
+ * Os IDs ficam comprimidos em blocos de {@value CompressedPostings#BLOCK_SIZE} entradas
+ * (delta + Variable-Byte, com tabela de saltos). Só blocos completos são comprimidos: os
+ * últimos IDs ficam numa cauda ordenada que, ao encher, dá origem a um novo bloco.
+ * <p>
+ * Como os doc IDs são atribuídos por ordem crescente, quase todas as inserções são
+ * acrescentos no fim. As que não são (ex: páginas que já tinham recebido ID como destino
+ * de um link) vão para um buffer que é ordenado e fundido quando enche ou quando a lista é
+ * lida; o buffer cresce com a lista para que o custo de reconstruir os blocos continue amortizado.
+ * <p>
+ * Os cursores devolvidos por {@link #cursor()} são vistas estáveis: novos blocos são escritos
+ * para lá da zona que a vista conhece e uma reconstrução cria arrays novos.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.util.Arrays;
+
+class PostingList {
+
+    private static final int BLOCK = CompressedPostings.BLOCK_SIZE;
+
+    /** Capacidade mínima e máxima do buffer de inserções fora de ordem. */
+    private static final int MIN_BUFFER = 16;
+    private static final int MAX_BUFFER = 4096;
+
+    // Blocos comprimidos (apenas blocos completos)
+    private byte[] data = new byte[0];
+    private int dataLength = 0;
+    private int[] blockLast = new int[0];
+    private int[] blockOffset = new int[0];
+    private int blockCount = 0;
+
+    // Cauda ordenada ainda por comprimir (todos maiores que o último bloco)
+    private final int[] tail = new int[BLOCK];
+    private int tailCount = 0;
+
+    // Inserções fora de ordem à espera de fusão
+    private int[] pending;
+    private int pendingCount = 0;
+
+    PostingList() { }
+
+    /**
+     * Cria uma lista a partir de doc IDs já ordenados e sem repetidos.
+     *
+     * @param sortedDocs Array ordenado.
+     */
+    PostingList(int[] sortedDocs) {
+        for (int doc : sortedDocs) append(doc);
+    }
+
+    /**
+     * Acrescenta um documento à lista (ignorado se já existir).
+     *
+     * @param docId O doc ID a acrescentar.
+     */
+    synchronized void add(int docId) {
+        if (pendingCount == 0 && docId > lastDoc()) {
+            append(docId);
+            return;
+        }
+        if (pending == null) pending = new int[MIN_BUFFER];
+        if (pendingCount == pending.length) {
+            flushPending();
+            int wanted = Math.min(MAX_BUFFER, Math.max(MIN_BUFFER, size() / 8));
+            if (wanted != pending.length) pending = new int[wanted];
+        }
+        pending[pendingCount++] = docId;
+    }
+
+    /**
+     * Cria um cursor sobre o conteúdo atual da lista.
+     *
+     * @return Cursor posicionado antes do primeiro doc ID.
+     */
+    synchronized PostingCursor cursor() {
+        if (pendingCount > 0) flushPending();
+        return new PostingCursor(compressedView(), Arrays.copyOf(tail, tailCount), tailCount);
+    }
+
+    /**
+     * Devolve uma cópia descomprimida dos doc IDs ordenados.
+     *
+     * @return Array ordenado de doc IDs.
+     */
+    synchronized int[] toArray() {
+        if (pendingCount > 0) flushPending();
+        int[] out = Arrays.copyOf(compressedView().decodeAll(), blockCount * BLOCK + tailCount);
+        System.arraycopy(tail, 0, out, blockCount * BLOCK, tailCount);
+        return out;
+    }
+
+    /** @return Número de documentos na lista. */
+    synchronized int size() {
+        if (pendingCount > 0) flushPending();
+        return blockCount * BLOCK + tailCount;
+    }
+
+    /** @return Bytes ocupados pela representação comprimida (blocos, tabela de saltos e cauda). */
+    synchronized long compressedBytes() {
+        return dataLength + (long) blockCount * 8 + (long) tailCount * 4;
+    }
+
+    private CompressedPostings compressedView() {
+        return new CompressedPostings(data, blockLast, blockOffset, blockCount, dataLength, blockCount * BLOCK);
+    }
+
+    private int lastDoc() {
+        if (tailCount > 0) return tail[tailCount - 1];
+        return blockCount == 0 ? -1 : blockLast[blockCount - 1];
+    }
+
+    /** Acrescenta um doc ID maior que todos os existentes; comprime a cauda quando enche. */
+    private void append(int docId) {
+        tail[tailCount++] = docId;
+        if (tailCount < BLOCK) return;
+
+        if (blockCount == blockLast.length) {
+            int capacity = Math.max(4, blockCount * 2);
+            blockLast = Arrays.copyOf(blockLast, capacity);
+            blockOffset = Arrays.copyOf(blockOffset, capacity);
+        }
+        if (data.length - dataLength < BLOCK * 5) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, dataLength + BLOCK * 5));
+        }
+        int prev = blockCount == 0 ? -1 : blockLast[blockCount - 1];
+        blockOffset[blockCount] = dataLength;
+        blockLast[blockCount] = tail[BLOCK - 1];
+        dataLength = CompressedPostings.writeBlock(data, dataLength, tail, 0, BLOCK, prev);
+        blockCount++;
+        tailCount = 0;
+    }
+
+    /**
+     * Ordena o buffer e funde-o com a lista, descartando repetidos.
+     */
+    private void flushPending() {
+        int[] sorted = Arrays.copyOf(pending, pendingCount);
+        pendingCount = 0;
+        Arrays.sort(sorted);
+
+        if (sorted[0] > lastDoc()) {
+            // Afinal todos os IDs pendentes são maiores que o último: basta acrescentar
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) append(sorted[i]);
+            }
+            return;
+        }
+
+        int[] existing = Arrays.copyOf(compressedView().decodeAll(), blockCount * BLOCK + tailCount);
+        System.arraycopy(tail, 0, existing, blockCount * BLOCK, tailCount);
+
+        // Reconstrução com arrays novos, para não alterar dados que cursores abertos ainda leem
+        data = new byte[Math.max(16, existing.length + sorted.length)];
+        dataLength = 0;
+        blockLast = new int[existing.length / BLOCK + 2];
+        blockOffset = new int[blockLast.length];
+        blockCount = 0;
+        tailCount = 0;
+
+        int i = 0, j = 0, last = -1;
+        while (i < existing.length || j < sorted.length) {
+            int next;
+            if (j >= sorted.length || (i < existing.length && existing[i] <= sorted[j])) next = existing[i++];
+            else next = sorted[j++];
+            if (next != last) append(next);
+            last = next;
+        }
+    }
+}
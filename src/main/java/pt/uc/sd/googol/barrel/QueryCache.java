@@ -0,0 +1,200 @@
+/**
+ * Cache de resultados de pesquisa do Barrel, com invalidação por época de termo.
+ * <p>
+ * A chave é o conjunto normalizado dos termos (minúsculas, sem repetições, ordenados), por
+ * isso "Sistemas distribuidos" e "distribuidos sistemas" partilham a mesma entrada. Cada
+ * entrada guarda os k melhores documentos e as suas pontuações; serve qualquer pesquisa que
+ * peça até k resultados (ou todas, se a pesquisa tinha menos de k).
+ * <p>
+ * Cada termo tem um contador de versão (época), incrementado por cada escrita que o acrescenta
+ * ou retira de uma página. Os contadores são partilhados por {@value #EPOCH_STRIPES} grupos
+ * (hash do termo), para não guardar um contador por termo do dicionário: dois termos no mesmo
+ * grupo invalidam-se mutuamente, o que só custa falhas da cache, nunca resultados errados.
+ * Uma entrada só é servida se nenhum dos seus termos mudou desde que foi calculada (as
+ * versões são lidas antes da pesquisa, por isso uma escrita concorrente invalida-a).
+ * <p>
+ * O rank estático também entra nas pontuações: publicar um PageRank novo invalida tudo
+ * ({@link #invalidateAll()}); as alterações de backlinks, que mudam aos poucos, ficam
+ * refletidas ao fim de no máximo {@value #TTL_MS} ms.
+ * <p>
+ * A memória é limitada por uma estimativa dos bytes de cada entrada; quando passa do limite
+ * são removidas as entradas usadas há mais tempo (LRU). Acertos, falhas, entradas
+ * invalidadas e remoções ficam em {@link #report()}.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+final class QueryCache {
+
+    /** Número de contadores de época (potência de 2). */
+    static final int EPOCH_STRIPES = 1 << 16;
+    /** Idade máxima de uma entrada (mudanças de backlinks não invalidam as entradas). */
+    static final long TTL_MS = 30 * 1000;
+    /** Os resultados são calculados e guardados em múltiplos deste valor (páginas seguintes acertam). */
+    static final int K_GRANULARITY = 50;
+
+    /** Resultado guardado. */
+    private static final class Entry {
+        final int k;
+        final int[] docIds;
+        final int[] scores;
+        // Época global seguida da versão de cada termo (ver versions())
+        final long[] versions;
+        final long createdAt = System.currentTimeMillis();
+        final long bytes;
+
+        Entry(String key, int k, int[] docIds, int[] scores, long[] versions) {
+            this.k = k;
+            this.docIds = docIds;
+            this.scores = scores;
+            this.versions = versions;
+            this.bytes = 96 + 2L * key.length() + 8L * docIds.length + 8L * versions.length;
+        }
+    }
+
+    private final long maxBytes;
+    private final AtomicLongArray epochs = new AtomicLongArray(EPOCH_STRIPES);
+    private final AtomicLong globalEpoch = new AtomicLong();
+    // Ordem de acesso: a primeira entrada é a usada há mais tempo
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** @param maxBytes Memória máxima (estimada) ocupada pelas entradas. */
+    QueryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** @return Chave de um conjunto de termos normalizados e sem repetições. */
+    static String key(List<String> unique) {
+        return String.join(" ", unique.stream().sorted().toList());
+    }
+
+    /** @return Número de resultados a calcular para poder guardar uma pesquisa de {@code k}. */
+    static int roundUp(int k) {
+        return (k + K_GRANULARITY - 1) / K_GRANULARITY * K_GRANULARITY;
+    }
+
+    /** Regista que um termo foi acrescentado ou retirado de uma página. */
+    void bump(String term) {
+        epochs.incrementAndGet(term.hashCode() & (EPOCH_STRIPES - 1));
+    }
+
+    /** Invalida todas as entradas (ex: rank estático novo). */
+    void invalidateAll() {
+        globalEpoch.incrementAndGet();
+    }
+
+    /**
+     * Versões atuais dos termos, a ler antes de calcular o resultado a guardar.
+     *
+     * @param unique Termos normalizados.
+     * @return Época global seguida da versão de cada termo.
+     */
+    long[] versions(List<String> unique) {
+        long[] versions = new long[unique.size() + 1];
+        versions[0] = globalEpoch.get();
+        for (int i = 0; i < unique.size(); i++) versions[i + 1] = epochs.get(unique.get(i).hashCode() & (EPOCH_STRIPES - 1));
+        return versions;
+    }
+
+    /**
+     * Procura um resultado válido.
+     *
+     * @param key Chave ({@link #key}).
+     * @param unique Termos normalizados.
+     * @param k Número de resultados pretendidos.
+     * @return Os melhores documentos, ou null se não houver entrada válida que chegue.
+     */
+    TopKCollector get(String key, List<String> unique, int k) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null || (entry.k < k && entry.docIds.length == entry.k)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        long[] current = versions(unique);
+        if (!Arrays.equals(current, entry.versions)
+                || System.currentTimeMillis() - entry.createdAt >= TTL_MS) {
+            stale.incrementAndGet();
+            misses.incrementAndGet();
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                    bytes -= entry.bytes;
+                }
+            }
+            return null;
+        }
+        hits.incrementAndGet();
+        return first(entry.docIds, entry.scores, k);
+    }
+
+    /**
+     * @param topK Resultado calculado com mais documentos do que os pedidos.
+     * @param k Número de resultados pretendidos.
+     * @return Só os {@code k} melhores.
+     */
+    static TopKCollector limit(TopKCollector topK, int k) {
+        return first(topK.sortedDocIds(), topK.sortedScores(), k);
+    }
+
+    private static TopKCollector first(int[] docIds, int[] scores, int k) {
+        TopKCollector topK = new TopKCollector(k);
+        for (int i = 0; i < Math.min(k, docIds.length); i++) topK.collect(docIds[i], scores[i]);
+        return topK;
+    }
+
+    /**
+     * Guarda um resultado.
+     *
+     * @param key Chave ({@link #key}).
+     * @param k Número de resultados pedidos ao calcular.
+     * @param topK Resultado calculado.
+     * @param versions Versões lidas antes de calcular ({@link #versions}).
+     */
+    void put(String key, int k, TopKCollector topK, long[] versions) {
+        Entry entry = new Entry(key, k, topK.sortedDocIds(), topK.sortedScores(), versions);
+        if (entry.bytes > maxBytes) return;
+        synchronized (this) {
+            Entry old = entries.put(key, entry);
+            if (old != null) bytes -= old.bytes;
+            bytes += entry.bytes;
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                bytes -= eldest.bytes;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** @return Taxa de acertos, entradas, memória, invalidações e remoções. */
+    String report() {
+        long h = hits.get(), m = misses.get();
+        int size;
+        long used;
+        synchronized (this) {
+            size = entries.size();
+            used = bytes;
+        }
+        return String.format(Locale.US, "Cache: %.1f%% acertos (%d/%d), %d entradas, %.1f KB, %d invalidadas, %d removidas",
+            h + m == 0 ? 0.0 : 100.0 * h / (h + m), h, h + m, size, used / 1024.0, stale.get(), evictions.get());
+    }
+}
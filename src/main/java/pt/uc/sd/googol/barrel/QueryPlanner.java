@@ -0,0 +1,162 @@
+/**
+ * Planeamento e execução de pesquisas conjuntivas (AND) sobre o índice invertido.
+ * <p>
+ * O plano é baseado em custo: os termos são ordenados pela frequência de documentos
+ * (tamanho da posting list) e a interseção começa pelo mais raro. Assim, uma pesquisa
+ * que inclua um termo muito comum ("de", "the", ...) só visita esse termo nos poucos
+ * doc IDs propostos pelos restantes, em vez de percorrer a lista inteira.
+ * <p>
+ * A interseção não copia nenhuma lista: os cursores são percorridos diretamente sobre
+ * os blocos comprimidos, com saltos galopantes ({@link PostingCursor#advance(int)}).
+ * <p>
+ * Para o top-k por BM25 ({@link #intersectTopK}) a interseção é podada por máximos de bloco
+ * (a variante conjuntiva do Block-Max WAND): antes de alinhar os cursores num candidato,
+ * soma-se o majorante do bloco de cada lista onde ele estaria; se nem assim o candidato
+ * entra no top-k, todos os doc IDs até ao fim do bloco mais curto são saltados sem serem
+ * descodificados nem pontuados.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+final class QueryPlanner {
+
+    private QueryPlanner() { }
+
+    /**
+     * @param terms Termos da pesquisa.
+     * @return Termos normalizados (minúsculas), sem repetidos, pela ordem da pesquisa.
+     */
+    static List<String> unique(List<String> terms) {
+        Set<String> unique = new LinkedHashSet<>();
+        for (String term : terms) unique.add(term.toLowerCase());
+        return new ArrayList<>(unique);
+    }
+
+    /**
+     * Constrói o plano de execução de uma pesquisa.
+     *
+     * @param terms Termos da pesquisa (repetidos e maiúsculas são normalizados).
+     * @param lookup Devolve o cursor de um termo normalizado, ou null se o termo não existir.
+     * @return Cursores ordenados do termo mais raro para o mais comum, ou null se algum
+     *         termo não existir (a interseção é necessariamente vazia). O campo
+     *         {@link PostingCursor#term} de cada cursor é a posição do termo em {@link #unique}.
+     */
+    static PostingCursor[] plan(List<String> terms, Function<String, PostingCursor> lookup) {
+        List<String> unique = unique(terms);
+        PostingCursor[] cursors = new PostingCursor[unique.size()];
+        for (int t = 0; t < cursors.length; t++) {
+            PostingCursor cursor = lookup.apply(unique.get(t));
+            if (cursor == null) return null;
+            cursor.term = t;
+            cursors[t] = cursor;
+        }
+        Arrays.sort(cursors, Comparator.comparingInt(PostingCursor::cost));
+        return cursors;
+    }
+
+    /**
+     * Constrói o plano de execução sobre um índice ordenado por doc ID.
+     *
+     * @param terms Termos da pesquisa.
+     * @param index Índice invertido.
+     * @return Cursores ordenados por custo, ou null se algum termo não existir.
+     */
+    static PostingCursor[] plan(List<String> terms, Map<String, PostingList> index) {
+        return plan(terms, term -> {
+            PostingList postings = index.get(term);
+            return postings == null ? null : postings.cursor();
+        });
+    }
+
+    /**
+     * Interseção dos cursores de um plano. O primeiro cursor (o mais raro) propõe
+     * candidatos e os restantes galopam até eles; quando um deles ultrapassa o candidato,
+     * o seu doc ID passa a ser o novo alvo do cursor principal.
+     * <p>
+     * Os doc IDs comuns a todas as listas são entregues, por ordem crescente, a {@code sink},
+     * sem materializar o resultado; a interseção pára se {@code sink} devolver false.
+     *
+     * @param cursors Cursores ordenados por custo crescente.
+     * @param sink Recebe cada doc ID do resultado; devolve false para terminar.
+     */
+    static void intersect(PostingCursor[] cursors, IntPredicate sink) {
+        int candidate = cursors[0].nextDoc();
+        while (candidate != PostingCursor.NO_MORE_DOCS) {
+            int t = 1;
+            for (; t < cursors.length; t++) {
+                int doc = cursors[t].advance(candidate);
+                if (doc != candidate) {
+                    candidate = doc == PostingCursor.NO_MORE_DOCS ? doc : cursors[0].advance(doc);
+                    break;
+                }
+            }
+            if (t == cursors.length) {
+                if (!sink.test(candidate)) return;
+                candidate = cursors[0].nextDoc();
+            }
+        }
+    }
+
+    /**
+     * Interseção para o top-k, com poda por máximos de bloco (só listas com frequências).
+     * Enquanto o top-k não está cheio, ou quando o majorante dos blocos atuais ainda pode
+     * entrar, os cursores são alinhados como em {@link #intersect}; cada doc ID comum é
+     * entregue a {@code sink}, que o pontua e o junta a {@code topK}.
+     *
+     * @param cursors Cursores ordenados por custo crescente.
+     * @param bm25 Pontuação da pesquisa (majorantes por termo).
+     * @param staticBound Maior pontuação estática possível ({@link Bm25#staticScore}).
+     * @param topK Melhores documentos até agora (o seu limiar decide a poda).
+     * @param sink Recebe cada doc ID do resultado, com os cursores posicionados nele.
+     */
+    static void intersectTopK(PostingCursor[] cursors, Bm25 bm25, double staticBound, TopKCollector topK, IntConsumer sink) {
+        PostingCursor lead = cursors[0];
+        int candidate = lead.nextDoc();
+        // Majorante dos blocos atuais, válido até end (inclusive)
+        int end = -1;
+        double bound = 0;
+        while (candidate != PostingCursor.NO_MORE_DOCS) {
+            int threshold = topK.threshold();
+            if (threshold >= 0) {
+                if (candidate > end) {
+                    // Majorante dos blocos onde o candidato estaria, sem os descodificar
+                    bound = staticBound;
+                    end = PostingCursor.NO_MORE_DOCS;
+                    for (PostingCursor cursor : cursors) {
+                        int last = cursor.shallowAdvance(candidate);
+                        if (last == PostingCursor.NO_MORE_DOCS) return; // uma lista acabou
+                        end = Math.min(end, last);
+                        bound += bm25.bound(cursor.term, cursor.shallowMaxFrequency(), cursor.shallowMinLength());
+                    }
+                }
+                if (bound * Bm25.SCALE < threshold) {
+                    candidate = lead.advance(end + 1);
+                    continue;
+                }
+            }
+            int t = 1;
+            for (; t < cursors.length; t++) {
+                int doc = cursors[t].advance(candidate);
+                if (doc != candidate) {
+                    candidate = doc == PostingCursor.NO_MORE_DOCS ? doc : lead.advance(doc);
+                    break;
+                }
+            }
+            if (t == cursors.length) {
+                sink.accept(candidate);
+                candidate = lead.nextDoc();
+            }
+        }
+    }
+}
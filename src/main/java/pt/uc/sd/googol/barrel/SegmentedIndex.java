@@ -0,0 +1,1790 @@
+/**
+ * Índice segmentado do Barrel, ao estilo LSM (Log-Structured Merge).
+ * <p>
+ * As escritas vão para um buffer em memória ({@link MemTable}). Quando o buffer fica grande
+ * (ou velho), é congelado e convertido num {@link IndexSegment} imutável; uma política de
+ * fusão junta depois os segmentos pequenos em segmentos maiores. As pesquisas correm em
+ * todos os segmentos e buffers e juntam os resultados num único top-k, ordenado por BM25
+ * somado ao rank estático de backlinks e ao PageRank ({@link Bm25}, {@link PageRank}). Nos
+ * segmentos a interseção é podada pelos majorantes de cada bloco das listas
+ * ({@link QueryPlanner#intersectTopK}).
+ * <p>
+ * Cada documento tem uma única versão visível: a da geração mais recente onde foi escrito
+ * (tabela {@code latest}). Versões antigas de páginas recrawladas deixam de ser visíveis de
+ * imediato e são descartadas quando o segmento que as contém é reescrito.
+ * <p>
+ * Remoções ({@link #remove(String)}) usam a mesma tabela: o documento fica com geração 0 (sem
+ * versão visível) e com uma marca de remoção (tombstone) na árvore de hashes, para que as
+ * réplicas que ainda o têm o apaguem. As versões mortas saem dos segmentos quando estes são
+ * reescritos: a manutenção reescreve logo um segmento com mais de
+ * {@value #COMPACT_DEAD_FRACTION_PERCENT}% de documentos mortos, e o índice direto de cada
+ * documento ({@link StoredDocument}) permite retirar os seus backlinks sem reler a página.
+ * As marcas são esquecidas ao fim de {@value #TOMBSTONE_TTL_MS} ms.
+ * <p>
+ * Concorrência: {@link #add(PageInfo)} pode ser chamado por várias threads em simultâneo
+ * (lock de leitura); congelar o buffer toma o lock de escrita apenas durante a troca.
+ * Flush, fusão e reordenação correm na thread de manutenção ({@link #maintain()}).
+ * <p>
+ * Os segmentos vivem em ficheiros mapeados na diretoria do Barrel; na heap ficam apenas os
+ * buffers, o dicionário de URLs e os arrays por documento ({@link DocValues}). As páginas são
+ * guardadas na forma compacta {@link StoredDocument} (título, citação e índice direto em
+ * bytes); a {@link PageInfo} completa só é reconstruída para transferências e checkpoints.
+ * <p>
+ * Os resultados das pesquisas ficam numa cache ({@link QueryCache}) invalidada pelas versões
+ * dos termos: cada escrita incrementa a versão das palavras da página nova e da anterior.
+ * <p>
+ * As sugestões por prefixo ({@link Suggester}) usam uma cópia ordenada do dicionário de termos,
+ * reconstruída em background. A mesma cópia serve para corrigir erros ortográficos: para um
+ * termo que não existe em nenhuma unidade, {@link #expansions} devolve os termos a poucas
+ * edições (autómato de Levenshtein sobre o dicionário, {@link Suggester#fuzzy}). Quem decide
+ * expandir é o Gateway (um termo só é corrigido se não existir em nenhum shard), e a pesquisa
+ * corre sobre a união das listas das variantes que ele escolheu ({@link #fuzzy}).
+ * <p>
+ * Checkpoints e transferências de estado leem uma vista consistente num instante
+ * ({@link #snapshot()}), que não bloqueia as escritas nem as pesquisas enquanto é lida.
+ * <p>
+ * Cada página aplicada recebe um número de sequência crescente, guardado com a versão
+ * indexada; um par que reinicia pede só as páginas posteriores à última que conhecia
+ * ({@link #updates(Snapshot, long, int, int, int)}).
+ * <p>
+ * Uma árvore de hashes por balde de URLs ({@link MerkleTree}) é mantida a cada escrita,
+ * para que réplicas possam encontrar e corrigir as diferenças entre si (anti-entropia).
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+import pt.uc.sd.googol.common.PageInfo;
+
+final class SegmentedIndex {
+
+    /** Número de documentos a partir do qual o buffer é convertido em segmento. */
+    static final int FLUSH_MAX_DOCS = 5000;
+    /** Idade máxima de um buffer não vazio antes de ser convertido em segmento. */
+    static final long FLUSH_MAX_AGE_MS = 30000;
+    /** Número de segmentos do mesmo nível que são fundidos num só. */
+    static final int MERGE_FACTOR = 4;
+    /** Intervalo após o qual um segmento é reescrito para refletir o rank estático atual. */
+    static final long RERANK_INTERVAL_MS = 10 * 60 * 1000;
+    /**
+     * Um segmento também é reescrito quando, desde a sua construção, houve mais atualizações
+     * de backlinks do que este múltiplo do seu número de documentos (ordem muito desatualizada).
+     */
+    static final int RERANK_DRIFT_FACTOR = 1;
+    /** Tamanho máximo de um segmento produzido por fusão (cada ficheiro é mapeado num só buffer). */
+    static final long MAX_SEGMENT_BYTES = 1L << 30;
+    /**
+     * Entradas no buffer a partir das quais é convertido em segmento mesmo com poucos documentos
+     * (páginas recrawladas várias vezes no mesmo buffer deixam lá as entradas antigas).
+     */
+    static final long FLUSH_MAX_POSTINGS = 4_000_000;
+    /** Percentagem de documentos mortos (substituídos ou removidos) que obriga a reescrever um segmento. */
+    static final int COMPACT_DEAD_FRACTION_PERCENT = 30;
+    /** Intervalo entre verificações de documentos mortos nos segmentos. */
+    static final long COMPACT_CHECK_INTERVAL_MS = 30000;
+    /** Tempo durante o qual uma remoção fica marcada na árvore de hashes (anti-entropia). */
+    static final long TOMBSTONE_TTL_MS = 24 * 60 * 60 * 1000;
+    /** Intervalo mínimo entre reconstruções do dicionário de sugestões. */
+    static final long SUGGEST_REFRESH_MS = 5000;
+    /** Máximo de variantes em que um termo inexistente é expandido. */
+    static final int FUZZY_MAX_EXPANSIONS = 16;
+    /** Fator aplicado à pontuação de uma variante por cada edição. */
+    static final double FUZZY_EDIT_PENALTY = 0.5;
+    /** Memória da cache de resultados (-Dgoogol.cache.bytes). */
+    static final long CACHE_BYTES = Long.getLong("googol.cache.bytes", 16L * 1024 * 1024);
+
+    /** Estado imutável publicado para as pesquisas: buffer ativo, buffers a escrever e segmentos. */
+    private static final class State {
+        final MemTable active;
+        final List<MemTable> frozen;
+        final List<IndexSegment> segments;
+
+        State(MemTable active, List<MemTable> frozen, List<IndexSegment> segments) {
+            this.active = active;
+            this.frozen = Collections.unmodifiableList(frozen);
+            this.segments = Collections.unmodifiableList(segments);
+        }
+    }
+
+    private final Path directory;
+    private final AtomicInteger segmentCounter = new AtomicInteger();
+    private final DocIdDictionary dictionary = new DocIdDictionary();
+    private final DocValues backlinkCounts = new DocValues();
+    private final DocValues latest = new DocValues();
+    private final DocValues sequences = new DocValues();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final DocValues contentHashes = new DocValues();
+    // Comprimento do texto da versão visível de cada documento (BM25) e a soma de todos
+    private final DocValues docLengths = new DocValues();
+    private final AtomicLong totalLength = new AtomicLong();
+    // Majorante do número de backlinks de qualquer documento (só sobe; usado na poda)
+    private final AtomicInteger maxBacklinks = new AtomicInteger();
+    private final MerkleTree merkle = new MerkleTree();
+    // Doc IDs com conteúdo de cada balde da árvore (resumos de baldes sem percorrer o dicionário)
+    // e, por doc ID, o balde + 1 onde já foi listado (0 = ainda não)
+    private final int[][] bucketDocs = new int[MerkleTree.LEAVES][];
+    private final int[] bucketSizes = new int[MerkleTree.LEAVES];
+    private final DocValues listedIn = new DocValues();
+    // PageRank publicado (substituído por inteiro a cada cálculo) e o cálculo em background
+    private final PageRank pageRankJob = new PageRank();
+    private volatile PageRank.Result pageRank;
+    private volatile long pageRankVersion = -1;
+    private final QueryCache cache = new QueryCache(CACHE_BYTES);
+    // Dicionário de sugestões publicado e número de sequência do índice quando foi construído
+    private volatile Suggester suggester = Suggester.EMPTY;
+    private volatile int suggesterSequence = -1;
+    private long suggesterBuiltAt = 0;
+    private final Object suggesterLock = new Object();
+    // Latências (ns) das últimas pesquisas aproximadas, em anel, para os percentis das estatísticas
+    private final long[] fuzzyLatencies = new long[1024];
+    private final AtomicLong fuzzyQueries = new AtomicLong();
+    private final AtomicInteger nextGeneration = new AtomicInteger(1);
+    private final AtomicInteger liveDocs = new AtomicInteger();
+    private final AtomicLong rankUpdates = new AtomicLong();
+    // Documentos removidos ainda marcados na árvore de hashes: doc ID -> instante da remoção
+    private final Map<Integer, Long> tombstones = new ConcurrentHashMap<>();
+    private long lastCompactCheck = 0;
+    private final ReentrantReadWriteLock ingestLock = new ReentrantReadWriteLock();
+    // Reescritas do mesmo documento são serializadas (a versão anterior tem de ser lida uma só vez)
+    private static final int DOC_LOCKS = 64;
+    private final Object[] docLocks = new Object[DOC_LOCKS];
+
+    private volatile State state = new State(new MemTable(nextGeneration.getAndIncrement()),
+        new ArrayList<>(), new ArrayList<>());
+
+    // Estatísticas agregadas (percorrem todos os segmentos, por isso ficam guardadas alguns segundos)
+    private volatile String cachedStats;
+    private volatile long cachedStatsTime = 0;
+    private volatile int cachedTermCount = 0;
+    private volatile int cachedLinkedDocs = 0;
+
+    /**
+     * @param directory Diretoria dos ficheiros de segmento. Ficheiros de uma execução anterior
+     *                  são apagados: o estado é reconstruído a partir do disco ou de um par.
+     * @throws IOException Se a diretoria não puder ser criada ou limpa.
+     */
+    SegmentedIndex(Path directory) throws IOException {
+        this.directory = directory;
+        for (int i = 0; i < DOC_LOCKS; i++) docLocks[i] = new Object();
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*.seg")) {
+            for (Path file : stale) Files.delete(file);
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Escrita
+    // ═══════════════════════════════════════════════════════
+
+    /**
+     * Indexa (ou reindexa) uma página no buffer ativo.
+     *
+     * @param page Página a indexar.
+     */
+    void add(PageInfo page) {
+        int docId = dictionary.getOrAssign(page.getUrl());
+        StoredDocument document = store(docId, page);
+        int[] targets = document.distinctLinks();
+        int content = document.contentHash;
+
+        ingestLock.readLock().lock();
+        try {
+            synchronized (docLocks[docId & (DOC_LOCKS - 1)]) {
+                MemTable mem = state.active;
+                StoredDocument old = document(docId);
+                mem.add(docId, document, page.getWords(), targets);
+                for (String word : page.getWords()) cache.bump(word);
+                if (old != null) {
+                    for (String word : old.words()) cache.bump(word);
+                }
+                if (latest.set(docId, mem.generation) == 0) liveDocs.incrementAndGet();
+                sequences.set(docId, sequence.incrementAndGet());
+                updateContent(docId, page.getUrl(), content);
+                tombstones.remove(docId);
+                totalLength.addAndGet(document.length - docLengths.set(docId, document.length));
+
+                // Backlinks: retirar os da versão anterior e somar os da nova
+                if (old != null) {
+                    for (int target : old.distinctLinks()) backlinkCounts.add(target, -1);
+                }
+                for (int target : targets) {
+                    backlinkCounts.add(target, 1);
+                    maxBacklinks.accumulateAndGet(backlinkCounts.get(target), Math::max);
+                }
+                rankUpdates.addAndGet(targets.length);
+            }
+        } finally {
+            ingestLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove uma página: deixa de ter versão visível, os seus backlinks são retirados e fica
+     * uma marca de remoção na árvore de hashes. As entradas nas listas desaparecem quando o
+     * buffer ou segmento que as contém for reescrito.
+     *
+     * @param url URL da página.
+     * @return true se a página estava indexada.
+     */
+    boolean remove(String url) {
+        int docId = dictionary.lookup(url);
+        if (docId == DocIdDictionary.NO_DOC) return false;
+
+        ingestLock.readLock().lock();
+        try {
+            synchronized (docLocks[docId & (DOC_LOCKS - 1)]) {
+                StoredDocument old = document(docId);
+                if (old == null) return false;
+                latest.set(docId, 0);
+                for (String word : old.words()) cache.bump(word);
+                liveDocs.decrementAndGet();
+                sequences.set(docId, sequence.incrementAndGet());
+                updateContent(docId, url, MerkleTree.TOMBSTONE);
+                tombstones.put(docId, System.currentTimeMillis());
+                totalLength.addAndGet(-docLengths.set(docId, 0));
+
+                int[] targets = old.distinctLinks();
+                for (int target : targets) backlinkCounts.add(target, -1);
+                rankUpdates.addAndGet(targets.length);
+                return true;
+            }
+        } finally {
+            ingestLock.readLock().unlock();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Leitura
+    // ═══════════════════════════════════════════════════════
+
+    /**
+     * Pesquisa conjuntiva em todos os segmentos e buffers, ordenada por BM25 e backlinks.
+     * <p>
+     * As frequências de documentos de cada termo somam as listas de todas as unidades. Nos
+     * segmentos as listas têm frequências e majorantes por bloco, e os blocos que não podem
+     * entrar no top-k são saltados; os buffers (pequenos) são percorridos por completo, com as
+     * frequências lidas do índice direto de cada página.
+     * <p>
+     * Um termo que não existe no índice dá um resultado vazio; a pesquisa aproximada é pedida
+     * à parte ({@link #fuzzy}), com as variantes escolhidas pelo Gateway.
+     *
+     * @param terms Termos da pesquisa.
+     * @param k Número de melhores documentos pretendidos.
+     * @return Os melhores documentos e as suas pontuações.
+     */
+    TopKCollector search(List<String> terms, int k) {
+        List<String> unique = QueryPlanner.unique(terms);
+        String key = QueryCache.key(unique);
+        TopKCollector cached = cache.get(key, unique, k);
+        if (cached != null) return cached;
+
+        // Versões lidas antes da pesquisa; calcula-se um pouco mais para servir as páginas seguintes
+        long[] versions = cache.versions(unique);
+        int computed = QueryCache.roundUp(k);
+        TopKCollector topK = compute(terms, unique, computed);
+        cache.put(key, computed, topK, versions);
+        return computed == k ? topK : QueryCache.limit(topK, k);
+    }
+
+    /** Pesquisa propriamente dita (ver {@link #search}), sem passar pela cache. */
+    private TopKCollector compute(List<String> terms, List<String> unique, int k) {
+        TopKCollector topK = new TopKCollector(k);
+        State st = state;
+
+        List<PostingCursor[]> plans = new ArrayList<>();
+        List<MemTable> mems = memTables(st);
+        long[] df = new long[unique.size()];
+        for (IndexSegment segment : st.segments) plans.add(plan(terms, segment::cursor, df));
+        for (MemTable mem : mems) plans.add(plan(terms, mem::cursor, df));
+        Bm25 bm25 = scorer(df);
+        PageRank.Result ranks = pageRank;
+        double staticBound = Bm25.staticScore(maxBacklinks.get(), ranks == null ? 0 : ranks.max);
+
+        int unit = 0;
+        for (IndexSegment segment : st.segments) {
+            PostingCursor[] cursors = plans.get(unit++);
+            if (cursors == null) continue;
+            QueryPlanner.intersectTopK(cursors, bm25, staticBound, topK, local -> {
+                int docId = segment.docAt(local);
+                if (!segment.covers(latest.get(docId))) return; // versão substituída
+                int length = docLengths.get(docId);
+                double score = Bm25.staticScore(backlinkCounts.get(docId), pageRank(ranks, docId));
+                for (PostingCursor cursor : cursors) score += bm25.term(cursor.term, cursor.frequency(), length);
+                topK.collect(docId, Bm25.scaled(score));
+            });
+        }
+
+        for (MemTable mem : mems) {
+            PostingCursor[] cursors = plans.get(unit++);
+            if (cursors == null) continue;
+            QueryPlanner.intersect(cursors, docId -> {
+                if (latest.get(docId) != mem.generation) return true;
+                StoredDocument document = mem.pages.get(docId);
+                // Documentos reescritos no buffer: as listas podem ter termos da versão anterior
+                int score = document == null ? -1 : score(document, unique, bm25, ranks);
+                if (score >= 0) topK.collect(docId, score);
+                return true;
+            });
+        }
+        return topK;
+    }
+
+    /** @return Termos que não existem em nenhum segmento nem buffer. */
+    private static List<String> missing(State st, List<String> unique) {
+        List<String> missing = new ArrayList<>();
+        List<MemTable> mems = memTables(st);
+        for (String term : unique) {
+            boolean found = false;
+            for (int s = 0; s < st.segments.size() && !found; s++) found = st.segments.get(s).cursor(term) != null;
+            for (int m = 0; m < mems.size() && !found; m++) found = mems.get(m).cursor(term) != null;
+            if (!found) missing.add(term);
+        }
+        return missing;
+    }
+
+    /**
+     * Variantes dos termos de uma pesquisa, para o Gateway decidir a pesquisa aproximada. Um
+     * termo que existe neste índice fica só com ele próprio (distância 0); um que não existe é
+     * substituído pelas suas variantes no dicionário de sugestões (até
+     * {@value #FUZZY_MAX_EXPANSIONS}, a 1 ou 2 edições conforme o comprimento,
+     * {@link LevenshteinAutomaton#editsFor}), possivelmente nenhuma.
+     *
+     * @param terms Termos da pesquisa.
+     * @return Termo -> (variante -> distância), por termo distinto.
+     */
+    Map<String, Map<String, Integer>> expansions(List<String> terms) {
+        List<String> unique = QueryPlanner.unique(terms);
+        List<String> missing = missing(state, unique);
+        Suggester dictionary = suggester;
+        Map<String, Map<String, Integer>> res = new HashMap<>();
+        for (String term : unique) {
+            res.put(term, missing.contains(term)
+                ? dictionary.fuzzy(term, LevenshteinAutomaton.editsFor(term), FUZZY_MAX_EXPANSIONS)
+                : new HashMap<>(Map.of(term, 0)));
+        }
+        return res;
+    }
+
+    /**
+     * Pesquisa tolerante a erros ortográficos. Cada termo é substituído pelas variantes dadas
+     * (as mesmas em todos os shards, escolhidas pelo Gateway a partir de {@link #expansions});
+     * em cada unidade as listas das variantes de um termo são unidas (OR) e a interseção (AND)
+     * corre sobre as uniões.
+     * <p>
+     * Cada variante pontua como um termo normal (frequência de documentos própria), vezes
+     * {@value #FUZZY_EDIT_PENALTY} por edição; de um termo conta a melhor variante presente no
+     * documento. Sem poda por blocos (as uniões não têm majorantes) e sem cache: a chave não
+     * inclui as variantes, cujas versões mudam sem mudar as dos termos pesquisados.
+     *
+     * @param terms Termos da pesquisa.
+     * @param expansions Termo -> (variante -> distância); um termo sem entrada é pesquisado tal
+     *        como está.
+     * @param k Número de melhores documentos pretendidos.
+     * @return Os melhores documentos (vazio se algum termo não tiver variantes).
+     */
+    TopKCollector fuzzy(List<String> terms, Map<String, Map<String, Integer>> expansions, int k) {
+        long start = System.nanoTime();
+        TopKCollector topK = new TopKCollector(k);
+        List<String> unique = QueryPlanner.unique(terms);
+        State st = state;
+
+        // Um grupo por termo: os índices das suas variantes em variants
+        List<String> variants = new ArrayList<>();
+        List<Integer> edits = new ArrayList<>();
+        int[][] groups = new int[unique.size()][];
+        for (int g = 0; g < groups.length; g++) {
+            Map<String, Integer> options = expansions.getOrDefault(unique.get(g), Map.of(unique.get(g), 0));
+            if (options.isEmpty()) {
+                recordFuzzy(start);
+                return topK;
+            }
+            groups[g] = new int[options.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> expansion : options.entrySet()) {
+                groups[g][i++] = variants.size();
+                variants.add(expansion.getKey());
+                edits.add(expansion.getValue());
+            }
+        }
+        double[] penalty = new double[variants.size()];
+        for (int v = 0; v < penalty.length; v++) penalty[v] = Math.pow(FUZZY_EDIT_PENALTY, edits.get(v));
+
+        List<PostingCursor[]> plans = new ArrayList<>();
+        List<MemTable> mems = memTables(st);
+        long[] df = new long[variants.size()];
+        for (IndexSegment segment : st.segments) plans.add(union(groups, variants, segment::cursor, df));
+        for (MemTable mem : mems) plans.add(union(groups, variants, mem::cursor, df));
+        Bm25 bm25 = scorer(df);
+        PageRank.Result ranks = pageRank;
+
+        int unit = 0;
+        for (IndexSegment segment : st.segments) {
+            PostingCursor[] cursors = plans.get(unit++);
+            if (cursors == null) continue;
+            QueryPlanner.intersect(cursors, local -> {
+                int docId = segment.docAt(local);
+                if (!segment.covers(latest.get(docId))) return true; // versão substituída
+                int score = fuzzyScore(segment.document(docId), variants, groups, penalty, bm25, ranks);
+                if (score >= 0) topK.collect(docId, score);
+                return true;
+            });
+        }
+
+        for (MemTable mem : mems) {
+            PostingCursor[] cursors = plans.get(unit++);
+            if (cursors == null) continue;
+            QueryPlanner.intersect(cursors, docId -> {
+                if (latest.get(docId) != mem.generation) return true;
+                StoredDocument document = mem.pages.get(docId);
+                int score = document == null ? -1 : fuzzyScore(document, variants, groups, penalty, bm25, ranks);
+                if (score >= 0) topK.collect(docId, score);
+                return true;
+            });
+        }
+        recordFuzzy(start);
+        return topK;
+    }
+
+    /**
+     * Cursores de uma unidade para a pesquisa aproximada, um por grupo de variantes, e soma
+     * das frequências de documentos de cada variante. Um grupo com uma só lista usa o seu
+     * cursor; com várias, os doc IDs são unidos num array ordenado e sem repetidos.
+     *
+     * @return Cursores ordenados por custo, ou null se algum grupo não tiver listas na unidade.
+     */
+    private static PostingCursor[] union(int[][] groups, List<String> variants, Function<String, PostingCursor> lookup, long[] df) {
+        List<List<PostingCursor>> found = new ArrayList<>(groups.length);
+        boolean complete = true;
+        for (int[] group : groups) {
+            List<PostingCursor> lists = new ArrayList<>(group.length);
+            for (int v : group) {
+                PostingCursor cursor = lookup.apply(variants.get(v));
+                if (cursor == null) continue;
+                df[v] += cursor.cost();
+                lists.add(cursor);
+            }
+            complete &= !lists.isEmpty();
+            found.add(lists);
+        }
+        if (!complete) return null;
+
+        PostingCursor[] cursors = new PostingCursor[groups.length];
+        for (int g = 0; g < cursors.length; g++) {
+            List<PostingCursor> lists = found.get(g);
+            if (lists.size() == 1) {
+                cursors[g] = lists.get(0);
+            } else {
+                int total = 0;
+                for (PostingCursor cursor : lists) total += cursor.cost();
+                int[] docs = new int[total];
+                int n = 0;
+                for (PostingCursor cursor : lists) {
+                    for (int doc = cursor.nextDoc(); doc != PostingCursor.NO_MORE_DOCS; doc = cursor.nextDoc()) docs[n++] = doc;
+                }
+                Arrays.sort(docs, 0, n);
+                int distinct = 0;
+                for (int i = 0; i < n; i++) {
+                    if (distinct == 0 || docs[i] != docs[distinct - 1]) docs[distinct++] = docs[i];
+                }
+                cursors[g] = new PostingCursor(CompressedPostings.EMPTY, docs, distinct);
+            }
+            cursors[g].term = g;
+        }
+        Arrays.sort(cursors, Comparator.comparingInt(PostingCursor::cost));
+        return cursors;
+    }
+
+    /**
+     * Pontua um documento da pesquisa aproximada a partir do seu índice direto.
+     *
+     * @return Pontuação em milésimos, ou -1 se faltar algum grupo.
+     */
+    private int fuzzyScore(StoredDocument document, List<String> variants, int[][] groups, double[] penalty,
+            Bm25 bm25, PageRank.Result ranks) {
+        if (document == null) return -1;
+        int[] frequencies = document.frequencies(variants);
+        double score = Bm25.staticScore(backlinkCounts.get(document.docId), pageRank(ranks, document.docId));
+        for (int[] group : groups) {
+            double best = -1;
+            for (int v : group) {
+                if (frequencies[v] > 0) best = Math.max(best, penalty[v] * bm25.term(v, frequencies[v], document.length));
+            }
+            if (best < 0) return -1;
+            score += best;
+        }
+        return Bm25.scaled(score);
+    }
+
+    private void recordFuzzy(long start) {
+        long n = fuzzyQueries.getAndIncrement();
+        fuzzyLatencies[(int) (n % fuzzyLatencies.length)] = System.nanoTime() - start;
+    }
+
+    /** Planeia a pesquisa numa unidade e soma as frequências de documentos dos seus termos. */
+    private static PostingCursor[] plan(List<String> terms, Function<String, PostingCursor> lookup, long[] df) {
+        PostingCursor[] cursors = QueryPlanner.plan(terms, lookup);
+        if (cursors != null) {
+            for (PostingCursor cursor : cursors) df[cursor.term] += cursor.cost();
+        }
+        return cursors;
+    }
+
+    /** @return Pontuação BM25 com as estatísticas atuais do índice. */
+    private Bm25 scorer(long[] df) {
+        int documents = Math.max(1, liveDocs.get());
+        return new Bm25(df, documents, (double) totalLength.get() / documents);
+    }
+
+    /**
+     * Pontua um documento a partir do seu índice direto.
+     *
+     * @return Pontuação em milésimos, ou -1 se faltar algum termo.
+     */
+    private int score(StoredDocument document, List<String> unique, Bm25 bm25, PageRank.Result ranks) {
+        double text = text(document, unique, bm25);
+        if (text < 0) return -1;
+        return Bm25.scaled(Bm25.staticScore(backlinkCounts.get(document.docId), pageRank(ranks, document.docId)) + text);
+    }
+
+    /** @return Parte BM25 da pontuação de um documento, ou -1 se faltar algum termo. */
+    private static double text(StoredDocument document, List<String> unique, Bm25 bm25) {
+        int[] frequencies = document.frequencies(unique);
+        double score = 0;
+        for (int t = 0; t < frequencies.length; t++) {
+            if (frequencies[t] == 0) return -1;
+            score += bm25.term(t, frequencies[t], document.length);
+        }
+        return score;
+    }
+
+    /** @return Pontuação BM25 dos termos, com as frequências de documentos de todas as unidades. */
+    private Bm25 scorer(List<String> terms, int unique) {
+        State st = state;
+        long[] df = new long[unique];
+        for (IndexSegment segment : st.segments) plan(terms, segment::cursor, df);
+        for (MemTable mem : memTables(st)) plan(terms, mem::cursor, df);
+        return scorer(df);
+    }
+
+    /**
+     * Parte BM25 da pontuação de cada documento, só com os termos deste índice. Na partição
+     * por termos cada dono calcula a parte dos seus termos (as frequências de documentos só
+     * ele as conhece) e as partes são somadas até ao último dono ({@link #rank}).
+     *
+     * @param terms Termos da pesquisa.
+     * @param docIds Documentos candidatos.
+     * @return Pontuação de cada documento, pela mesma ordem (0 se não contiver os termos).
+     */
+    double[] textScores(List<String> terms, int[] docIds) {
+        List<String> unique = QueryPlanner.unique(terms);
+        Bm25 bm25 = scorer(terms, unique.size());
+        double[] res = new double[docIds.length];
+        for (int i = 0; i < docIds.length; i++) {
+            StoredDocument document = document(docIds[i]);
+            res[i] = document == null ? 0 : Math.max(0, text(document, unique, bm25));
+        }
+        return res;
+    }
+
+    /**
+     * Pontua candidatos já conhecidos (partição por termos: o último dono dos termos ordena os
+     * candidatos que restam), lendo as frequências do índice direto de cada um.
+     *
+     * @param terms Termos da pesquisa.
+     * @param docIds Documentos candidatos.
+     * @param partial Parte BM25 já calculada para cada candidato pelos donos dos outros termos.
+     * @param k Número de melhores documentos pretendidos.
+     * @return Os melhores documentos que contêm todos os termos e as suas pontuações.
+     */
+    TopKCollector rank(List<String> terms, int[] docIds, double[] partial, int k) {
+        List<String> unique = QueryPlanner.unique(terms);
+        Bm25 bm25 = scorer(terms, unique.size());
+
+        TopKCollector topK = new TopKCollector(k);
+        PageRank.Result ranks = pageRank;
+        for (int i = 0; i < docIds.length; i++) {
+            StoredDocument document = document(docIds[i]);
+            double text = document == null ? -1 : text(document, unique, bm25);
+            if (text < 0) continue;
+            double score = Bm25.staticScore(backlinkCounts.get(docIds[i]), pageRank(ranks, docIds[i])) + text + partial[i];
+            topK.collect(docIds[i], Bm25.scaled(score));
+        }
+        return topK;
+    }
+
+    /**
+     * Estimativa barata do número de resultados de uma pesquisa: a menor frequência de
+     * documentos dos seus termos (soma das listas de todos os segmentos e buffers, incluindo
+     * versões substituídas, por isso é um majorante).
+     *
+     * @param terms Termos da pesquisa.
+     * @return Número máximo de documentos que contêm todos os termos.
+     */
+    int estimate(List<String> terms) {
+        State st = state;
+        long best = Long.MAX_VALUE;
+        for (String term : new LinkedHashSet<>(normalize(terms))) {
+            long df = 0;
+            for (IndexSegment segment : st.segments) {
+                PostingCursor cursor = segment.cursor(term);
+                if (cursor != null) df += cursor.cost();
+            }
+            for (MemTable mem : memTables(st)) {
+                PostingCursor cursor = mem.cursor(term);
+                if (cursor != null) df += cursor.cost();
+            }
+            best = Math.min(best, df);
+        }
+        return best == Long.MAX_VALUE ? 0 : (int) Math.min(best, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Documentos que contêm os termos, por ordem de doc ID, a partir de {@code from} e no
+     * máximo {@code limit} (a interseção entre Barrels pede-os aos blocos). Cada bloco volta a
+     * intersetar as listas: o custo é o de uma pesquisa por bloco, e só os doc IDs (não os URLs)
+     * do resto dos resultados passam pela memória.
+     *
+     * @param terms Termos da pesquisa.
+     * @param from Menor doc ID a devolver.
+     * @param limit Número máximo de documentos.
+     * @return Doc IDs dos documentos, por ordem crescente.
+     */
+    int[] matching(List<String> terms, int from, int limit) {
+        List<Integer> res = new ArrayList<>();
+        State st = state;
+        for (IndexSegment segment : st.segments) {
+            PostingCursor[] cursors = QueryPlanner.plan(terms, segment::cursor);
+            if (cursors == null) continue;
+            QueryPlanner.intersect(cursors, local -> {
+                int docId = segment.docAt(local);
+                if (docId >= from && segment.covers(latest.get(docId))) res.add(docId);
+                return true;
+            });
+        }
+        List<String> required = normalize(terms);
+        for (MemTable mem : memTables(st)) {
+            PostingCursor[] cursors = QueryPlanner.plan(terms, mem::cursor);
+            if (cursors == null) continue;
+            QueryPlanner.intersect(cursors, docId -> {
+                if (docId >= from && latest.get(docId) == mem.generation && mem.matches(docId, required)) res.add(docId);
+                return true;
+            });
+        }
+        int[] docIds = toArray(res);
+        Arrays.sort(docIds);
+        return docIds.length <= limit ? docIds : Arrays.copyOf(docIds, limit);
+    }
+
+    /**
+     * Filtra uma lista de candidatos (ex: resultado parcial de outro Barrel): em vez de
+     * percorrer as listas dos termos, confirma cada candidato na sua página.
+     *
+     * @param terms Termos da pesquisa.
+     * @param urls URLs candidatos.
+     * @return Doc IDs dos candidatos indexados que contêm todos os termos.
+     */
+    int[] filter(List<String> terms, Collection<String> urls) {
+        List<String> required = normalize(terms);
+        List<Integer> res = new ArrayList<>();
+        for (String url : urls) {
+            int docId = dictionary.lookup(url);
+            if (docId == DocIdDictionary.NO_DOC) continue;
+            StoredDocument document = document(docId);
+            if (document != null && document.containsAll(required)) res.add(docId);
+        }
+        return toArray(res);
+    }
+
+    /**
+     * @param docId Doc ID.
+     * @return A versão mais recente do documento, ou null se não estiver indexado.
+     */
+    StoredDocument document(int docId) {
+        return find(state, latest, docId);
+    }
+
+    /** Procura a versão visível de um documento na unidade que cobre a sua geração. */
+    private static StoredDocument find(State st, DocValues latest, int docId) {
+        int generation = latest.get(docId);
+        if (generation == 0) return null;
+        for (MemTable mem : memTables(st)) {
+            if (mem.generation == generation) return mem.pages.get(docId);
+        }
+        for (IndexSegment segment : st.segments) {
+            if (segment.covers(generation)) return segment.document(docId);
+        }
+        return null;
+    }
+
+    /**
+     * Converte uma página recebida na forma guardada (os links passam a doc IDs).
+     *
+     * @param docId Doc ID da página.
+     * @param page Página recebida.
+     * @return O documento compacto.
+     */
+    private StoredDocument store(int docId, PageInfo page) {
+        int[] links = new int[page.getLinks().size()];
+        int n = 0;
+        for (String link : page.getLinks()) links[n++] = dictionary.getOrAssign(link);
+        return StoredDocument.of(docId, page, links);
+    }
+
+    /** @return A página reconstruída a partir do documento guardado, ou null. */
+    private PageInfo page(StoredDocument document) {
+        return document == null ? null : document.toPage(dictionary);
+    }
+
+    /** @return URL de um doc ID. */
+    String url(int docId) { return dictionary.url(docId); }
+
+    /** @return Número de backlinks de um documento. */
+    int backlinkCount(int docId) { return backlinkCounts.get(docId); }
+
+    /** @return PageRank normalizado (média 1) de um documento, 0 se ainda não foi calculado. */
+    private static float pageRank(PageRank.Result ranks, int docId) {
+        return ranks == null || docId >= ranks.scores.length ? 0 : ranks.scores[docId];
+    }
+
+    /**
+     * Recalcula o PageRank se os links mudaram desde o último cálculo: constrói o grafo em
+     * CSR a partir dos links da versão visível de cada documento, itera em paralelo e publica
+     * o resultado de uma só vez (as pesquisas em curso continuam com o anterior). Documentos
+     * novos, sem valor no resultado publicado, valem 0 até ao cálculo seguinte.
+     * <p>
+     * Com o índice partido por documentos o grafo só tem os links das páginas deste shard;
+     * na partição por termos cada shard guarda os links de todas as páginas.
+     *
+     * @return true se foi calculado um PageRank novo.
+     */
+    boolean updatePageRank() {
+        long version = rankUpdates.get();
+        if (version == pageRankVersion) return false;
+        PageRank.Result result = pageRankJob.run(dictionary.size(), docId -> {
+            StoredDocument document = document(docId);
+            return document == null ? null : document.distinctLinks();
+        });
+        if (result == null) return false;
+        pageRank = result;
+        pageRankVersion = version;
+        cache.invalidateAll();
+        return true;
+    }
+
+    /**
+     * @param url URL de destino.
+     * @return URLs das páginas (versão atual) que apontam para o destino.
+     */
+    List<String> backlinks(String url) {
+        List<String> res = new ArrayList<>();
+        int target = dictionary.lookup(url);
+        if (target == DocIdDictionary.NO_DOC) return res;
+
+        State st = state;
+        for (IndexSegment segment : st.segments) {
+            for (int source : segment.linkSources(target)) {
+                if (segment.covers(latest.get(source))) res.add(dictionary.url(source));
+            }
+        }
+        for (MemTable mem : memTables(st)) {
+            PostingList sources = mem.links.get(target);
+            if (sources == null) continue;
+            for (int source : sources.toArray()) {
+                if (latest.get(source) == mem.generation && mem.linksTo(source, target)) res.add(dictionary.url(source));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @param prefix Prefixo normalizado.
+     * @param k Número máximo de sugestões.
+     * @return Os termos com o prefixo que aparecem em mais documentos (termo -> documentos).
+     */
+    Map<String, Integer> suggest(String prefix, int k) {
+        return suggester.top(prefix, k);
+    }
+
+    /**
+     * Reconstrói o dicionário de sugestões se o índice mudou, no máximo uma vez a cada
+     * {@value #SUGGEST_REFRESH_MS} ms. A fusão dos dicionários só guarda na heap o termo atual
+     * de cada segmento; o resultado substitui o anterior de uma só vez.
+     */
+    void refreshSuggester() {
+        synchronized (suggesterLock) {
+            long now = System.currentTimeMillis();
+            int current = sequence.get();
+            if (current == suggesterSequence || now - suggesterBuiltAt < SUGGEST_REFRESH_MS) return;
+            Suggester.Builder builder = new Suggester.Builder();
+            forEachTerm(state, builder::add);
+            suggester = builder.build();
+            suggesterSequence = current;
+            suggesterBuiltAt = now;
+        }
+    }
+
+    private static List<String> normalize(List<String> terms) {
+        List<String> out = new ArrayList<>(terms.size());
+        for (String term : terms) out.add(term.toLowerCase());
+        return out;
+    }
+
+    private static List<MemTable> memTables(State st) {
+        List<MemTable> all = new ArrayList<>(st.frozen.size() + 1);
+        all.addAll(st.frozen);
+        all.add(st.active);
+        return all;
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Manutenção (flush, fusão, reordenação)
+    // ═══════════════════════════════════════════════════════
+
+    /**
+     * Passo de manutenção, chamado periodicamente: converte o buffer em segmento se estiver
+     * cheio ou velho, aplica a política de fusão, reescreve um segmento com muitos documentos
+     * mortos ou com o rank estático desatualizado e esquece as marcas de remoção expiradas.
+     */
+    synchronized void maintain() {
+        MemTable active = state.active;
+        int docs = active.docCount();
+        if (!state.frozen.isEmpty() || docs >= FLUSH_MAX_DOCS || active.postingCount() >= FLUSH_MAX_POSTINGS
+                || (docs > 0 && System.currentTimeMillis() - active.createdAt >= FLUSH_MAX_AGE_MS)) {
+            flush();
+        }
+        mergeSegments();
+        if (!compactDeadSegment()) rerankOldestSegment();
+        purgeTombstones();
+    }
+
+    /**
+     * Congela o buffer ativo e escreve-o como segmento imutável.
+     * Só o momento da troca de buffer bloqueia as escritas. Se a escrita falhar, o buffer
+     * congelado continua a ser pesquisado e volta a ser escrito no passo seguinte, antes de
+     * qualquer outro (para manter as gerações dos segmentos contíguas).
+     */
+    synchronized void flush() {
+        if (state.frozen.isEmpty() && publish(this::freeze).frozen.isEmpty()) return;
+
+        MemTable frozen = state.frozen.get(0);
+        List<IndexSegment.Doc> docs = new ArrayList<>(frozen.docCount());
+        frozen.pages.forEach((docId, document) -> {
+            if (latest.get(docId) == frozen.generation) docs.add(new IndexSegment.Doc(docId, frozen.generation, document));
+        });
+        IndexSegment segment;
+        try {
+            segment = IndexSegment.write(newSegmentFile(), frozen.generation, frozen.generation, docs,
+                backlinkCounts, rankUpdates.get());
+        } catch (IOException e) {
+            System.err.println(" [Segmentos] Erro ao escrever segmento: " + e.getMessage());
+            return;
+        }
+
+        publish(st -> {
+            List<MemTable> frozenList = new ArrayList<>(st.frozen);
+            frozenList.remove(frozen);
+            List<IndexSegment> segments = new ArrayList<>(st.segments);
+            segments.add(segment);
+            return new State(st.active, frozenList, segments);
+        });
+    }
+
+    /**
+     * Publica um estado novo, calculado a partir do atual sob o lock de escrita. Todas as
+     * trocas de {@code state} passam por aqui: quem calculasse a troca a partir de um estado
+     * lido antes (ex: antes de escrever um segmento) desfaria um buffer congelado entretanto
+     * por {@link #snapshot()}.
+     */
+    private State publish(UnaryOperator<State> change) {
+        ingestLock.writeLock().lock();
+        try {
+            state = change.apply(state);
+            return state;
+        } finally {
+            ingestLock.writeLock().unlock();
+        }
+    }
+
+    /** @return O estado com o buffer ativo congelado (se tiver documentos) e um buffer novo. */
+    private State freeze(State st) {
+        if (st.active.docCount() == 0) return st;
+        List<MemTable> frozenList = new ArrayList<>(st.frozen);
+        frozenList.add(st.active);
+        return new State(new MemTable(nextGeneration.getAndIncrement()), frozenList, st.segments);
+    }
+
+    /**
+     * Política de fusão por níveis: o nível de um segmento é log_{MERGE_FACTOR}(documentos).
+     * Sempre que existirem {@value #MERGE_FACTOR} segmentos contíguos do mesmo nível,
+     * são fundidos num só (que sobe de nível). Assim o número de segmentos cresce apenas
+     * com o logaritmo do tamanho do índice. Grupos cuja soma passe de
+     * {@value #MAX_SEGMENT_BYTES} bytes não são fundidos.
+     */
+    private void mergeSegments() {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            List<IndexSegment> segments = state.segments;
+            for (int i = 0; i + MERGE_FACTOR <= segments.size(); i++) {
+                int level = level(segments.get(i));
+                boolean sameLevel = true;
+                long bytes = segments.get(i).fileBytes();
+                for (int j = i + 1; j < i + MERGE_FACTOR && sameLevel; j++) {
+                    sameLevel = level(segments.get(j)) == level;
+                    bytes += segments.get(j).fileBytes();
+                }
+                if (sameLevel && bytes <= MAX_SEGMENT_BYTES) {
+                    merged = replace(i, MERGE_FACTOR);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reescreve o segmento com maior fração de documentos mortos (versões substituídas ou
+     * removidas), se passar de {@value #COMPACT_DEAD_FRACTION_PERCENT}%. Contar os vivos
+     * percorre a tabela de documentos de cada segmento, por isso só é feito a cada
+     * {@value #COMPACT_CHECK_INTERVAL_MS} ms.
+     *
+     * @return true se um segmento foi reescrito.
+     */
+    private boolean compactDeadSegment() {
+        long now = System.currentTimeMillis();
+        if (now - lastCompactCheck < COMPACT_CHECK_INTERVAL_MS) return false;
+        lastCompactCheck = now;
+
+        List<IndexSegment> segments = state.segments;
+        int worst = -1;
+        double worstDead = COMPACT_DEAD_FRACTION_PERCENT / 100.0;
+        for (int i = 0; i < segments.size(); i++) {
+            IndexSegment segment = segments.get(i);
+            if (segment.docCount() == 0) continue;
+            double dead = 1.0 - (double) segment.liveCount(latest) / segment.docCount();
+            if (dead > worstDead) {
+                worst = i;
+                worstDead = dead;
+            }
+        }
+        if (worst < 0) return false;
+        int before = segments.get(worst).docCount();
+        if (!replace(worst, 1)) return false;
+        System.out.println(String.format(Locale.US, " [Segmentos] Compactado segmento com %.0f%% de documentos mortos (%d docs)",
+            100 * worstDead, before));
+        return true;
+    }
+
+    /**
+     * Esquece as marcas de remoção com mais de {@value #TOMBSTONE_TTL_MS} ms: depois disso
+     * assume-se que todas as réplicas já apagaram a página.
+     */
+    private void purgeTombstones() {
+        long expired = System.currentTimeMillis() - TOMBSTONE_TTL_MS;
+        for (Map.Entry<Integer, Long> entry : tombstones.entrySet()) {
+            if (entry.getValue() > expired) continue;
+            int docId = entry.getKey();
+            ingestLock.readLock().lock();
+            try {
+                synchronized (docLocks[docId & (DOC_LOCKS - 1)]) {
+                    if (!tombstones.remove(docId, entry.getValue()) || latest.get(docId) != 0) continue;
+                    updateContent(docId, dictionary.url(docId), 0);
+                }
+            } finally {
+                ingestLock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Reescreve o segmento com a ordem por rank mais desatualizada, se tiver mais de
+     * {@value #RERANK_INTERVAL_MS} ms ou se as contagens de backlinks tiverem mudado muito
+     * desde a sua construção. No máximo um segmento por passo de manutenção.
+     */
+    private void rerankOldestSegment() {
+        List<IndexSegment> segments = state.segments;
+        long now = System.currentTimeMillis();
+        long updates = rankUpdates.get();
+        int oldest = -1;
+        for (int i = 0; i < segments.size(); i++) {
+            IndexSegment segment = segments.get(i);
+            boolean stale = now - segment.createdAt >= RERANK_INTERVAL_MS
+                || updates - segment.rankVersion > (long) segment.docCount() * RERANK_DRIFT_FACTOR;
+            if (stale && (oldest < 0 || segment.rankVersion < segments.get(oldest).rankVersion)) oldest = i;
+        }
+        if (oldest >= 0) replace(oldest, 1);
+    }
+
+    /**
+     * Substitui {@code count} segmentos contíguos a partir de {@code from} pela sua fusão.
+     * Os ficheiros antigos são apagados; pesquisas que ainda os estejam a ler continuam a
+     * funcionar, porque o mapeamento se mantém válido até ser libertado.
+     *
+     * @return true se a fusão foi publicada, false se a escrita falhou.
+     */
+    private boolean replace(int from, int count) {
+        List<IndexSegment> run = new ArrayList<>(state.segments.subList(from, from + count));
+        IndexSegment merged;
+        try {
+            merged = IndexSegment.merge(newSegmentFile(), run, latest, backlinkCounts, rankUpdates.get());
+        } catch (IOException e) {
+            System.err.println(" [Segmentos] Erro ao fundir segmentos: " + e.getMessage());
+            return false;
+        }
+
+        if (merged.docCount() == 0) merged.delete();
+        publish(st -> {
+            List<IndexSegment> segments = new ArrayList<>(st.segments);
+            int at = segments.indexOf(run.get(0));
+            segments.removeAll(run);
+            if (merged.docCount() > 0) segments.add(at, merged);
+            return new State(st.active, st.frozen, segments);
+        });
+        for (IndexSegment old : run) old.delete();
+        return true;
+    }
+
+    private Path newSegmentFile() {
+        return directory.resolve("seg-" + segmentCounter.incrementAndGet() + ".seg");
+    }
+
+    private static int level(IndexSegment segment) {
+        return (int) (Math.log(Math.max(1, segment.docCount())) / Math.log(MERGE_FACTOR));
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Exportação / importação (persistência e sincronização)
+    // ═══════════════════════════════════════════════════════
+
+    /**
+     * Constrói um bloco da transferência de estado (ver {@link StateChunk}) a partir de uma vista.
+     * O bloco termina quando o conteúdo passa de {@code maxBytes}: cada bloco tem pelo menos
+     * uma posição, por isso a transferência avança sempre.
+     *
+     * @param snapshot Vista a transferir (a mesma em todos os blocos da transferência).
+     * @param logId Identificador do histórico de sequências (ver {@link StateChunk#logId}).
+     * @param transferId Identificador da transferência.
+     * @param cursor Primeira posição do bloco.
+     * @param maxBytes Tamanho alvo do bloco.
+     * @return O bloco, com a posição seguinte.
+     */
+    StateChunk chunk(Snapshot snapshot, long logId, long transferId, int cursor, int maxBytes) {
+        int size = snapshot.size;
+        int end = 2 * size;
+        int position = Math.max(0, cursor);
+        int bytes = 0;
+
+        // Dicionário e contagens de backlinks
+        int firstUrl = Math.min(position, size);
+        List<String> urls = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        while (position < size && bytes < maxBytes) {
+            String url = dictionary.url(position);
+            urls.add(url);
+            counts.add(snapshot.backlinkCounts.get(position));
+            bytes += 8 + (url == null ? 0 : url.length());
+            position++;
+        }
+
+        // Páginas visíveis
+        List<Integer> docIds = new ArrayList<>();
+        List<PageInfo> pages = new ArrayList<>();
+        while (position >= size && position < end && bytes < maxBytes) {
+            int docId = position - size;
+            PageInfo page = page(snapshot.document(docId));
+            if (page != null) {
+                docIds.add(docId);
+                pages.add(page);
+                bytes += 4 + PageCodec.encode(page).length;
+            }
+            position++;
+        }
+        return new StateChunk(transferId, logId, snapshot.sequence, size, position, firstUrl, urls, toArray(counts),
+            toArray(docIds), pages, bytes);
+    }
+
+    /**
+     * Constrói um bloco de uma recuperação incremental (ver {@link UpdateChunk}): as páginas da
+     * vista aplicadas (ou removidas) com número de sequência superior a {@code since}. Percorre apenas a tabela
+     * de sequências em memória; só as páginas em falta são lidas e enviadas.
+     *
+     * @param snapshot Vista a transferir (a mesma em todos os blocos).
+     * @param transferId Identificador da transferência.
+     * @param since Último número de sequência que o pedinte já tem.
+     * @param cursor Primeiro doc ID do bloco.
+     * @param maxBytes Tamanho alvo do bloco.
+     * @return O bloco, com a posição seguinte.
+     */
+    UpdateChunk updates(Snapshot snapshot, long transferId, int since, int cursor, int maxBytes) {
+        int position = Math.max(0, cursor);
+        int bytes = 0;
+        List<PageInfo> pages = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        while (position < snapshot.size && bytes < maxBytes) {
+            if (snapshot.sequences.get(position) > since) {
+                PageInfo page = page(snapshot.document(position));
+                if (page != null) {
+                    pages.add(page);
+                    bytes += PageCodec.encode(page).length;
+                } else {
+                    // Aplicado depois da marca e sem versão visível: foi removido
+                    String url = dictionary.url(position);
+                    removed.add(url);
+                    bytes += 8 + url.length();
+                }
+            }
+            position++;
+        }
+        return new UpdateChunk(transferId, snapshot.sequence, snapshot.size, position, pages, removed, bytes);
+    }
+
+    /**
+     * Carregador de uma transferência de estado: aplica os blocos à medida que chegam a um
+     * índice vazio. As páginas são acumuladas até {@value #FLUSH_MAX_DOCS} e escritas num
+     * segmento, por isso a memória usada não depende do tamanho do estado transferido.
+     */
+    final class Loader {
+        private final List<IndexSegment.Doc> buffer = new ArrayList<>();
+
+        private Loader() { }
+
+        /**
+         * Aplica um bloco.
+         *
+         * @param chunk Bloco recebido (os blocos têm de chegar por ordem).
+         * @throws IOException Se o bloco não for o seguinte ou um segmento não puder ser escrito.
+         */
+        void accept(StateChunk chunk) throws IOException {
+            for (int i = 0; i < chunk.urls.size(); i++) {
+                int docId = chunk.firstUrl + i;
+                if (dictionary.getOrAssign(chunk.urls.get(i)) != docId) {
+                    throw new IOException("Bloco fora de ordem (doc ID " + docId + ")");
+                }
+                if (chunk.counts[i] != 0) backlinkCounts.set(docId, chunk.counts[i]);
+                maxBacklinks.accumulateAndGet(chunk.counts[i], Math::max);
+            }
+            for (int i = 0; i < chunk.docIds.length; i++) {
+                buffer.add(new IndexSegment.Doc(chunk.docIds[i], 0, store(chunk.docIds[i], chunk.pages.get(i))));
+                if (buffer.size() >= FLUSH_MAX_DOCS) writeBuffer();
+            }
+        }
+
+        /** Escreve as páginas que faltam e prepara o índice para as escritas normais. */
+        void finish() throws IOException {
+            writeBuffer();
+            publish(st -> new State(new MemTable(nextGeneration.getAndIncrement()), st.frozen, st.segments));
+        }
+
+        /** Desiste da transferência: o índice volta a ficar vazio. */
+        void abort() {
+            buffer.clear();
+            reset();
+        }
+
+        private void writeBuffer() throws IOException {
+            if (buffer.isEmpty()) return;
+            int generation = nextGeneration.getAndIncrement();
+            List<IndexSegment.Doc> docs = new ArrayList<>(buffer.size());
+            for (IndexSegment.Doc doc : buffer) docs.add(new IndexSegment.Doc(doc.docId, generation, doc.document));
+            buffer.clear();
+            IndexSegment segment = IndexSegment.write(newSegmentFile(), generation, generation, docs,
+                backlinkCounts, rankUpdates.get());
+            for (IndexSegment.Doc doc : docs) {
+                if (latest.set(doc.docId, generation) == 0) liveDocs.incrementAndGet();
+                sequences.set(doc.docId, sequence.incrementAndGet());
+                track(doc);
+            }
+            publish(st -> {
+                List<IndexSegment> segments = new ArrayList<>(st.segments);
+                segments.add(segment);
+                return new State(st.active, st.frozen, segments);
+            });
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Começa uma transferência de estado para este índice. O estado atual (ex: carregado do
+     * disco) é descartado: a transferência substitui-o por completo.
+     *
+     * @return Carregador que recebe os blocos.
+     */
+    Loader loader() {
+        reset();
+        return new Loader();
+    }
+
+    /** Volta ao índice vazio (apaga segmentos, dicionário e tabelas por documento). */
+    private synchronized void reset() {
+        List<IndexSegment> old;
+        ingestLock.writeLock().lock();
+        try {
+            old = state.segments;
+            state = new State(new MemTable(nextGeneration.getAndIncrement()), new ArrayList<>(), new ArrayList<>());
+            dictionary.load(new ArrayList<>());
+            backlinkCounts.clear();
+            latest.clear();
+            sequences.clear();
+            contentHashes.clear();
+            docLengths.clear();
+            totalLength.set(0);
+            maxBacklinks.set(0);
+            merkle.clear();
+            synchronized (bucketDocs) {
+                Arrays.fill(bucketDocs, null);
+                Arrays.fill(bucketSizes, 0);
+                listedIn.clear();
+            }
+            tombstones.clear();
+            pageRank = null;
+            pageRankVersion = -1;
+            cache.invalidateAll();
+            suggester = Suggester.EMPTY;
+            suggesterSequence = -1;
+            liveDocs.set(0);
+        } finally {
+            ingestLock.writeLock().unlock();
+        }
+        for (IndexSegment segment : old) segment.delete();
+    }
+
+    /**
+     * Carrega um estado exportado (vindo de um par) para um índice vazio.
+     *
+     * @param data Estado a carregar.
+     * @throws IOException Se os segmentos não puderem ser escritos.
+     */
+    synchronized void load(SyncData data) throws IOException {
+        int[] counts = new int[data.urls.size()];
+        data.backlinks.forEach((target, sources) -> counts[target] = sources.length);
+        install(data.urls, counts, data.pages);
+    }
+
+    /**
+     * Vista do índice num instante: unidades (buffers congelados e segmentos), a geração
+     * visível, o número de backlinks e o número de sequência de cada documento, o número de
+     * URLs do dicionário e o último número de sequência aplicado.
+     * Tudo o que a vista referencia é imutável, por isso pode ser lida sem locks enquanto
+     * as escritas continuam. Segmentos entretanto fundidos continuam legíveis pelo mapeamento.
+     */
+    static final class Snapshot {
+        private final State state;
+        private final DocValues latest;
+        private final DocValues backlinkCounts;
+        private final DocValues sequences;
+        final int size;
+        /** Todas as páginas com número de sequência até este valor estão na vista. */
+        final int sequence;
+        /** Tempo (ns) durante o qual as escritas estiveram bloqueadas para tirar a vista. */
+        final long pauseNanos;
+
+        private Snapshot(State state, DocValues latest, DocValues backlinkCounts, DocValues sequences, int size,
+                         int sequence, long pauseNanos) {
+            this.state = state;
+            this.latest = latest;
+            this.backlinkCounts = backlinkCounts;
+            this.sequences = sequences;
+            this.size = size;
+            this.sequence = sequence;
+            this.pauseNanos = pauseNanos;
+        }
+
+        /** @return Versão do documento nesta vista, ou null se não estava indexado. */
+        StoredDocument document(int docId) {
+            return find(state, latest, docId);
+        }
+    }
+
+    /**
+     * Tira uma vista consistente do índice (época): o buffer ativo é congelado (passa a ser
+     * escrito em segmento pelo flush normal) e as tabelas por documento são copiadas em
+     * copy-on-write. As escritas só ficam bloqueadas durante estas trocas de referências;
+     * as pesquisas nunca bloqueiam.
+     *
+     * @return Vista do índice neste instante.
+     */
+    Snapshot snapshot() {
+        ingestLock.writeLock().lock();
+        long start = System.nanoTime();
+        try {
+            State st = freeze(state);
+            state = st;
+            DocValues latestCopy = latest.snapshot();
+            DocValues countsCopy = backlinkCounts.snapshot();
+            DocValues sequencesCopy = sequences.snapshot();
+            int size = dictionary.size();
+            // A vista não inclui o buffer novo (vazio): só unidades imutáveis
+            State view = new State(new MemTable(0), st.frozen, st.segments);
+            return new Snapshot(view, latestCopy, countsCopy, sequencesCopy, size, sequence.get(),
+                System.nanoTime() - start);
+        } finally {
+            ingestLock.writeLock().unlock();
+        }
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Checkpoints (ver {@link SnapshotFile})
+    // ═══════════════════════════════════════════════════════
+
+    /** Tipos de secção do checkpoint: URLs do dicionário, páginas e contagens de backlinks. */
+    private static final int SECTION_URLS = 1;
+    private static final int SECTION_PAGES = 2;
+    private static final int SECTION_BACKLINKS = 3;
+
+    /**
+     * Grava uma vista num checkpoint binário. As listas de ocorrências não são gravadas:
+     * são derivadas das páginas quando o checkpoint é carregado.
+     *
+     * @param snapshot Vista a gravar ({@link #snapshot()}).
+     * @param file Ficheiro de destino (substituído atomicamente).
+     * @return Tamanho do ficheiro escrito.
+     * @throws IOException Se a escrita falhar.
+     */
+    long save(Snapshot snapshot, Path file) throws IOException {
+        State st = snapshot.state;
+        DocValues latest = snapshot.latest;
+        int size = snapshot.size;
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(file)) {
+            // URLs, em secções que começam pelo primeiro doc ID
+            DataOutputStream out = null;
+            for (int docId = 0; docId < size; docId++) {
+                if (out == null || writer.full()) {
+                    out = writer.begin(SECTION_URLS);
+                    out.writeInt(docId);
+                }
+                writeString(out, dictionary.url(docId));
+            }
+
+            // Páginas: a versão visível de cada documento está na unidade que cobre a sua geração
+            DataOutputStream[] pages = {writer.begin(SECTION_PAGES)};
+            IOException[] error = {null};
+            Consumer<IndexSegment.Doc> writePage = doc -> {
+                if (error[0] != null) return;
+                try {
+                    if (writer.full()) pages[0] = writer.begin(SECTION_PAGES);
+                    pages[0].writeInt(doc.docId);
+                    PageCodec.write(pages[0], doc.document.toPage(dictionary));
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            };
+            for (IndexSegment segment : st.segments) {
+                segment.forEachDoc(doc -> {
+                    if (segment.covers(latest.get(doc.docId))) writePage.accept(doc);
+                });
+            }
+            for (MemTable mem : memTables(st)) {
+                mem.pages.forEach((docId, document) -> {
+                    if (latest.get(docId) == mem.generation) writePage.accept(new IndexSegment.Doc(docId, mem.generation, document));
+                });
+            }
+            if (error[0] != null) throw error[0];
+
+            // Contagens de backlinks (rank estático)
+            out = null;
+            for (int docId = 0; docId < size; docId++) {
+                if (out == null || writer.full()) {
+                    out = writer.begin(SECTION_BACKLINKS);
+                    out.writeInt(docId);
+                }
+                out.writeInt(snapshot.backlinkCounts.get(docId));
+            }
+            return writer.commit();
+        }
+    }
+
+    /**
+     * Carrega um checkpoint binário para um índice vazio. As secções são descodificadas em
+     * paralelo e as páginas são divididas em vários segmentos construídos também em paralelo.
+     *
+     * @param file Checkpoint a ler.
+     * @return Estatísticas da leitura (bytes e secções) e número de entradas descodificadas.
+     * @throws IOException Se o ficheiro for inválido ou os segmentos não puderem ser escritos.
+     */
+    synchronized long[] loadSnapshot(Path file) throws IOException {
+        Map<Integer, String[]> urlChunks = new ConcurrentHashMap<>();
+        Map<Integer, int[]> countChunks = new ConcurrentHashMap<>();
+        Map<Integer, PageInfo> pages = new ConcurrentHashMap<>();
+        AtomicLong entries = new AtomicLong();
+
+        SnapshotFile.Stats stats = SnapshotFile.read(file, (type, payload) -> {
+            switch (type) {
+                case SECTION_URLS: {
+                    int first = payload.getInt();
+                    List<String> urls = new ArrayList<>();
+                    while (payload.hasRemaining()) urls.add(readString(payload));
+                    urlChunks.put(first, urls.toArray(new String[0]));
+                    entries.addAndGet(urls.size());
+                    break;
+                }
+                case SECTION_PAGES: {
+                    int n = 0;
+                    while (payload.hasRemaining()) {
+                        int docId = payload.getInt();
+                        pages.put(docId, PageCodec.read(payload));
+                        n++;
+                    }
+                    entries.addAndGet(n);
+                    break;
+                }
+                case SECTION_BACKLINKS: {
+                    int first = payload.getInt();
+                    int[] counts = new int[payload.remaining() / 4];
+                    for (int i = 0; i < counts.length; i++) counts[i] = payload.getInt();
+                    countChunks.put(first, counts);
+                    entries.addAndGet(counts.length);
+                    break;
+                }
+                default:
+                    throw new IOException("Secção desconhecida no checkpoint: " + type);
+            }
+        });
+
+        int size = 0;
+        for (String[] chunk : urlChunks.values()) size += chunk.length;
+        String[] urls = new String[size];
+        urlChunks.forEach((first, chunk) -> System.arraycopy(chunk, 0, urls, first, chunk.length));
+        int[] counts = new int[size];
+        countChunks.forEach((first, chunk) -> System.arraycopy(chunk, 0, counts, first, chunk.length));
+
+        install(Arrays.asList(urls), counts, pages);
+        return new long[] {stats.bytes, stats.sections, entries.get()};
+    }
+
+    /**
+     * Instala um estado completo num índice vazio (sem escritas desde a criação): dicionário,
+     * contagens de backlinks e páginas, divididas em até um segmento por core (cada um com a
+     * sua geração), convertidas e escritas em paralelo.
+     */
+    private void install(List<String> urls, int[] counts, Map<Integer, PageInfo> loaded) throws IOException {
+        dictionary.load(urls);
+        backlinkCounts.load(Arrays.copyOf(counts, Math.max(counts.length, 1024)));
+        for (int count : counts) maxBacklinks.accumulateAndGet(count, Math::max);
+        if (loaded.isEmpty()) return;
+
+        int parts = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+            loaded.size() / (FLUSH_MAX_DOCS / 4) + 1));
+        int firstGeneration = nextGeneration.getAndAdd(parts);
+        List<List<Map.Entry<Integer, PageInfo>>> pending = new ArrayList<>();
+        for (int p = 0; p < parts; p++) pending.add(new ArrayList<>(loaded.size() / parts + 1));
+        for (Map.Entry<Integer, PageInfo> entry : loaded.entrySet()) {
+            pending.get(Math.floorMod(entry.getKey(), parts)).add(entry);
+        }
+        List<List<IndexSegment.Doc>> partitions = new ArrayList<>();
+        for (int p = 0; p < parts; p++) partitions.add(new ArrayList<>(pending.get(p).size()));
+
+        IndexSegment[] built = new IndexSegment[parts];
+        long version = rankUpdates.get();
+        try {
+            IntStream.range(0, parts).parallel().forEach(p -> {
+                try {
+                    for (Map.Entry<Integer, PageInfo> entry : pending.get(p)) {
+                        partitions.get(p).add(new IndexSegment.Doc(entry.getKey(), firstGeneration + p,
+                            store(entry.getKey(), entry.getValue())));
+                    }
+                    built[p] = IndexSegment.write(newSegmentFile(), firstGeneration + p, firstGeneration + p,
+                        partitions.get(p), backlinkCounts, version);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        for (int p = 0; p < parts; p++) {
+            for (IndexSegment.Doc doc : partitions.get(p)) {
+                if (latest.set(doc.docId, doc.generation) == 0) liveDocs.incrementAndGet();
+                sequences.set(doc.docId, sequence.incrementAndGet());
+                track(doc);
+            }
+        }
+        for (IndexSegment segment : built) {
+            if (segment.docCount() == 0) segment.delete();
+        }
+        // Buffer novo: as próximas escritas têm de ter uma geração posterior à dos segmentos carregados
+        publish(st -> {
+            List<IndexSegment> segments = new ArrayList<>(st.segments);
+            for (IndexSegment segment : built) {
+                if (segment.docCount() > 0) segments.add(segment);
+            }
+            return new State(new MemTable(nextGeneration.getAndIncrement()), st.frozen, segments);
+        });
+        cache.invalidateAll();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] out = new int[values.size()];
+        for (int i = 0; i < out.length; i++) out[i] = values.get(i);
+        return out;
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Anti-entropia (ver {@link MerkleTree})
+    // ═══════════════════════════════════════════════════════
+
+    /** Regista na árvore de hashes um documento carregado (índice vazio até aqui). */
+    private void track(IndexSegment.Doc doc) {
+        updateContent(doc.docId, dictionary.url(doc.docId), doc.document.contentHash);
+        totalLength.addAndGet(doc.document.length - docLengths.set(doc.docId, doc.document.length));
+    }
+
+    /**
+     * Muda o hash de conteúdo de um documento na tabela por documento e na árvore de hashes,
+     * e lista o documento no seu balde da primeira vez que tem conteúdo.
+     */
+    private void updateContent(int docId, String url, int content) {
+        merkle.update(url, contentHashes.set(docId, content), content);
+        if (content == 0 || listedIn.get(docId) != 0) return;
+        int bucket = MerkleTree.bucket(url);
+        synchronized (bucketDocs) {
+            if (listedIn.get(docId) != 0) return;
+            listedIn.set(docId, bucket + 1);
+            int[] docs = bucketDocs[bucket];
+            if (docs == null) {
+                docs = bucketDocs[bucket] = new int[4];
+            } else if (bucketSizes[bucket] == docs.length) {
+                docs = bucketDocs[bucket] = Arrays.copyOf(docs, docs.length * 2);
+            }
+            docs[bucketSizes[bucket]++] = docId;
+        }
+    }
+
+    /**
+     * @param depth Profundidade dos nós (0 = raiz).
+     * @param nodes Índices dos nós.
+     * @return Hashes desses nós da árvore de Merkle.
+     */
+    long[] merkleHashes(int depth, int[] nodes) {
+        return merkle.hashes(depth, nodes);
+    }
+
+    /**
+     * Resumo de baldes da árvore de Merkle: URL e hash do conteúdo de cada documento indexado
+     * neles ({@link MerkleTree#TOMBSTONE} para os removidos recentemente). Só visita os
+     * documentos listados nesses baldes, e só esses URLs são lidos do dicionário.
+     *
+     * @param buckets Baldes pretendidos.
+     * @return Mapa URL -> hash do conteúdo.
+     */
+    Map<String, Integer> bucketDigest(int[] buckets) {
+        boolean[] wanted = new boolean[MerkleTree.LEAVES];
+        Map<String, Integer> digest = new HashMap<>();
+        for (int bucket : buckets) {
+            if (bucket < 0 || bucket >= wanted.length || wanted[bucket]) continue;
+            wanted[bucket] = true;
+            int[] docs;
+            int n;
+            synchronized (bucketDocs) {
+                docs = bucketDocs[bucket];
+                n = bucketSizes[bucket];
+            }
+            for (int i = 0; i < n; i++) {
+                int docId = docs[i];
+                int content = contentHashes.get(docId);
+                if (content == 0 || (latest.get(docId) == 0 && content != MerkleTree.TOMBSTONE)) continue;
+                digest.put(dictionary.url(docId), content);
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * @param url URL da página.
+     * @return A versão mais recente da página, ou null se não estiver indexada.
+     */
+    PageInfo page(String url) {
+        int docId = dictionary.lookup(url);
+        return docId == DocIdDictionary.NO_DOC ? null : page(document(docId));
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Estatísticas
+    // ═══════════════════════════════════════════════════════
+
+    /** @return Último número de sequência atribuído a uma página aplicada. */
+    int sequence() { return sequence.get(); }
+
+    /** @return Número de documentos indexados (versões visíveis). */
+    int docCount() { return liveDocs.get(); }
+
+    /** @return Número de termos distintos (valor guardado, atualizado a cada 5s). */
+    int termCount() { refreshStats(); return cachedTermCount; }
+
+    /** @return Número de documentos com pelo menos um backlink (valor guardado, atualizado a cada 5s). */
+    int linkedDocCount() { refreshStats(); return cachedLinkedDocs; }
+
+    /**
+     * Relatório de memória e de segmentos: bytes das listas comprimidas face aos 4 bytes
+     * por entrada de um array de inteiros simples, bytes por URL do dicionário, número de
+     * segmentos, bytes mapeados (fora da heap), tamanho do buffer e do dicionário de sugestões.
+     *
+     * @return String do tipo "Postings: 1.2 MB (raw 4.8 MB, 25%) | URLs: 5000, 31.4 B/URL |
+     *         Segs: 3, 9.1 MB mapeados (+120 docs em buffer) | Sugestões: 40000 termos, 1.1 MB".
+     */
+    String report() { refreshStats(); return cachedStats; }
+
+    private void refreshStats() {
+        long now = System.currentTimeMillis();
+        if (cachedStats != null && now - cachedStatsTime < 5000) return;
+
+        State st = state;
+        long compressed = 0, entries = 0, mapped = 0;
+        for (IndexSegment segment : st.segments) {
+            compressed += segment.compressedBytes();
+            entries += segment.postingEntries();
+            mapped += segment.fileBytes();
+        }
+        int buffered = 0;
+        for (MemTable mem : memTables(st)) {
+            compressed += mem.compressedBytes();
+            entries += mem.postingCount();
+            buffered += mem.docCount();
+        }
+        long raw = entries * 4;
+        cachedTermCount = countDistinctTerms(st);
+        cachedLinkedDocs = backlinkCounts.countNonZero();
+        int urls = dictionary.size();
+        Suggester suggestions = suggester;
+        cachedStats = String.format(Locale.US, "Postings: %s (raw %s, %.0f%%) | URLs: %d, %.1f B/URL | Segs: %d, %s mapeados (+%d docs em buffer) | Sugestões: %d termos, %s",
+            formatBytes(compressed), formatBytes(raw), raw == 0 ? 100.0 : 100.0 * compressed / raw,
+            urls, urls == 0 ? 0.0 : (double) dictionary.bytesUsed() / urls,
+            st.segments.size(), formatBytes(mapped), buffered, suggestions.size(), formatBytes(suggestions.bytes()));
+        cachedStatsTime = now;
+    }
+
+    /** @return Estatísticas da cache de resultados (acertos, invalidações, remoções). */
+    String cacheReport() { return cache.report(); }
+
+    /** @return Progresso do PageRank em curso e métricas do último cálculo (não guardado: muda durante o cálculo). */
+    String pageRankReport() { return pageRankJob.report(); }
+
+    /** @return Número de pesquisas aproximadas e percentis de latência das últimas 1024. */
+    String fuzzyReport() {
+        long n = fuzzyQueries.get();
+        if (n == 0) return "Aproximadas: 0";
+        long[] sample = Arrays.copyOf(fuzzyLatencies, (int) Math.min(n, fuzzyLatencies.length));
+        Arrays.sort(sample);
+        return String.format(Locale.US, "Aproximadas: %d, p50 %.2f ms, p99 %.2f ms", n,
+            sample[(sample.length - 1) / 2] / 1e6, sample[(int) Math.ceil(sample.length * 0.99) - 1] / 1e6);
+    }
+
+    /**
+     * Conta os termos distintos com uma fusão dos dicionários ordenados (segmentos e buffers):
+     * de cada segmento só está na heap o termo atual de cada dicionário.
+     */
+    private static int countDistinctTerms(State st) {
+        int[] distinct = {0};
+        forEachTerm(st, (key, docs) -> distinct[0]++);
+        return distinct[0];
+    }
+
+    /** Recebe os termos distintos por ordem, com a frequência de documentos somada de todas as unidades. */
+    @FunctionalInterface
+    private interface TermConsumer {
+        void accept(byte[] key, int docs);
+    }
+
+    /** Percorre os termos distintos de todas as unidades por ordem dos bytes UTF-8 (fusão dos dicionários). */
+    private static void forEachTerm(State st, TermConsumer consumer) {
+        PriorityQueue<TermSource> queue = new PriorityQueue<>((a, b) -> Arrays.compareUnsigned(a.key, b.key));
+        for (IndexSegment segment : st.segments) {
+            TermSource source = new TermSource(segment::termKey, segment::termDocs, segment.termCount());
+            if (source.next()) queue.add(source);
+        }
+        for (MemTable mem : memTables(st)) {
+            List<String> terms = new ArrayList<>(mem.terms.keySet());
+            List<byte[]> keys = new ArrayList<>(terms.size());
+            for (String term : terms) keys.add(term.getBytes(StandardCharsets.UTF_8));
+            keys.sort(Arrays::compareUnsigned);
+            TermSource source = new TermSource(keys::get, i -> {
+                PostingList list = mem.terms.get(new String(keys.get(i), StandardCharsets.UTF_8));
+                return list == null ? 0 : list.size();
+            }, keys.size());
+            if (source.next()) queue.add(source);
+        }
+
+        byte[] previous = null;
+        int docs = 0;
+        while (!queue.isEmpty()) {
+            TermSource head = queue.poll();
+            if (previous != null && !Arrays.equals(previous, head.key)) {
+                consumer.accept(previous, docs);
+                docs = 0;
+            }
+            previous = head.key;
+            docs += head.docs;
+            if (head.next()) queue.add(head);
+        }
+        if (previous != null) consumer.accept(previous, docs);
+    }
+
+    /** Dicionário ordenado percorrido termo a termo (para {@link #forEachTerm}). */
+    private static final class TermSource {
+        private final IntFunction<byte[]> keys;
+        private final IntUnaryOperator documents;
+        private final int count;
+        private int position = -1;
+        byte[] key;
+        int docs;
+
+        TermSource(IntFunction<byte[]> keys, IntUnaryOperator documents, int count) {
+            this.keys = keys;
+            this.documents = documents;
+            this.count = count;
+        }
+
+        boolean next() {
+            if (++position >= count) return false;
+            key = keys.apply(position);
+            docs = documents.applyAsInt(position);
+            return true;
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format(Locale.US, "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.US, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
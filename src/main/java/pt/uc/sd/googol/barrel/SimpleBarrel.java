@@ -2,11 +2,23 @@
  * Implementação do servidor de armazenamento (Storage Barrel).
  * <p>
  * Esta classe gere o índice invertido, o armazenamento de páginas e os backlinks.
+ * Internamente, cada URL recebe um doc ID inteiro ({@link DocIdDictionary}) e o índice está
+ * organizado em segmentos ({@link SegmentedIndex}): as escritas vão para um buffer em memória
+ * que é periodicamente convertido em segmentos imutáveis, fundidos depois em background.
  * Implementa mecanismos de tolerância a falhas, incluindo:
  * <ul>
- * <li>Persistência de dados em disco (ficheiros .dat).</li>
- * <li>Sincronização automática com outros Barrels no arranque (State Transfer).</li>
- * <li>Thread de auto-save para salvaguarda periódica.</li>
+ * <li>Log de escrita ({@link WriteAheadLog}): cada página fica em disco antes de ser indexada.</li>
+ * <li>Checkpoints ocasionais do estado completo (ficheiros .dat), que truncam o log.</li>
+ * <li>Sincronização automática com outros Barrels no arranque (State Transfer), em blocos.</li>
+ * <li>Recuperação incremental: depois de ler o disco, pede a um par só as páginas que
+ * ele aplicou desde a última marca conhecida (números de sequência por Barrel).</li>
+ * <li>Thread de anti-entropia, que compara árvores de hashes com um par, copia as
+ * páginas que não chegaram a este Barrel e apaga as que o par removeu.</li>
+ * <li>Thread de checkpoint, que só grava o estado quando o log cresce ou envelhece.</li>
+ * <li>Partição do índice ({@link Shards}), por documentos ou por termos: cada Barrel guarda
+ * um shard e só sincroniza com as réplicas do mesmo shard.</li>
+ * <li>Thread de manutenção que escreve, funde e reordena os segmentos do índice.</li>
+ * <li>Thread de PageRank, que recalcula o rank estático quando os links mudam.</li>
  * </ul>
  *
  * @author Elemento 1: André Ramos 2023227306
@@ -15,46 +27,113 @@
 
 package pt.uc.sd.googol.barrel;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 
 import pt.uc.sd.googol.common.PageInfo;
+import pt.uc.sd.googol.common.Shards;
 import pt.uc.sd.googol.gateway.GatewayInterface;
 import pt.uc.sd.googol.gateway.SearchResult;
+import pt.uc.sd.googol.gateway.Stats;
 
 public class SimpleBarrel extends UnicastRemoteObject implements BarrelInterface {
     
     private final int barrelId;
     private final String dataFileName;
     
-    // Mapas iniciados imediatamente para evitar NullPointer
-    private final Map<String, PageInfo> pages = new ConcurrentHashMap<>();
-    private final Map<String, Set<String>> index = new ConcurrentHashMap<>();
-    private final Map<String, Set<String>> backlinks = new ConcurrentHashMap<>();
+    // Shard guardado por este Barrel (0 de 1 = réplica completa) e modo de partição
+    private final int shard;
+    private final int shards;
+    private final int partitionMode;
+    
+    // Índice segmentado (páginas, termos e backlinks); os segmentos ficam em ficheiros mapeados
+    private final SegmentedIndex index;
+    private static final long MAINTENANCE_INTERVAL_MS = 1000;
+    // Intervalo entre cálculos do PageRank (-Dgoogol.pagerank.intervalMs; só recalcula se os links mudaram)
+    private static final long PAGERANK_INTERVAL_MS = Long.getLong("googol.pagerank.intervalMs", 60 * 1000);
+    
+    // Log de escrita e checkpoints: addDocument toma o lock de leitura, o checkpoint o de escrita
+    private final WriteAheadLog wal;
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private volatile long lastCheckpoint = System.currentTimeMillis();
+    private static final long CHECKPOINT_LOG_BYTES = 64L * 1024 * 1024;
+    private static final long CHECKPOINT_INTERVAL_MS = 5 * 60 * 1000;
+    
+    // Pausas impostas às escritas pelos snapshots (checkpoint e transferências): número, total e máximo (ns)
+    private final AtomicLong snapshotPauses = new AtomicLong();
+    private final AtomicLong snapshotPauseNanos = new AtomicLong();
+    private final AtomicLong snapshotPauseMax = new AtomicLong();
+    
+    // Transferências de estado servidas a outros Barrels: cada uma lê sempre a mesma vista
+    private final Map<Long, Transfer> transfers = new ConcurrentHashMap<>();
+    private final AtomicLong transferIds = new AtomicLong(System.currentTimeMillis());
+    private static final long TRANSFER_IDLE_MS = 60 * 1000;
+    private static final int TRANSFER_CHUNK_BYTES = 1024 * 1024;
+    private static final int TRANSFER_MAX_CHUNK_BYTES = 8 * 1024 * 1024;
+    private static final int TRANSFER_RETRIES = 3;
+    
+    // Histórico de páginas aplicadas: identificador desta execução (o número de sequência está no índice)
+    private final long logId = ThreadLocalRandom.current().nextLong();
+    // Marcas dos pares (nome -> {logId, sequência}): tudo o que o par aplicou até aí já está aqui
+    private final Map<String, long[]> peerMarks = new ConcurrentHashMap<>();
+    private final Path marksFile;
+    
+    // Anti-entropia: um par por ronda, à vez
+    private static final long ANTI_ENTROPY_INTERVAL_MS = 60 * 1000;
+    private static final int ANTI_ENTROPY_BATCH = 500;
+    private int antiEntropyTurn = 0;
+    
+    // Limite de sugestões por pedido (o Gateway pede mais do que mostra, para reordenar)
+    private static final int MAX_SUGGESTIONS = 100;
+
+    /** Transferência em curso: vista do índice e instante do último pedido (expira sem pedidos). */
+    private static final class Transfer {
+        final long id;
+        final SegmentedIndex.Snapshot snapshot;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Transfer(long id, SegmentedIndex.Snapshot snapshot) {
+            this.id = id;
+            this.snapshot = snapshot;
+        }
+    }
     
     // Flag de segurança para evitar gravar dados incompletos durante o arranque
     private volatile boolean isReady = false;
+    // O ficheiro local existia mas não foi lido: os checkpoints não o podem substituir
+    private volatile boolean unreadableCheckpoint = false;
 
-    private pt.uc.sd.googol.gateway.GatewayInterface gateway; // Importante: usar o caminho completo ou importar
-    private final java.util.concurrent.atomic.AtomicInteger pendingChanges = new java.util.concurrent.atomic.AtomicInteger(0);
-    private static final int NOTIFICATION_THRESHOLD = 1;
+    private volatile pt.uc.sd.googol.gateway.GatewayInterface gateway; // Importante: usar o caminho completo ou importar
+    
+    // Avisos ao Gateway: uma thread, no máximo um aviso por intervalo (-Dgoogol.notify.debounceMs / minIntervalMs)
+    private static final long NOTIFY_DEBOUNCE_MS = Long.getLong("googol.notify.debounceMs", 250);
+    private static final long NOTIFY_MIN_INTERVAL_MS = Long.getLong("googol.notify.minIntervalMs", 1000);
+    private final ChangeNotifier notifier;
     
     /**
      * Construtor do Barrel.
@@ -65,54 +144,124 @@ public class SimpleBarrel extends UnicastRemoteObject implements BarrelInterface
      * @throws RemoteException Se houver erro na exportação RMI.
      */
     protected SimpleBarrel(int barrelId) throws RemoteException {
+        this(barrelId, 0, 1, Shards.DOCUMENTS);
+    }
+
+    /**
+     * Construtor de um Barrel que guarda apenas um shard do índice.
+     *
+     * @param barrelId Identificador único deste Barrel (0, 1, etc.).
+     * @param shard Shard guardado (0 .. shards - 1).
+     * @param shards Número total de shards.
+     * @param partitionMode {@link Shards#DOCUMENTS} ou {@link Shards#TERMS}.
+     * @throws RemoteException Se houver erro na exportação RMI.
+     */
+    protected SimpleBarrel(int barrelId, int shard, int shards, int partitionMode) throws RemoteException {
         super();
+        if (shards < 1 || shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("Shard inválido: " + shard + "/" + shards);
+        }
         this.barrelId = barrelId;
+        this.shard = shard;
+        this.shards = shards;
+        this.partitionMode = partitionMode;
         this.dataFileName = "barrel" + barrelId + ".dat";
+        this.marksFile = Paths.get("barrel" + barrelId + ".peers");
+        try {
+            this.index = new SegmentedIndex(Paths.get("barrel" + barrelId + "-segments"));
+        } catch (IOException e) {
+            throw new RemoteException("Não foi possível preparar a diretoria de segmentos", e);
+        }
+        try {
+            this.wal = new WriteAheadLog(Paths.get("barrel" + barrelId + "-wal"));
+        } catch (IOException e) {
+            throw new RemoteException("Não foi possível abrir o log de escrita", e);
+        }
+        this.notifier = new ChangeNotifier(NOTIFY_DEBOUNCE_MS, NOTIFY_MIN_INTERVAL_MS,
+            () -> new Stats("barrel" + barrelId, index.docCount(), index.termCount()),
+            stats -> {
+                GatewayInterface gw = gateway;
+                if (gw != null) gw.barrelNotifyUpdate(this, stats);
+            });
+        long recoveryFile = wal.currentFile();
         
         // Thread de Inicialização
         new Thread(() -> {
             System.out.println("╔════════════════════════════════════════════");
-            System.out.println("║ [Barrel" + barrelId + "] Iniciando recuperação...");
+            System.out.println("║ [Barrel" + barrelId + "] Iniciando recuperação... (shard " + shard + "/" + shards
+                + (partitionMode == Shards.TERMS ? " por termos" : "") + ")");
             
-            // 1. Tentar Sincronizar de outro par (P2P)
-            boolean synced = syncFromPeer();
+            // 1. Ler o último checkpoint do disco e reexecutar o log
+            boolean local = loadFromDisk();
+            replayLog(recoveryFile);
             
-            // 2. Se falhar, tentar ler do disco
-            if (!synced) {
-                loadFromDisk();
-            }
+            // 2. Atualizar a partir de outro par (P2P): só o que falta, ou cópia completa
+            if (local) loadMarks();
+            syncFromPeer(recoveryFile);
             
-            // 3. Marcar como pronto
-            isReady = true;
+            // 3. Aplicar o que chegou durante a recuperação e marcar como pronto
+            finishRecovery();
             
             System.out.println("║ [Barrel" + barrelId + "] PRONTO!");
-            System.out.println("║ Total páginas: " + pages.size());
-            System.out.println("║ Total termos: " + index.size());
+            System.out.println("║ Total páginas: " + index.docCount());
+            System.out.println("║ Total termos: " + index.termCount());
             System.out.println("╚════════════════════════════════════════════");
             
-            // 4. Gravar estado
+            // 4. Checkpoint (o log da recuperação deixa de ser necessário)
             saveToDisk();
             
             // ═══════════════════════════════════════════════════════
             // ✨ NOVO: NOTIFICAR O GATEWAY QUE ESTAMOS PRONTOS
             // ═══════════════════════════════════════════════════════
-            if (gateway != null && pages.size() > 0) {
-                try {
-                    System.out.println("[Barrel" + barrelId + "] Notificando Gateway sobre dados carregados...");
-                    gateway.barrelNotifyUpdate();
-                } catch (RemoteException e) {
-                    System.err.println("[Barrel" + barrelId + "] Erro ao notificar Gateway: " + e.getMessage());
-                }
+            if (index.docCount() > 0) {
+                System.out.println("[Barrel" + barrelId + "] Notificando Gateway sobre dados carregados...");
+                notifier.changed();
             }
             
         }).start();
         
-        // Thread de Auto-Save
+        // Thread de Checkpoint: o log já garante a durabilidade, o checkpoint só limita o seu tamanho
         new Thread(() -> {
             while (true) {
                 try {
                     Thread.sleep(10000);
-                    if (isReady) saveToDisk();
+                    long logBytes = wal.size();
+                    boolean due = logBytes >= CHECKPOINT_LOG_BYTES
+                        || (logBytes > 0 && System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL_MS);
+                    if (isReady && due) saveToDisk();
+                } catch (InterruptedException e) { break; }
+            }
+        }).start();
+        
+        // Thread de Manutenção (flush do buffer, fusão e reordenação de segmentos, dicionário de sugestões)
+        new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(MAINTENANCE_INTERVAL_MS);
+                    if (isReady) {
+                        index.maintain();
+                        index.refreshSuggester();
+                    }
+                } catch (InterruptedException e) { break; }
+            }
+        }).start();
+        
+        // Thread de PageRank (grafo de links em CSR, iteração paralela)
+        new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(PAGERANK_INTERVAL_MS);
+                    if (isReady) index.updatePageRank();
+                } catch (InterruptedException e) { break; }
+            }
+        }).start();
+        
+        // Thread de Anti-entropia (corrige páginas que o multicast não entregou a este Barrel)
+        new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(ANTI_ENTROPY_INTERVAL_MS);
+                    if (isReady) antiEntropy();
                 } catch (InterruptedException e) { break; }
             }
         }).start();
@@ -157,154 +306,750 @@ public class SimpleBarrel extends UnicastRemoteObject implements BarrelInterface
     /**
      * Tenta sincronizar dados a partir de outro Barrel ativo na rede.
      * Procura outros serviços "barrelX" no RMI Registry.
+     * <p>
+     * Primeiro tenta uma recuperação incremental a partir de um par de que se conheça uma
+     * marca válida (mesmo histórico): só as páginas aplicadas depois dela são transferidas.
+     * Se nenhum servir, faz uma cópia completa, que substitui o estado local; se essa também
+     * falhar, o estado local (disco e log) é reposto.
      *
+     * @param recoveryFile Primeiro ficheiro de log desta execução (para repor o estado local).
      * @return true se a sincronização foi bem sucedida, false caso contrário.
      */
-    private boolean syncFromPeer() {
+    private boolean syncFromPeer(long recoveryFile) {
+        boolean replaced = false;
         try {
             Registry registry = LocateRegistry.getRegistry(1099);
-            String[] list = registry.list();
+            List<String> peers = replicaPeers(registry);
             
-            for (String name : list) {
-                if (name.startsWith("barrel") && !name.equals("barrel" + barrelId)) {
-                    try {
-                        System.out.println(" [Sync] Tentando copiar de " + name + "...");
-                        BarrelInterface peer = (BarrelInterface) registry.lookup(name);
-                        
-                        SyncData data = peer.getFullState();
-                        if (data != null) {
-                            this.pages.putAll(data.pages);
-                            this.index.putAll(data.index);
-                            this.backlinks.putAll(data.backlinks);
-                            
-                            System.out.println(" [Sync] SUCESSO! Sincronizado com " + name);
-                            return true;
-                        }
-                    } catch (Exception e) {
-                        System.err.println(" [Sync] Falha ao copiar de " + name + " (tentando próximo...)");
+            // 1. Recuperação incremental
+            for (String name : peers) {
+                long[] mark = peerMarks.get(name);
+                if (mark == null) continue;
+                try {
+                    BarrelInterface peer = (BarrelInterface) registry.lookup(name);
+                    if (peer.getSequence()[0] != mark[0]) {
+                        System.out.println(" [Sync] " + name + " reiniciou desde a última marca (recuperação incremental impossível)");
+                        continue;
+                    }
+                    System.out.println(" [Sync] A pedir a " + name + " as páginas depois de #" + mark[1] + "...");
+                    if (catchUp(peer, name, mark)) {
+                        System.out.println(" [Sync] SUCESSO! Atualizado a partir de " + name);
+                        return true;
                     }
+                } catch (Exception e) {
+                    System.err.println(" [Sync] Falha ao atualizar a partir de " + name + " (tentando próximo...)");
+                }
+            }
+            
+            // 2. Cópia completa
+            for (String name : peers) {
+                try {
+                    System.out.println(" [Sync] Tentando copiar de " + name + "...");
+                    BarrelInterface peer = (BarrelInterface) registry.lookup(name);
+                    peer.getSequence(); // falha se o par ainda estiver a recuperar (antes de descartar o estado local)
+                    replaced = true;
+                    if (transferState(peer, name)) {
+                        System.out.println(" [Sync] SUCESSO! Sincronizado com " + name);
+                        return true;
+                    }
+                } catch (Exception e) {
+                    System.err.println(" [Sync] Falha ao copiar de " + name + " (tentando próximo...)");
                 }
             }
         } catch (Exception e) { }
         System.out.println(" [Sync] Nenhum par disponível para sincronização.");
+        if (replaced) {
+            loadFromDisk();
+            replayLog(recoveryFile);
+        }
         return false;
     }
 
+    /**
+     * Procura no registo as outras réplicas do shard deste Barrel (as únicas com quem faz
+     * sentido sincronizar). Pares que não respondem ficam de fora.
+     *
+     * @return Nomes dos pares no registo.
+     */
+    private List<String> replicaPeers(Registry registry) throws RemoteException {
+        List<String> peers = new ArrayList<>();
+        for (String name : registry.list()) {
+            if (!name.startsWith("barrel") || name.equals("barrel" + barrelId)) continue;
+            try {
+                int[] other = ((BarrelInterface) registry.lookup(name)).getShard();
+                if (other[0] == shard && other[1] == shards && other[2] == partitionMode) peers.add(name);
+            } catch (Exception e) { /* par indisponível */ }
+        }
+        return peers;
+    }
+
+    /**
+     * Recuperação incremental: aplica as páginas que o par aplicou depois da marca, bloco a
+     * bloco. No fim, a marca passa a ser a posição do par na vista transferida.
+     *
+     * @param peer Barrel de onde copiar.
+     * @param name Nome do par no registo.
+     * @param mark Marca conhecida do par ({logId, sequência}).
+     * @return true se todas as páginas em falta foram aplicadas.
+     */
+    private boolean catchUp(BarrelInterface peer, String name, long[] mark) {
+        long start = System.nanoTime();
+        long transferId = 0;
+        int cursor = 0;
+        long bytes = 0, pages = 0;
+        try {
+            while (true) {
+                long id = transferId;
+                int position = cursor;
+                UpdateChunk chunk = withRetries(position,
+                    () -> peer.getUpdatesSince(mark[0], (int) mark[1], id, position, TRANSFER_CHUNK_BYTES));
+                for (PageInfo page : chunk.pages) index.add(page);
+                for (String url : chunk.removed) index.remove(url);
+                transferId = chunk.transferId;
+                cursor = chunk.next;
+                bytes += chunk.bytes;
+                pages += chunk.pages.size() + chunk.removed.size();
+                if (chunk.isLast()) {
+                    double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+                    System.out.println(String.format(Locale.US,
+                        " [Sync] %d páginas em falta (#%d a #%d), %.1f MB em %.2fs",
+                        pages, mark[1] + 1, chunk.sequence, bytes / 1048576.0, seconds));
+                    peerMarks.put(name, new long[] {mark[0], chunk.sequence});
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(" [Sync] Recuperação incremental interrompida: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Copia o estado de um par, bloco a bloco, aplicando cada bloco ao índice assim que chega.
+     * Um pedido que falhe é repetido com o mesmo cursor; se a transferência não puder
+     * continuar, o índice volta a ficar vazio (para tentar outro par ou o disco).
+     * O progresso e o débito são mostrados a cada 2 segundos.
+     *
+     * @param peer Barrel de onde copiar.
+     * @param name Nome do par no registo.
+     * @return true se o estado foi copiado por completo.
+     */
+    private boolean transferState(BarrelInterface peer, String name) {
+        SegmentedIndex.Loader loader = index.loader();
+        long start = System.nanoTime();
+        long lastReport = start;
+        long transferId = 0;
+        int cursor = 0;
+        long bytes = 0, pages = 0;
+        try {
+            while (true) {
+                long id = transferId;
+                int position = cursor;
+                StateChunk chunk = withRetries(position, () -> peer.getStateChunk(id, position, TRANSFER_CHUNK_BYTES));
+                loader.accept(chunk);
+                transferId = chunk.transferId;
+                cursor = chunk.next;
+                bytes += chunk.bytes;
+                pages += chunk.docIds.length;
+
+                long now = System.nanoTime();
+                if (chunk.isLast() || now - lastReport >= 2_000_000_000L) {
+                    double seconds = Math.max(1e-3, (now - start) / 1e9);
+                    System.out.println(String.format(Locale.US,
+                        " [Sync] %3.0f%% | %d páginas, %.1f MB em %.1fs (%.1f MB/s, %.0f páginas/s)",
+                        chunk.size == 0 ? 100.0 : 50.0 * cursor / chunk.size, pages, bytes / 1048576.0,
+                        seconds, bytes / 1048576.0 / seconds, pages / seconds));
+                    lastReport = now;
+                }
+                if (chunk.isLast()) {
+                    loader.finish();
+                    // O estado passa a ser o do par: as marcas dos outros pares já não se aplicam
+                    peerMarks.clear();
+                    peerMarks.put(name, new long[] {chunk.logId, chunk.sequence});
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println(" [Sync] Transferência interrompida: " + e.getMessage());
+            loader.abort();
+            return false;
+        }
+    }
+
+    /** Pedido remoto de um bloco (para {@link #withRetries}). */
+    private interface ChunkRequest<T> {
+        T call() throws RemoteException;
+    }
+
+    /** Pede um bloco a um par, repetindo o mesmo pedido até {@value #TRANSFER_RETRIES} vezes. */
+    private static <T> T withRetries(int cursor, ChunkRequest<T> request) throws RemoteException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return request.call();
+            } catch (RemoteException e) {
+                if (attempt >= TRANSFER_RETRIES) throw e;
+                System.err.println(" [Sync] Falha no bloco " + cursor + " (tentativa " + attempt + "): " + e.getMessage());
+                try {
+                    Thread.sleep(1000L * attempt);
+                } catch (InterruptedException i) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public StateChunk getStateChunk(long transferId, int cursor, int maxBytes) throws RemoteException {
+        Transfer transfer = openTransfer(transferId);
+        return index.chunk(transfer.snapshot, logId, transfer.id, cursor, chunkLimit(maxBytes));
+    }
+
+    /**
+     * Devolve a transferência pedida, ou começa uma nova (com uma vista consistente, lida por
+     * todos os blocos seguintes) se {@code transferId} for 0. Transferências paradas expiram.
+     */
+    private Transfer openTransfer(long transferId) throws RemoteException {
+        if (!isReady) throw new RemoteException("Barrel" + barrelId + " ainda está a recuperar");
+
+        long now = System.currentTimeMillis();
+        transfers.values().removeIf(t -> now - t.lastAccess >= TRANSFER_IDLE_MS);
+
+        Transfer transfer;
+        if (transferId == 0) {
+            SegmentedIndex.Snapshot snapshot = index.snapshot();
+            recordPause(snapshot.pauseNanos);
+            transfer = new Transfer(transferIds.incrementAndGet(), snapshot);
+            transfers.put(transfer.id, transfer);
+        } else {
+            transfer = transfers.get(transferId);
+            if (transfer == null) throw new RemoteException("Transferência " + transferId + " desconhecida ou expirada");
+        }
+        transfer.lastAccess = now;
+        return transfer;
+    }
+
     @Override
-    public SyncData getFullState() throws RemoteException {
-        // Retorna cópia dos dados atuais
-        return new SyncData(new HashMap<>(pages), new HashMap<>(index), new HashMap<>(backlinks));
+    public long[] getSequence() throws RemoteException {
+        if (!isReady) throw new RemoteException("Barrel" + barrelId + " ainda está a recuperar");
+        return new long[] {logId, index.sequence()};
+    }
+
+    @Override
+    public UpdateChunk getUpdatesSince(long logId, int since, long transferId, int cursor, int maxBytes) throws RemoteException {
+        if (logId != this.logId) throw new RemoteException("Histórico de sequências diferente (o Barrel" + barrelId + " reiniciou)");
+        Transfer transfer = openTransfer(transferId);
+        return index.updates(transfer.snapshot, transfer.id, since, cursor, chunkLimit(maxBytes));
+    }
+
+    private static int chunkLimit(int maxBytes) {
+        return Math.max(64 * 1024, Math.min(maxBytes, TRANSFER_MAX_CHUNK_BYTES));
+    }
+
+    /** Regista uma pausa imposta às escritas por um snapshot. */
+    private void recordPause(long nanos) {
+        snapshotPauses.incrementAndGet();
+        snapshotPauseNanos.addAndGet(nanos);
+        snapshotPauseMax.accumulateAndGet(nanos, Math::max);
     }
 
     /**
-     * Grava o estado atual dos mapas para um ficheiro local (.dat).
+     * Checkpoint: grava o estado completo num ficheiro local (.dat) e apaga o log que ele cobre.
+     * <p>
+     * Com as escritas bloqueadas, o log passa para um ficheiro novo; a partir desse momento
+     * todos os registos do ficheiro antigo estão aplicados ao índice. Tira-se então uma vista
+     * consistente do índice ({@link SegmentedIndex#snapshot()}), que é gravada já sem bloquear
+     * as escritas no formato binário de {@link SnapshotFile} (substitui o anterior numa única
+     * operação); só então os ficheiros de log antigos são apagados. A vista pode incluir
+     * páginas que também estão no log novo; reexecutá-las é inofensivo.
+     * As duas pausas (troca do log e vista) ficam registadas nas estatísticas.
+     * Antes de rodar o log são lidas as marcas atuais dos pares ({@link #refreshMarks()}),
+     * gravadas junto com o checkpoint.
      * Só executa se a flag isReady for verdadeira.
      */
     private synchronized void saveToDisk() {
         if (!isReady) return;
+        if (unreadableCheckpoint) {
+            if (new File(dataFileName).exists()) {
+                System.err.println(" [Disk] Checkpoint adiado: " + dataFileName + " não foi lido e não será substituído");
+                return;
+            }
+            unreadableCheckpoint = false; // o ficheiro foi retirado
+        }
 
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(dataFileName))) {
-            oos.writeObject(pages);
-            oos.writeObject(index);
-            oos.writeObject(backlinks);
+        long start = System.currentTimeMillis();
+        refreshMarks();
+        long rolled;
+        long pause;
+        checkpointLock.writeLock().lock();
+        long pauseStart = System.nanoTime();
+        try {
+            rolled = wal.roll();
         } catch (IOException e) {
-            System.err.println(" [Disk] Erro ao gravar: " + e.getMessage());
+            System.err.println(" [Disk] Erro ao rodar o log: " + e.getMessage());
+            return;
+        } finally {
+            pause = System.nanoTime() - pauseStart;
+            checkpointLock.writeLock().unlock();
+        }
+        SegmentedIndex.Snapshot snapshot = index.snapshot();
+        recordPause(pause + snapshot.pauseNanos);
+
+        try {
+            long bytes = index.save(snapshot, Paths.get(dataFileName));
+            saveMarks();
+            wal.deleteUpTo(rolled);
+            lastCheckpoint = System.currentTimeMillis();
+            System.out.println(" [Disk] Checkpoint gravado: " + bytes / 1024 + " KB em " + (lastCheckpoint - start) + "ms");
+        } catch (IOException e) {
+            System.err.println(" [Disk] Erro ao gravar checkpoint: " + e.getMessage());
         }
     }
     
     /**
-     * Carrega o estado a partir do ficheiro local (.dat).
+     * Atualiza as marcas dos pares com a posição atual de cada um. Tudo o que um par aplicou
+     * até essa posição também foi enviado a este Barrel (multicast) e fica coberto pelo
+     * checkpoint seguinte ou pelo log que sobrevive a ele. Pares indisponíveis mantêm a marca anterior.
      */
-    @SuppressWarnings("unchecked")
-    private void loadFromDisk() {
+    private void refreshMarks() {
+        try {
+            Registry registry = LocateRegistry.getRegistry(1099);
+            for (String name : replicaPeers(registry)) {
+                try {
+                    peerMarks.put(name, ((BarrelInterface) registry.lookup(name)).getSequence());
+                } catch (Exception e) { /* par indisponível ou a recuperar */ }
+            }
+        } catch (Exception e) { }
+    }
+
+    /** Grava as marcas dos pares (ficheiro .peers, substituído atomicamente). */
+    private void saveMarks() throws IOException {
+        Path temp = marksFile.resolveSibling(marksFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            out.writeInt(peerMarks.size());
+            for (Map.Entry<String, long[]> entry : peerMarks.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+        }
+        Files.move(temp, marksFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Lê as marcas dos pares gravadas com o último checkpoint (só valem se este foi carregado). */
+    private void loadMarks() {
+        if (!Files.exists(marksFile)) return;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(marksFile))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                peerMarks.put(name, new long[] {in.readLong(), in.readLong()});
+            }
+        } catch (IOException e) {
+            System.err.println(" [Sync] Erro ao ler as marcas dos pares: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Carrega o estado a partir do ficheiro local (.dat) e mostra o débito da leitura.
+     * Ficheiros antigos em serialização Java continuam a ser aceites: um {@link SyncData} ou
+     * os três mapas por URL da versão original ({@link #legacyState}); o checkpoint seguinte já
+     * é gravado no formato binário. Se o ficheiro não puder ser lido, fica intacto: nenhum
+     * checkpoint é gravado por cima dele enquanto existir ({@link #saveToDisk()}).
+     *
+     * @return true se o estado local foi carregado.
+     */
+    private boolean loadFromDisk() {
         File file = new File(dataFileName);
         if (!file.exists()) {
             System.out.println(" [Disk] Nenhum ficheiro local encontrado.");
-            return;
+            return false;
         }
         
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            Map<String, PageInfo> p = (Map<String, PageInfo>) ois.readObject();
-            Map<String, Set<String>> i = (Map<String, Set<String>>) ois.readObject();
-            Map<String, Set<String>> b = (Map<String, Set<String>>) ois.readObject();
-            
-            this.pages.putAll(p);
-            this.index.putAll(i);
-            this.backlinks.putAll(b);
-            
-            System.out.println(" [Disk] Dados carregados do disco com sucesso.");
+        long start = System.nanoTime();
+        try {
+            if (isJavaSerialized(file)) {
+                try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                    Object first = ois.readObject();
+                    index.load(first instanceof SyncData data ? data : legacyState(first, ois.readObject(), ois.readObject()));
+                }
+                System.out.println(" [Disk] Dados carregados do disco com sucesso (formato antigo).");
+                return true;
+            }
+            long[] stats = index.loadSnapshot(file.toPath());
+            double seconds = Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+            System.out.println(String.format(Locale.US,
+                " [Disk] Checkpoint carregado: %.1f MB, %d secções, %d entradas em %.2fs (%.1f MB/s, %.0f entradas/s)",
+                stats[0] / 1048576.0, stats[1], stats[2], seconds, stats[0] / 1048576.0 / seconds, stats[2] / seconds));
+            return true;
         } catch (Exception e) {
-            System.err.println(" [Disk] Erro ao ler ficheiro: " + e.getMessage());
+            System.err.println(" [Disk] Erro ao ler ficheiro: " + e.getMessage()
+                + " (não será substituído por checkpoints enquanto existir)");
+            unreadableCheckpoint = true;
+            return false;
+        }
+    }
+
+    /**
+     * Converte um ficheiro da versão original (páginas, índice e backlinks por URL, gravados
+     * como três objetos seguidos) para o estado por doc ID. O índice invertido não é lido: é
+     * reconstruído a partir das palavras de cada página.
+     *
+     * @param pages URL -> página.
+     * @param words Palavra -> URLs (ignorado).
+     * @param backlinks URL de destino -> URLs que apontam para ele.
+     * @return Estado equivalente.
+     */
+    @SuppressWarnings("unchecked")
+    private static SyncData legacyState(Object pages, Object words, Object backlinks) {
+        Map<String, PageInfo> byUrl = (Map<String, PageInfo>) pages;
+        Map<String, ? extends Collection<String>> links = (Map<String, ? extends Collection<String>>) backlinks;
+        List<String> urls = new ArrayList<>();
+        Map<String, Integer> ids = new HashMap<>();
+        Function<String, Integer> docId = url -> ids.computeIfAbsent(url, u -> {
+            urls.add(u);
+            return urls.size() - 1;
+        });
+        Map<Integer, PageInfo> docs = new HashMap<>();
+        byUrl.forEach((url, page) -> docs.put(docId.apply(url), page));
+        Map<Integer, int[]> sources = new HashMap<>();
+        links.forEach((target, from) -> sources.put(docId.apply(target),
+            from.stream().mapToInt(docId::apply).sorted().toArray()));
+        return new SyncData(urls, docs, new HashMap<>(), sources);
+    }
+
+    /** @return true se o ficheiro começa pelo cabeçalho da serialização Java (0xACED). */
+    private static boolean isJavaSerialized(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            return in.read() == 0xAC && in.read() == 0xED;
+        }
+    }
+
+    /**
+     * Reexecuta os ficheiros de log anteriores a esta execução (páginas recebidas depois do
+     * último checkpoint).
+     *
+     * @param before Primeiro ficheiro de log desta execução (não incluído).
+     */
+    private void replayLog(long before) {
+        try {
+            int replayed = 0;
+            for (Path file : wal.files()) {
+                if (WriteAheadLog.numberOf(file) >= before) continue;
+                replayed += WriteAheadLog.replay(file, index::add, index::remove);
+            }
+            if (replayed > 0) System.out.println(" [WAL] " + replayed + " páginas reexecutadas do log.");
+        } catch (IOException e) {
+            System.err.println(" [WAL] Erro ao ler o log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Aplica as páginas que chegaram durante a recuperação (registadas no log mas ainda não
+     * indexadas) e marca o Barrel como pronto, com as escritas bloqueadas para manter a ordem.
+     */
+    private void finishRecovery() {
+        checkpointLock.writeLock().lock();
+        try {
+            long rolled = wal.roll();
+            for (Path file : wal.files()) {
+                if (WriteAheadLog.numberOf(file) == rolled) WriteAheadLog.replay(file, index::add, index::remove);
+            }
+        } catch (IOException e) {
+            System.err.println(" [WAL] Erro ao aplicar o log da recuperação: " + e.getMessage());
+        } finally {
+            isReady = true;
+            checkpointLock.writeLock().unlock();
         }
     }
 
     @Override
     public void addDocument(PageInfo page) throws RemoteException {
-        pages.put(page.getUrl(), page);
-        
-        for (String word : page.getWords()) {
-            index.computeIfAbsent(word, k -> ConcurrentHashMap.newKeySet()).add(page.getUrl());
+        if (accept(page) == null) throw new RemoteException("Página de outro shard: " + page.getUrl());
+        addDocuments(List.of(page));
+    }
+
+    @Override
+    public void addDocuments(List<PageInfo> pages) throws RemoteException {
+        // Uma página de outro shard (ex: emissor com a configuração antiga) não estraga o lote
+        List<PageInfo> accepted = new ArrayList<>(pages.size());
+        for (PageInfo page : pages) {
+            PageInfo own = accept(page);
+            if (own != null) accepted.add(own);
+            else System.err.println(" [Barrel" + barrelId + "] Página de outro shard ignorada: " + page.getUrl());
         }
-        for (String link : page.getLinks()) {
-            backlinks.computeIfAbsent(link, k -> ConcurrentHashMap.newKeySet()).add(page.getUrl());
+        if (accepted.isEmpty()) return;
+        int before = index.docCount();
+        try {
+            applyPages(accepted);
+        } catch (IOException e) {
+            throw new RemoteException("Erro ao registar a página no log", e);
         }
         
-        if (pages.size() % 10 == 0) { 
-            System.out.println(" [Barrel" + barrelId + "] Total: " + pages.size());
+        if (index.docCount() / 10 != before / 10) { 
+            System.out.println(" [Barrel" + barrelId + "] Total: " + index.docCount());
         }
 
-        int changes = pendingChanges.incrementAndGet();
-    
-        // Se atingir o limite, avisa o Gateway
-        if (changes >= NOTIFICATION_THRESHOLD) {
-            pendingChanges.set(0);
-            new Thread(() -> {
-                try {
-                    // Tens de ter referência para o gateway aqui
-                    if (gateway != null) gateway.barrelNotifyUpdate();
-                } catch (RemoteException e) {
-                    // Tratar erro de conexão
+        // Avisa o Gateway (agrupado com as outras alterações recentes)
+        notifier.changed();
+    }
+
+    @Override
+    public void removeDocument(String url) throws RemoteException {
+        if (partitionMode == Shards.DOCUMENTS && Shards.of(url, shards) != shard) {
+            throw new RemoteException("Página de outro shard: " + url);
+        }
+        try {
+            if (applyRemoval(url)) notifier.changed();
+        } catch (IOException e) {
+            throw new RemoteException("Erro ao registar a remoção no log", e);
+        }
+    }
+
+    /**
+     * Regista e aplica a remoção de uma página: primeiro o log, depois o índice (durante a
+     * recuperação só o log).
+     *
+     * @return true se a página foi retirada do índice.
+     */
+    private boolean applyRemoval(String url) throws IOException {
+        checkpointLock.readLock().lock();
+        try {
+            wal.appendRemoval(url);
+            return isReady && index.remove(url);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Confirma que uma página pertence a este shard e devolve a versão a guardar.
+     *
+     * @return A página (só com os termos deste shard na partição por termos), ou null se for
+     *         de outro shard (partição por documentos).
+     */
+    private PageInfo accept(PageInfo page) {
+        if (partitionMode == Shards.TERMS) return ownTerms(page);
+        return Shards.of(page.getUrl(), shards) == shard ? page : null;
+    }
+
+    /**
+     * Partição por termos: guarda a página completa (título, excerto, links e, por isso,
+     * backlinks globais) mas só com as palavras de que este shard é dono.
+     */
+    private PageInfo ownTerms(PageInfo page) {
+        if (shards == 1) return page;
+        Map<String, Integer> owned = new HashMap<>();
+        for (String word : page.getWords()) {
+            if (Shards.ofTerm(word, shards) == shard) owned.put(word, page.getFrequency(word));
+        }
+        // O comprimento é o da página inteira (normalização do BM25 igual em todos os shards)
+        return new PageInfo(page.getUrl(), page.getTitle(), page.getCitation(), owned, page.getLength(), page.getLinks());
+    }
+
+    /**
+     * Regista e indexa páginas: primeiro o log (com fsync partilhado, um por lote), depois o
+     * índice; durante a recuperação só o log.
+     */
+    private void applyPages(List<PageInfo> pages) throws IOException {
+        checkpointLock.readLock().lock();
+        try {
+            wal.appendAll(pages);
+            if (isReady) {
+                for (PageInfo page : pages) index.add(page);
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ronda de anti-entropia com o próximo par: compara as árvores de Merkle descendo apenas
+     * pelos nós diferentes, compara o conteúdo dos baldes diferentes e copia as páginas que
+     * existem no par e faltam aqui (o par faz o mesmo na sua ronda). Páginas que o par marca
+     * como removidas ({@link MerkleTree#TOMBSTONE}) são apagadas aqui; uma página removida
+     * aqui nunca é copiada do par. Outras versões divergentes da mesma página não têm ordem
+     * conhecida e são apenas contadas.
+     */
+    private void antiEntropy() {
+        String name = null;
+        try {
+            Registry registry = LocateRegistry.getRegistry(1099);
+            List<String> peers = replicaPeers(registry);
+            if (peers.isEmpty()) return;
+            name = peers.get(antiEntropyTurn++ % peers.size());
+            BarrelInterface peer = (BarrelInterface) registry.lookup(name);
+
+            // 1. Descer pela árvore só nos nós com hashes diferentes
+            int[] nodes = {0};
+            int compared = 0;
+            for (int depth = 0; ; depth++) {
+                long[] remote = peer.getMerkleHashes(depth, nodes);
+                long[] local = index.merkleHashes(depth, nodes);
+                compared += nodes.length;
+                List<Integer> differing = new ArrayList<>();
+                for (int i = 0; i < nodes.length; i++) {
+                    if (remote[i] != local[i]) differing.add(nodes[i]);
                 }
-            }).start();
+                if (differing.isEmpty()) return; // réplicas iguais
+                if (depth == MerkleTree.DEPTH) {
+                    nodes = differing.stream().mapToInt(Integer::intValue).toArray();
+                    break;
+                }
+                nodes = new int[differing.size() * MerkleTree.FANOUT];
+                for (int i = 0; i < differing.size(); i++) {
+                    for (int c = 0; c < MerkleTree.FANOUT; c++) nodes[i * MerkleTree.FANOUT + c] = differing.get(i) * MerkleTree.FANOUT + c;
+                }
+            }
+
+            // 2. Comparar o conteúdo dos baldes diferentes
+            Map<String, Integer> remote = peer.getBucketDigest(nodes);
+            Map<String, Integer> local = index.bucketDigest(nodes);
+            List<String> missing = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            int divergent = 0;
+            for (Map.Entry<String, Integer> entry : remote.entrySet()) {
+                Integer mine = local.get(entry.getKey());
+                boolean remoteRemoved = entry.getValue() == MerkleTree.TOMBSTONE;
+                if (mine == null) {
+                    if (!remoteRemoved) missing.add(entry.getKey());
+                } else if (mine.equals(entry.getValue()) || mine == MerkleTree.TOMBSTONE) {
+                    continue; // iguais, ou removida aqui (o par apaga-a na sua ronda)
+                } else if (remoteRemoved) {
+                    removed.add(entry.getKey());
+                } else {
+                    divergent++;
+                }
+            }
+            int deleted = 0;
+            for (String url : removed) {
+                if (applyRemoval(url)) deleted++;
+            }
+
+            // 3. Copiar só as páginas em falta
+            int copied = 0;
+            for (int from = 0; from < missing.size(); from += ANTI_ENTROPY_BATCH) {
+                List<PageInfo> pages = peer.getPages(new ArrayList<>(missing.subList(from, Math.min(missing.size(), from + ANTI_ENTROPY_BATCH))));
+                applyPages(pages);
+                copied += pages.size();
+            }
+            System.out.println(" [Anti-entropia] " + name + ": " + nodes.length + " baldes diferentes (" + compared
+                + " nós comparados), " + copied + " páginas copiadas, " + deleted + " removidas, " + divergent + " versões divergentes");
+            if (copied > 0 || deleted > 0) notifier.changed();
+        } catch (Exception e) {
+            if (name != null) System.err.println(" [Anti-entropia] Falha com " + name + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public long[] getMerkleHashes(int depth, int[] nodes) throws RemoteException {
+        try {
+            return index.merkleHashes(depth, nodes);
+        } catch (RuntimeException e) {
+            throw new RemoteException("Pedido inválido: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Map<String, Integer> getBucketDigest(int[] buckets) throws RemoteException {
+        return index.bucketDigest(buckets);
+    }
+
+    @Override
+    public List<PageInfo> getPages(List<String> urls) throws RemoteException {
+        List<PageInfo> pages = new ArrayList<>();
+        for (String url : urls) {
+            PageInfo page = index.page(url);
+            if (page != null) pages.add(page);
         }
+        return pages;
     }
 
     @Override
     public List<SearchResult> search(List<String> terms, int page) throws RemoteException {
-        if (terms.isEmpty()) return new ArrayList<>();
-        Set<String> resultUrls = null;
+        return searchTopK(terms, page * 10, 10);
+    }
+
+    @Override
+    public List<SearchResult> searchTopK(List<String> terms, int offset, int limit) throws RemoteException {
+        if (terms.isEmpty() || offset < 0 || limit <= 0) return new ArrayList<>();
         
-        for (String term : terms) {
-            Set<String> urls = index.getOrDefault(term.toLowerCase(), Collections.emptySet());
-            if (resultUrls == null) resultUrls = new HashSet<>(urls);
-            else resultUrls.retainAll(urls);
-            if (resultUrls.isEmpty()) break;
+        // Só são precisos os offset+limit melhores: heap limitado em vez de ordenar tudo
+        return results(index.search(terms, offset + limit), offset);
+    }
+
+    @Override
+    public Map<String, Map<String, Integer>> expandTerms(List<String> terms) throws RemoteException {
+        return index.expansions(terms);
+    }
+
+    @Override
+    public List<SearchResult> searchFuzzy(List<String> terms, Map<String, Map<String, Integer>> expansions, int offset, int limit) throws RemoteException {
+        if (terms.isEmpty() || offset < 0 || limit <= 0) return new ArrayList<>();
+        return results(index.fuzzy(terms, expansions, offset + limit), offset);
+    }
+
+    @Override
+    public int estimateMatches(List<String> terms) throws RemoteException {
+        return index.estimate(terms);
+    }
+
+    @Override
+    public MatchChunk matchChunk(List<String> terms, int cursor, int limit) throws RemoteException {
+        if (cursor < 0 || limit <= 0) return new MatchChunk(new HashMap<>(), -1);
+        // Um documento a mais diz onde começa o bloco seguinte
+        int[] found = index.matching(terms, cursor, limit + 1);
+        int[] docIds = Arrays.copyOf(found, Math.min(found.length, limit));
+        double[] scores = index.textScores(terms, docIds);
+        Map<String, Double> res = new HashMap<>();
+        for (int i = 0; i < docIds.length; i++) res.put(index.url(docIds[i]), scores[i]);
+        return new MatchChunk(res, found.length > limit ? found[limit] : -1);
+    }
+
+    @Override
+    public Map<String, Double> matchUrls(List<String> terms, Map<String, Double> candidates) throws RemoteException {
+        int[] docIds = index.filter(terms, candidates.keySet());
+        double[] scores = index.textScores(terms, docIds);
+        Map<String, Double> res = new HashMap<>();
+        for (int i = 0; i < docIds.length; i++) {
+            String url = index.url(docIds[i]);
+            res.put(url, scores[i] + candidates.getOrDefault(url, 0.0));
         }
-        
-        if (resultUrls == null) return new ArrayList<>();
-        
-        List<String> sorted = resultUrls.stream()
-            .sorted((u1, u2) -> Integer.compare(
-                backlinks.getOrDefault(u2, Collections.emptySet()).size(), 
-                backlinks.getOrDefault(u1, Collections.emptySet()).size()))
-            .collect(Collectors.toList());
-            
-        int start = page * 10;
-        int end = Math.min(start + 10, sorted.size());
-        if (start >= sorted.size()) return new ArrayList<>();
-        
+        return res;
+    }
+
+    @Override
+    public List<SearchResult> searchWithin(List<String> terms, Map<String, Double> candidates, int offset, int limit) throws RemoteException {
+        if (offset < 0 || limit <= 0) return new ArrayList<>();
+        int[] docIds = index.filter(terms, candidates.keySet());
+        double[] partial = new double[docIds.length];
+        for (int i = 0; i < docIds.length; i++) partial[i] = candidates.getOrDefault(index.url(docIds[i]), 0.0);
+        return results(index.rank(terms, docIds, partial, offset + limit), offset);
+    }
+
+    /** Converte os melhores documentos (a partir de {@code offset}) em resultados de pesquisa. */
+    private List<SearchResult> results(TopKCollector topK, int offset) {
+        int[] best = topK.sortedDocIds();
+        int[] scores = topK.sortedScores();
         List<SearchResult> res = new ArrayList<>();
-        for (String u : sorted.subList(start, end)) {
-            PageInfo p = pages.get(u);
-            if (p != null) res.add(new SearchResult(u, p.getTitle(), p.getCitation(), 
-                backlinks.getOrDefault(u, Collections.emptySet()).size()));
+        for (int i = offset; i < best.length; i++) {
+            int docId = best[i];
+            StoredDocument d = index.document(docId);
+            if (d != null) res.add(new SearchResult(index.url(docId), d.title, d.citation,
+                index.backlinkCount(docId), (double) scores[i] / Bm25.SCALE));
         }
         return res;
     }
 
+    @Override
+    public Map<String, Integer> suggest(String prefix, int k) throws RemoteException {
+        if (prefix == null || prefix.isBlank() || k <= 0) return new HashMap<>();
+        return index.suggest(prefix.trim().toLowerCase(), Math.min(k, MAX_SUGGESTIONS));
+    }
+
     @Override
     public List<String> getBacklinks(String url) throws RemoteException {
-        return new ArrayList<>(backlinks.getOrDefault(url, Collections.emptySet()));
+        return index.backlinks(url);
     }
 
     @Override
@@ -325,8 +1070,18 @@ public class SimpleBarrel extends UnicastRemoteObject implements BarrelInterface
             return String.format("[Barrel%d] P:0 | T:0 | B:0 (⚠ Timeout)", barrelId);
         }
         
-        return String.format("[Barrel%d] P:%d | T:%d | B:%d", 
-            barrelId, pages.size(), index.size(), backlinks.size());
+        long pauses = snapshotPauses.get();
+        long[] log = wal.counters(); // {registos, fsyncs}
+        return String.format(Locale.US, "[Barrel%d] P:%d | T:%d | B:%d | %s | Pausa snapshot: méd %.0f µs, máx %.0f µs (%d) | Log: %d registos, %d fsyncs (grupo méd %.1f) | %s | %s | %s", 
+            barrelId, index.docCount(), index.termCount(), index.linkedDocCount(), index.report(),
+            pauses == 0 ? 0.0 : snapshotPauseNanos.get() / 1000.0 / pauses, snapshotPauseMax.get() / 1000.0, pauses,
+            log[0], log[1], log[1] == 0 ? 0.0 : (double) log[0] / log[1],
+            index.cacheReport(), index.pageRankReport(), index.fuzzyReport());
+    }
+
+    @Override
+    public int[] getShard() throws RemoteException {
+        return new int[] {shard, shards, partitionMode};
     }
 
     @Override
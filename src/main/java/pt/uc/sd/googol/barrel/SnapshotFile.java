@@ -0,0 +1,208 @@
+/**
+ * Formato binário dos checkpoints do Barrel (ficheiros .dat), versionado e com checksums.
+ * <p>
+ * O ficheiro é uma sequência de secções com tamanho prefixado, cada uma com o seu CRC32:
+ * <pre>
+ * [magic][versão]
+ * [tipo][tamanho][crc32][conteúdo] ... (uma entrada por secção)
+ * [magic][número de secções]
+ * </pre>
+ * O significado de cada tipo de secção é definido por quem escreve ({@link SegmentedIndex}).
+ * Os dados grandes são divididos em várias secções de ~{@value #SECTION_BYTES} bytes, o que
+ * permite descodificá-las em paralelo na leitura ({@link #read(Path, SectionDecoder)}).
+ * <p>
+ * A escrita é feita num ficheiro temporário, com fsync, que substitui o anterior num único
+ * {@code rename} atómico: um checkpoint interrompido nunca estraga o último checkpoint válido.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x47534E50; // "GSNP"
+    private static final int VERSION = 1;
+    private static final int SECTION_HEADER = 12;
+    private static final int FOOTER = 8;
+
+    /** Tamanho a partir do qual uma secção é fechada e começa outra do mesmo tipo. */
+    static final int SECTION_BYTES = 4 * 1024 * 1024;
+
+    private SnapshotFile() { }
+
+    /** Descodifica o conteúdo de uma secção. Pode ser chamado por várias threads em simultâneo. */
+    interface SectionDecoder {
+        void decode(int type, ByteBuffer payload) throws IOException;
+    }
+
+    /** Estatísticas de uma leitura: bytes lidos e número de secções. */
+    static final class Stats {
+        final long bytes;
+        final int sections;
+
+        Stats(long bytes, int sections) {
+            this.bytes = bytes;
+            this.sections = sections;
+        }
+    }
+
+    /**
+     * Escritor de um checkpoint. Uso: {@link #begin(int)} para cada secção (escrevendo no
+     * stream devolvido), {@link #full()} para saber quando dividir, e {@link #commit()} no fim.
+     * Se {@code commit} não for chamado, {@link #close()} apaga o ficheiro temporário.
+     */
+    static final class Writer implements Closeable {
+        private final Path target;
+        private final Path temp;
+        private final FileChannel channel;
+        private final ByteArrayOutputStream section = new ByteArrayOutputStream(SECTION_BYTES + 64 * 1024);
+        private final DataOutputStream sectionOut = new DataOutputStream(section);
+        private int sectionType = -1;
+        private int sections = 0;
+        private long bytes = 0;
+        private boolean committed = false;
+
+        /**
+         * @param target Ficheiro final (só é substituído em {@link #commit()}).
+         * @throws IOException Se o ficheiro temporário não puder ser criado.
+         */
+        Writer(Path target) throws IOException {
+            this.target = target;
+            this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            write(ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).flip());
+        }
+
+        /**
+         * Fecha a secção atual (se houver) e começa outra.
+         *
+         * @param type Tipo da secção.
+         * @return Stream onde escrever o conteúdo.
+         */
+        DataOutputStream begin(int type) throws IOException {
+            end();
+            sectionType = type;
+            return sectionOut;
+        }
+
+        /** @return true se a secção atual já atingiu o tamanho alvo. */
+        boolean full() {
+            return section.size() >= SECTION_BYTES;
+        }
+
+        private void end() throws IOException {
+            if (sectionType < 0) return;
+            sectionOut.flush();
+            byte[] payload = section.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            write(ByteBuffer.allocate(SECTION_HEADER).putInt(sectionType).putInt(payload.length)
+                .putInt((int) crc.getValue()).flip());
+            write(ByteBuffer.wrap(payload));
+            section.reset();
+            sectionType = -1;
+            sections++;
+        }
+
+        /**
+         * Termina o ficheiro, faz fsync e substitui atomicamente o checkpoint anterior.
+         *
+         * @return Tamanho do ficheiro escrito.
+         */
+        long commit() throws IOException {
+            end();
+            write(ByteBuffer.allocate(FOOTER).putInt(MAGIC).putInt(sections).flip());
+            channel.force(true);
+            channel.close();
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            return bytes;
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            bytes += buffer.remaining();
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) return;
+            channel.close();
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Lê um checkpoint: valida o cabeçalho, o rodapé e o CRC de cada secção, e entrega as
+     * secções ao descodificador em paralelo (uma tarefa por secção, em todos os cores).
+     *
+     * @param file Ficheiro a ler.
+     * @param decoder Descodificador (thread-safe).
+     * @return Estatísticas da leitura.
+     * @throws IOException Se o ficheiro não for um checkpoint válido ou uma secção estiver corrompida.
+     */
+    static Stats read(Path file, SectionDecoder decoder) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = readAt(channel, 0, 8);
+            if (size < 8 + FOOTER || header.getInt() != MAGIC) throw new IOException("Não é um checkpoint binário");
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("Versão de checkpoint não suportada: " + version);
+
+            // 1. Percorrer os cabeçalhos das secções (leitura sequencial, só 12 bytes cada)
+            List<long[]> sections = new ArrayList<>();
+            long pos = 8;
+            while (pos < size - FOOTER) {
+                ByteBuffer h = readAt(channel, pos, SECTION_HEADER);
+                int type = h.getInt(), length = h.getInt(), crc = h.getInt();
+                sections.add(new long[] {type, pos + SECTION_HEADER, length, crc});
+                pos += SECTION_HEADER + (long) length;
+            }
+            ByteBuffer footer = readAt(channel, size - FOOTER, FOOTER);
+            if (pos != size - FOOTER || footer.getInt() != MAGIC || footer.getInt() != sections.size()) {
+                throw new IOException("Checkpoint incompleto ou corrompido");
+            }
+
+            // 2. Descodificar as secções em paralelo (leituras posicionais são thread-safe)
+            try {
+                sections.parallelStream().forEach(s -> {
+                    try {
+                        ByteBuffer payload = readAt(channel, s[1], (int) s[2]);
+                        CRC32 crc = new CRC32();
+                        crc.update(payload.duplicate());
+                        if ((int) crc.getValue() != (int) s[3]) throw new IOException("Secção com CRC inválido");
+                        decoder.decode((int) s[0], payload);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return new Stats(size, sections.size());
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Fim de ficheiro inesperado");
+        }
+        return buffer.flip();
+    }
+}
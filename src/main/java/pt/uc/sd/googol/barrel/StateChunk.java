@@ -0,0 +1,81 @@
+/**
+ * Bloco da transferência de estado entre Barrels ({@link BarrelInterface#getStateChunk(long, int, int)}).
+ * <p>
+ * O estado de um par é percorrido como uma sequência de posições, a partir de uma vista
+ * consistente tirada no início da transferência:
+ * <ul>
+ * <li>posições {@code [0, size)}: URL e número de backlinks de cada doc ID (o dicionário
+ * chega completo antes das páginas, que referem os links por URL);</li>
+ * <li>posições {@code [size, 2*size)}: página visível de cada doc ID (se existir).</li>
+ * </ul>
+ * Cada bloco tem um tamanho limitado e indica a posição seguinte ({@link #next}), que é o
+ * cursor a enviar no pedido seguinte. Repetir um pedido com o mesmo cursor devolve o mesmo
+ * bloco, por isso uma transferência pode ser retomada depois de uma falha de rede.
+ *
+ * @author Elemento 1: André Ramos 2023227306
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.io.Serializable;
+import java.util.List;
+
+import pt.uc.sd.googol.common.PageInfo;
+
+public class StateChunk implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Identificador da transferência (a usar nos pedidos seguintes). */
+    public final long transferId;
+
+    /** Identificador do histórico de sequências do par (ver {@link BarrelInterface#getSequence()}). */
+    public final long logId;
+
+    /** Número de sequência do par na vista transferida (marca a partir da qual se pedem atualizações). */
+    public final int sequence;
+
+    /** Número de documentos (doc IDs) da vista; o total de posições é {@code 2 * size}. */
+    public final int size;
+
+    /** Posição seguinte (cursor do próximo pedido); a transferência termina quando vale {@code 2 * size}. */
+    public final int next;
+
+    /** Doc ID do primeiro URL deste bloco. */
+    public final int firstUrl;
+
+    /** URLs dos doc IDs {@code firstUrl, firstUrl + 1, ...}. */
+    public final List<String> urls;
+
+    /** Número de backlinks de cada um desses doc IDs. */
+    public final int[] counts;
+
+    /** Doc IDs das páginas deste bloco. */
+    public final int[] docIds;
+
+    /** Páginas, pela mesma ordem de {@link #docIds}. */
+    public final List<PageInfo> pages;
+
+    /** Tamanho aproximado do conteúdo do bloco (para medir o débito). */
+    public final int bytes;
+
+    public StateChunk(long transferId, long logId, int sequence, int size, int next, int firstUrl, List<String> urls,
+                      int[] counts, int[] docIds, List<PageInfo> pages, int bytes) {
+        this.transferId = transferId;
+        this.logId = logId;
+        this.sequence = sequence;
+        this.size = size;
+        this.next = next;
+        this.firstUrl = firstUrl;
+        this.urls = urls;
+        this.counts = counts;
+        this.docIds = docIds;
+        this.pages = pages;
+        this.bytes = bytes;
+    }
+
+    /** @return true se este é o último bloco da transferência. */
+    public boolean isLast() {
+        return next >= 2 * size;
+    }
+}
@@ -0,0 +1,318 @@
+/**
+ * Documento guardado pelo Barrel: a forma compacta de uma {@link PageInfo} depois de indexada.
+ * <p>
+ * Só o título e a citação (mostrados nos resultados) ficam como Strings. O URL é o doc ID
+ * ({@link DocIdDictionary}) e as palavras e os links ficam num único array de bytes (índice
+ * direto): palavras por ordem dos bytes UTF-8, codificadas por prefixos (cada uma guarda o
+ * comprimento do prefixo comum com a anterior, o resto e a frequência na página), e links
+ * como doc IDs, pela ordem da página, em diferenças Variable-Byte com sinal (zigzag). Assim o vocabulário de uma página
+ * não é guardado como um conjunto de Strings ao lado do índice invertido.
+ * <p>
+ * A página original pode ser reconstruída ({@link #toPage}) para transferências e
+ * checkpoints: as palavras (com as frequências e o comprimento do texto) são as mesmas e os
+ * links mantêm a ordem e as repetições, por isso o hash do conteúdo
+ * ({@link MerkleTree#contentHash}) não muda.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import pt.uc.sd.googol.common.PageInfo;
+
+final class StoredDocument {
+
+    final int docId;
+    final String title;
+    final String citation;
+    /** Hash do conteúdo da página ({@link MerkleTree#contentHash}), para a anti-entropia. */
+    final int contentHash;
+    /** Comprimento do texto (palavras com repetições), para a normalização do BM25. */
+    final int length;
+    private final byte[] forward;
+
+    private StoredDocument(int docId, String title, String citation, int contentHash, int length, byte[] forward) {
+        this.docId = docId;
+        this.title = title;
+        this.citation = citation;
+        this.contentHash = contentHash;
+        this.length = length;
+        this.forward = forward;
+    }
+
+    /**
+     * Converte uma página no documento guardado.
+     *
+     * @param docId Doc ID da página.
+     * @param page Página recebida.
+     * @param links Doc IDs dos links da página, pela mesma ordem (com repetições).
+     * @return O documento compacto.
+     */
+    static StoredDocument of(int docId, PageInfo page, int[] links) {
+        String[] strings = page.getWords().toArray(new String[0]);
+        byte[][] words = new byte[strings.length][];
+        Integer[] order = new Integer[strings.length];
+        int total = 0;
+        for (int i = 0; i < strings.length; i++) {
+            words[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+            total += words[i].length;
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(words[a], words[b]));
+
+        byte[] out = new byte[10 + total + 13 * words.length + 5 * links.length];
+        int p = writeVarint(out, 0, words.length);
+        byte[] previous = new byte[0];
+        for (int i : order) {
+            byte[] word = words[i];
+            int common = Arrays.mismatch(previous, word);
+            if (common < 0) common = word.length; // impossível num conjunto, mas inofensivo
+            p = writeVarint(out, p, common);
+            p = writeVarint(out, p, word.length - common);
+            System.arraycopy(word, common, out, p, word.length - common);
+            p += word.length - common;
+            p = writeVarint(out, p, Math.max(1, page.getFrequency(strings[i])));
+            previous = word;
+        }
+        p = writeVarint(out, p, links.length);
+        int last = 0;
+        for (int link : links) {
+            int delta = link - last;
+            p = writeVarint(out, p, (delta << 1) ^ (delta >> 31));
+            last = link;
+        }
+        return new StoredDocument(docId, page.getTitle(), page.getCitation(),
+            MerkleTree.contentHash(page), page.getLength(), Arrays.copyOf(out, p));
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Índice direto
+    // ═══════════════════════════════════════════════════════
+
+    /** @return As palavras da página. */
+    Set<String> words() {
+        WordCursor cursor = new WordCursor();
+        Set<String> words = new HashSet<>(cursor.remaining * 2);
+        while (cursor.next()) words.add(new String(cursor.word, 0, cursor.length, StandardCharsets.UTF_8));
+        return words;
+    }
+
+    /** @return As palavras da página e a frequência de cada uma. */
+    Map<String, Integer> frequencies() {
+        WordCursor cursor = new WordCursor();
+        Map<String, Integer> frequencies = new HashMap<>(cursor.remaining * 2);
+        while (cursor.next()) {
+            frequencies.put(new String(cursor.word, 0, cursor.length, StandardCharsets.UTF_8), cursor.frequency);
+        }
+        return frequencies;
+    }
+
+    /**
+     * Frequência de cada termo na página, percorrendo as palavras (ordenadas) em paralelo com
+     * os termos, sem criar Strings.
+     *
+     * @param terms Termos normalizados.
+     * @return Frequência de cada termo, pela ordem de {@code terms} (0 se não estiver na página).
+     */
+    int[] frequencies(List<String> terms) {
+        byte[][] keys = new byte[terms.size()][];
+        Integer[] order = new Integer[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            keys[k] = terms.get(k).getBytes(StandardCharsets.UTF_8);
+            order[k] = k;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+
+        int[] frequencies = new int[keys.length];
+        WordCursor cursor = new WordCursor();
+        int next = 0;
+        while (next < keys.length && cursor.next()) {
+            int cmp;
+            // Avançar os termos até à palavra atual: um termo menor do que ela não está na página
+            while (next < keys.length && (cmp = Arrays.compareUnsigned(keys[order[next]], 0, keys[order[next]].length,
+                    cursor.word, 0, cursor.length)) <= 0) {
+                if (cmp == 0) frequencies[order[next]] = cursor.frequency;
+                next++;
+            }
+        }
+        return frequencies;
+    }
+
+    /**
+     * Confirma que a página contém todos os termos.
+     *
+     * @param terms Termos normalizados.
+     * @return true se todos os termos estão na página.
+     */
+    boolean containsAll(List<String> terms) {
+        for (int frequency : frequencies(terms)) {
+            if (frequency == 0) return false;
+        }
+        return true;
+    }
+
+    /** @return Doc IDs dos links, pela ordem da página (com repetições). */
+    int[] links() {
+        WordCursor cursor = new WordCursor();
+        while (cursor.next()) { }
+        int[] pos = {cursor.pos};
+        int[] links = new int[readVarint(forward, pos)];
+        int last = 0;
+        for (int i = 0; i < links.length; i++) {
+            int zigzag = readVarint(forward, pos);
+            last += (zigzag >>> 1) ^ -(zigzag & 1);
+            links[i] = last;
+        }
+        return links;
+    }
+
+    /** @return Doc IDs distintos dos links, por ordem crescente. */
+    int[] distinctLinks() {
+        int[] links = links();
+        Arrays.sort(links);
+        int n = 0;
+        for (int i = 0; i < links.length; i++) {
+            if (i == 0 || links[i] != links[i - 1]) links[n++] = links[i];
+        }
+        return Arrays.copyOf(links, n);
+    }
+
+    /** @return true se a página aponta para o documento indicado. */
+    boolean linksTo(int target) {
+        for (int link : links()) {
+            if (link == target) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reconstrói a página original (para transferências de estado, checkpoints e anti-entropia).
+     *
+     * @param dictionary Dicionário para converter o doc ID e os links em URLs.
+     * @return A página.
+     */
+    PageInfo toPage(DocIdDictionary dictionary) {
+        int[] links = links();
+        List<String> urls = new ArrayList<>(links.length);
+        for (int link : links) urls.add(dictionary.url(link));
+        return new PageInfo(dictionary.url(docId), title, citation, frequencies(), length, urls);
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Formato no armazém dos segmentos
+    // ═══════════════════════════════════════════════════════
+
+    /** Escreve o documento (sem o doc ID, que está na tabela de documentos do segmento). */
+    void write(DataOutput out) throws IOException {
+        writeString(out, title);
+        writeString(out, citation);
+        out.writeInt(contentHash);
+        out.writeInt(length);
+        out.writeInt(forward.length);
+        out.write(forward);
+    }
+
+    /**
+     * Lê um documento escrito por {@link #write} a partir da posição atual do buffer.
+     *
+     * @param in Buffer posicionado no início do registo.
+     * @param docId Doc ID do documento.
+     * @return O documento lido.
+     */
+    static StoredDocument read(ByteBuffer in, int docId) {
+        String title = readString(in);
+        String citation = readString(in);
+        int contentHash = in.getInt();
+        int length = in.getInt();
+        byte[] forward = new byte[in.getInt()];
+        in.get(forward);
+        return new StoredDocument(docId, title, citation, contentHash, length, forward);
+    }
+
+    // ═══════════════════════════════════════════════════════
+    // Auxiliares
+    // ═══════════════════════════════════════════════════════
+
+    /** Percorre as palavras do índice direto, descodificando cada uma para o mesmo buffer. */
+    private final class WordCursor {
+        int pos;
+        int remaining;
+        byte[] word = new byte[64];
+        int length;
+        int frequency;
+
+        WordCursor() {
+            int[] p = {0};
+            remaining = readVarint(forward, p);
+            pos = p[0];
+        }
+
+        /**
+         * @return false no fim das palavras; senão a palavra seguinte fica em {@code word[0..length)}
+         *         e a sua frequência em {@code frequency}.
+         */
+        boolean next() {
+            if (remaining == 0) return false;
+            remaining--;
+            int[] p = {pos};
+            int common = readVarint(forward, p);
+            int suffix = readVarint(forward, p);
+            length = common + suffix;
+            if (length > word.length) word = Arrays.copyOf(word, Math.max(length, word.length * 2));
+            System.arraycopy(forward, p[0], word, common, suffix);
+            p[0] += suffix;
+            frequency = readVarint(forward, p);
+            pos = p[0];
+            return true;
+        }
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int writeVarint(byte[] buf, int p, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf[p++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[p++] = (byte) value;
+        return p;
+    }
+
+    private static int readVarint(byte[] buf, int[] pos) {
+        int value = 0, shift = 0, p = pos[0];
+        byte b;
+        do {
+            b = buf[p++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        pos[0] = p;
+        return value;
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * Dicionário ordenado de termos, para sugestões por prefixo (pesquisa enquanto se escreve) e
+ * expansão de termos com erros ortográficos.
+ * <p>
+ * Os termos do dicionário ficam ordenados pelos bytes UTF-8, todos num único array de bytes
+ * com um array de offsets, por isso os termos com um prefixo formam um intervalo contíguo,
+ * encontrado com duas pesquisas binárias. Sobre os pesos (frequência de documentos de cada
+ * termo) é mantida uma árvore de segmentos que devolve o termo de maior peso de qualquer
+ * intervalo em O(log n). Os k melhores saem por ordem: retira-se o melhor intervalo de uma
+ * fila de prioridade, devolve-se o seu máximo e voltam à fila as duas metades que sobram
+ * (O(k log k log n), sem percorrer os termos do prefixo).
+ * <p>
+ * Como o array está ordenado, cada prefixo é um intervalo e os filhos de um prefixo são
+ * subintervalos contíguos: o dicionário pode ser percorrido como uma árvore de prefixos
+ * sem a construir. {@link #fuzzy} faz esse percurso com um {@link LevenshteinAutomaton},
+ * descendo só pelos prefixos que ainda podem estar perto do termo.
+ * <p>
+ * A estrutura é imutável e reconstruída em background a partir dos dicionários dos segmentos
+ * e buffers ({@link SegmentedIndex#refreshSuggester()}); termos acabados de indexar aparecem
+ * na reconstrução seguinte.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+final class Suggester {
+
+    static final Suggester EMPTY = new Suggester(new byte[0], new int[1], new int[0]);
+
+    private final byte[] keys;
+    private final int[] offsets;
+    private final int[] weights;
+    // Árvore de segmentos (folhas a partir de size): índice do termo de maior peso de cada nó
+    private final int size;
+    private final int[] best;
+
+    /**
+     * @param keys Bytes UTF-8 dos termos, concatenados por ordem.
+     * @param offsets Início de cada termo em {@code keys} (mais um offset final).
+     * @param weights Peso de cada termo.
+     */
+    Suggester(byte[] keys, int[] offsets, int[] weights) {
+        this.keys = keys;
+        this.offsets = offsets;
+        this.weights = weights;
+        int n = weights.length;
+        int s = 1;
+        while (s < n) s <<= 1;
+        this.size = s;
+        this.best = new int[2 * s];
+        Arrays.fill(best, -1);
+        for (int i = 0; i < n; i++) best[s + i] = i;
+        for (int node = s - 1; node >= 1; node--) best[node] = better(best[2 * node], best[2 * node + 1]);
+    }
+
+    /** Construtor incremental, para termos que chegam já ordenados. */
+    static final class Builder {
+        private byte[] keys = new byte[4096];
+        private int[] offsets = new int[1025];
+        private int[] weights = new int[1024];
+        private int count = 0;
+
+        /**
+         * @param key Bytes UTF-8 do termo (maior do que o anterior).
+         * @param weight Peso do termo.
+         */
+        void add(byte[] key, int weight) {
+            if (count == weights.length) {
+                weights = Arrays.copyOf(weights, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2 + 1);
+            }
+            int end = offsets[count];
+            if (end + key.length > keys.length) keys = Arrays.copyOf(keys, Math.max(keys.length * 2, end + key.length));
+            System.arraycopy(key, 0, keys, end, key.length);
+            weights[count] = weight;
+            offsets[++count] = end + key.length;
+        }
+
+        Suggester build() {
+            return new Suggester(Arrays.copyOf(keys, offsets[count]), Arrays.copyOf(offsets, count + 1),
+                Arrays.copyOf(weights, count));
+        }
+    }
+
+    /** @return Número de termos. */
+    int size() { return weights.length; }
+
+    /** @return Bytes ocupados (termos, offsets, pesos e árvore). */
+    long bytes() { return keys.length + 4L * (offsets.length + weights.length + best.length); }
+
+    /**
+     * Os {@code k} termos de maior peso que começam por {@code prefix}.
+     *
+     * @param prefix Prefixo normalizado.
+     * @param k Número máximo de sugestões.
+     * @return Termo -> peso, por ordem decrescente de peso.
+     */
+    Map<String, Integer> top(String prefix, int k) {
+        Map<String, Integer> res = new LinkedHashMap<>();
+        byte[] p = prefix.getBytes(StandardCharsets.UTF_8);
+        int from = lowerBound(p);
+        int to = upperBound(p, from);
+        if (from >= to || k <= 0) return res;
+
+        // Intervalos candidatos {início, fim (exclusivo), melhor}, pelo peso do melhor
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> Integer.compare(weights[b[2]], weights[a[2]]));
+        queue.add(new int[] {from, to, argmax(from, to)});
+        while (!queue.isEmpty() && res.size() < k) {
+            int[] range = queue.poll();
+            int i = range[2];
+            res.put(term(i), weights[i]);
+            if (range[0] < i) queue.add(new int[] {range[0], i, argmax(range[0], i)});
+            if (i + 1 < range[1]) queue.add(new int[] {i + 1, range[1], argmax(i + 1, range[1])});
+        }
+        return res;
+    }
+
+    /**
+     * Termos a poucas edições de {@code term}: percorre o dicionário como uma árvore de
+     * prefixos, carácter a carácter, e abandona um ramo assim que o autómato deixa de o
+     * poder aceitar. Ficam os mais próximos e, entre esses, os de maior peso.
+     *
+     * @param term Termo normalizado.
+     * @param maxEdits Distância máxima (1 ou 2).
+     * @param maxExpansions Número máximo de termos devolvidos.
+     * @return Termo -> distância, do melhor para o pior.
+     */
+    Map<String, Integer> fuzzy(String term, int maxEdits, int maxExpansions) {
+        Map<String, Integer> res = new LinkedHashMap<>();
+        if (maxEdits <= 0 || maxExpansions <= 0 || weights.length == 0) return res;
+        LevenshteinAutomaton automaton = new LevenshteinAutomaton(term, maxEdits);
+        List<int[]> found = new ArrayList<>(); // {índice do termo, distância}
+        walk(automaton, 0, weights.length, 0, automaton.start(), found);
+        found.sort(Comparator.<int[]>comparingInt(f -> f[1]).thenComparing(f -> -weights[f[0]]));
+        for (int i = 0; i < Math.min(maxExpansions, found.size()); i++) res.put(term(found.get(i)[0]), found.get(i)[1]);
+        return res;
+    }
+
+    /**
+     * Desce pelos termos [from, to), que partilham os primeiros {@code depth} bytes e levaram
+     * o autómato ao estado {@code row}. Enquanto sobram edições todos os filhos são visitados;
+     * quando já não sobram, cada termo aceite é o prefixo seguido de um sufixo exato do termo
+     * ({@link LevenshteinAutomaton#suffix}) e basta uma pesquisa binária por sufixo.
+     */
+    private void walk(LevenshteinAutomaton automaton, int from, int to, int depth, int[] row, List<int[]> found) {
+        int lo = from;
+        if (offsets[lo + 1] - offsets[lo] == depth) {
+            // O próprio prefixo é um termo (os mais curtos vêm primeiro)
+            int d = automaton.distance(row);
+            if (d >= 0) found.add(new int[] {lo, d});
+            lo++;
+        }
+        if (automaton.min(row) < automaton.maxEdits) {
+            int[] other = null;
+            while (lo < to) {
+                int at = offsets[lo] + depth;
+                int width = utf8Width(keys[at]);
+                int end = childEnd(lo, to, at, width);
+                int c = codePoint(at, width);
+                // Todos os caracteres que não estão no termo levam ao mesmo estado
+                int[] next;
+                if (automaton.contains(c)) {
+                    next = automaton.step(row, c);
+                } else {
+                    if (other == null) other = automaton.step(row, -1);
+                    next = other;
+                }
+                if (automaton.canMatch(next)) walk(automaton, lo, end, depth + width, next, found);
+                lo = end;
+            }
+            return;
+        }
+        // Sem edições de sobra: só o resto exato do termo, a partir de cada posição possível
+        for (int i = 0; i < row.length - 1; i++) {
+            if (row[i] > automaton.maxEdits) continue;
+            byte[] suffix = automaton.suffix(i);
+            int at = seek(lo, to, depth, suffix);
+            if (at < to && offsets[at + 1] - offsets[at] == depth + suffix.length && startsWith(at, depth, suffix)) {
+                found.add(new int[] {at, automaton.maxEdits});
+            }
+        }
+    }
+
+    /** @return Primeiro termo de [from, to) cujos bytes a partir de {@code depth} são maiores ou iguais a {@code key}. */
+    private int seek(int from, int to, int depth, byte[] key) {
+        int lo = from, hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(keys, offsets[mid] + depth, offsets[mid + 1], key, 0, key.length) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return Fim do intervalo de termos a partir de {@code from} com os mesmos {@code width}
+     *         bytes em {@code at}. Salto galopante a partir de {@code from}: os filhos de um
+     *         prefixo são em geral muito mais pequenos do que o intervalo do pai.
+     */
+    private int childEnd(int from, int to, int at, int width) {
+        int depth = at - offsets[from];
+        int bound = 1;
+        while (from + bound < to && sameChild(from + bound, depth, at, width)) bound <<= 1;
+        // O último termo confirmado é from + bound / 2; o fim está em (from + bound / 2, from + bound]
+        int lo = from + (bound >> 1) + 1, hi = Math.min(from + bound, to);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sameChild(mid, depth, at, width)) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private boolean sameChild(int i, int depth, int at, int width) {
+        int start = offsets[i] + depth;
+        return offsets[i + 1] - start >= width && Arrays.equals(keys, start, start + width, keys, at, at + width);
+    }
+
+    /** @return Code point UTF-8 de {@code width} bytes em {@code at}. */
+    private int codePoint(int at, int width) {
+        if (width == 1) return keys[at];
+        int c = keys[at] & (0xFF >> (width + 1));
+        for (int i = 1; i < width; i++) c = (c << 6) | (keys[at + i] & 0x3F);
+        return c;
+    }
+
+    /** @return Número de bytes do carácter UTF-8 que começa por {@code lead}. */
+    private static int utf8Width(byte lead) {
+        int b = lead & 0xFF;
+        if (b < 0x80) return 1;
+        if (b >= 0xF0) return 4;
+        return b >= 0xE0 ? 3 : 2;
+    }
+
+    /** @return Índice do termo de maior peso em [from, to). */
+    private int argmax(int from, int to) {
+        int res = -1;
+        for (int lo = from + size, hi = to + size; lo < hi; lo >>= 1, hi >>= 1) {
+            if ((lo & 1) == 1) res = better(res, best[lo++]);
+            if ((hi & 1) == 1) res = better(res, best[--hi]);
+        }
+        return res;
+    }
+
+    /** Maior peso; nos empates, o termo menor (ordem estável). */
+    private int better(int a, int b) {
+        if (a < 0) return b;
+        if (b < 0) return a;
+        return weights[b] > weights[a] || (weights[b] == weights[a] && b < a) ? b : a;
+    }
+
+    private String term(int i) {
+        return new String(keys, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+    }
+
+    /** @return Primeiro termo maior ou igual ao prefixo. */
+    private int lowerBound(byte[] prefix) {
+        int lo = 0, hi = weights.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(keys, offsets[mid], offsets[mid + 1], prefix, 0, prefix.length) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return Primeiro termo a partir de {@code from} que já não começa pelo prefixo. */
+    private int upperBound(byte[] prefix, int from) {
+        int lo = from, hi = weights.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (startsWith(mid, prefix)) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /** @return true se os bytes do termo {@code i} a partir de {@code depth} começam por {@code prefix}. */
+    private boolean startsWith(int i, int depth, byte[] prefix) {
+        int start = offsets[i] + depth;
+        return offsets[i + 1] - start >= prefix.length
+            && Arrays.equals(keys, start, start + prefix.length, prefix, 0, prefix.length);
+    }
+
+    private boolean startsWith(int i, byte[] prefix) {
+        int length = offsets[i + 1] - offsets[i];
+        return length >= prefix.length
+            && Arrays.equals(keys, offsets[i], offsets[i] + prefix.length, prefix, 0, prefix.length);
+    }
+}
@@ -1,9 +1,13 @@
 /**
- * Objeto de Transferência de Dados (DTO) usado para a sincronização entre Barrels.
+ * Objeto de Transferência de Dados (DTO) com o estado completo de um Barrel.
  * <p>
  * Esta classe encapsula todo o estado interno de um Barrel (páginas, índice invertido e backlinks)
- * num único objeto serializável, permitindo que seja enviado via RMI para um novo Barrel
- * que se esteja a juntar à rede ou a recuperar de uma falha (State Transfer).
+ * num único objeto serializável. Era usada na sincronização entre Barrels e nos ficheiros .dat;
+ * hoje a sincronização é feita em blocos ({@link StateChunk}) e os checkpoints têm formato
+ * binário próprio, e esta classe serve apenas para ler checkpoints gravados no formato antigo.
+ * <p>
+ * Os dados viajam já na forma compacta usada internamente: os URLs são enviados uma única vez
+ * (lista {@link #urls}, em que a posição é o doc ID) e o índice e os backlinks referem-nos por ID.
  *
  * @author Elemento 1:André Ramos 2023227306
  */
@@ -11,34 +15,42 @@
 package pt.uc.sd.googol.barrel;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import pt.uc.sd.googol.common.PageInfo;
 
 public class SyncData implements Serializable {
-    
-    /** Mapa de URLs para objetos PageInfo com metadados (título, citação, etc.). */
-    public Map<String, PageInfo> pages;
-    
-    /** Índice invertido: mapeia termos (palavras) para conjuntos de URLs onde aparecem. */
-    public Map<String, Set<String>> index;
-    
-    /** Registo de backlinks: mapeia URLs para o conjunto de páginas que apontam para eles. */
-    public Map<String, Set<String>> backlinks;
+
+    private static final long serialVersionUID = 2L;
+
+    /** Dicionário de documentos: a posição de cada URL na lista é o seu doc ID. */
+    public List<String> urls;
+
+    /** Mapa de doc IDs para objetos PageInfo com metadados (título, citação, etc.). */
+    public Map<Integer, PageInfo> pages;
+
+    /** Índice invertido: mapeia termos (palavras) para os doc IDs (ordenados) onde aparecem. */
+    public Map<String, int[]> index;
+
+    /** Registo de backlinks: mapeia o doc ID de destino para os doc IDs (ordenados) que apontam para ele. */
+    public Map<Integer, int[]> backlinks;
 
     /**
      * Cria um novo pacote de dados de sincronização com o estado atual do Barrel.
      *
+     * @param urls Dicionário de URLs indexado por doc ID.
      * @param pages Mapa atual de páginas indexadas.
      * @param index Mapa atual do índice invertido.
      * @param backlinks Mapa atual de backlinks.
      */
-    public SyncData(Map<String, PageInfo> pages, 
-                   Map<String, Set<String>> index, 
-                   Map<String, Set<String>> backlinks) {
+    public SyncData(List<String> urls,
+                   Map<Integer, PageInfo> pages,
+                   Map<String, int[]> index,
+                   Map<Integer, int[]> backlinks) {
+        this.urls = urls;
         this.pages = pages;
         this.index = index;
         this.backlinks = backlinks;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,104 @@
+/**
+ * Seleção dos k melhores documentos com um min-heap de tamanho limitado.
+ * <p>
+ * Para devolver a página p de resultados só é preciso conhecer os (p+1)*10 melhores,
+ * por isso em vez de ordenar todos os resultados (O(n log n)) mantém-se um heap com
+ * os k melhores vistos até agora (O(n log k)); o topo do heap é o pior deles e serve de
+ * limiar para rejeitar candidatos com uma única comparação.
+ * <p>
+ * Cada entrada é um {@code long} com a pontuação nos 32 bits altos e o doc ID (invertido)
+ * nos baixos, para que os empates favoreçam o doc ID menor sem objetos intermédios.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.util.Arrays;
+
+final class TopKCollector {
+
+    private final long[] heap;
+    private int size = 0;
+
+    /** @param k Número máximo de documentos a guardar. */
+    TopKCollector(int k) {
+        this.heap = new long[Math.max(0, k)];
+    }
+
+    /**
+     * Considera um documento.
+     *
+     * @param docId Doc ID do candidato.
+     * @param score Pontuação (não negativa).
+     */
+    void collect(int docId, int score) {
+        if (heap.length == 0) return;
+        long key = ((long) score << 32) | (Integer.MAX_VALUE - docId);
+        if (size < heap.length) {
+            heap[size] = key;
+            siftUp(size++);
+        } else if (key > heap[0]) {
+            heap[0] = key;
+            siftDown(0);
+        }
+    }
+
+    /** @return true se o heap já tem k documentos. */
+    boolean isFull() { return size == heap.length; }
+
+    /** @return Pontuação do pior documento guardado (limiar de entrada), ou -1 se ainda não estiver cheio. */
+    int threshold() { return isFull() && size > 0 ? (int) (heap[0] >>> 32) : -1; }
+
+    /**
+     * Extrai os documentos guardados, do melhor para o pior.
+     *
+     * @return Doc IDs ordenados por pontuação decrescente.
+     */
+    int[] sortedDocIds() {
+        long[] keys = Arrays.copyOf(heap, size);
+        Arrays.sort(keys);
+        int[] docs = new int[size];
+        for (int i = 0; i < size; i++) {
+            docs[i] = Integer.MAX_VALUE - (int) keys[size - 1 - i];
+        }
+        return docs;
+    }
+
+    /**
+     * Pontuações dos documentos guardados, pela ordem de {@link #sortedDocIds()}.
+     *
+     * @return Pontuações por ordem decrescente.
+     */
+    int[] sortedScores() {
+        long[] keys = Arrays.copyOf(heap, size);
+        Arrays.sort(keys);
+        int[] scores = new int[size];
+        for (int i = 0; i < size; i++) {
+            scores[i] = (int) (keys[size - 1 - i] >>> 32);
+        }
+        return scores;
+    }
+
+    private void siftUp(int i) {
+        long key = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= key) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    private void siftDown(int i) {
+        long key = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (key <= heap[child]) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = key;
+    }
+}
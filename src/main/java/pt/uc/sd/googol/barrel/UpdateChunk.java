@@ -0,0 +1,64 @@
+/**
+ * Bloco de uma recuperação incremental entre Barrels
+ * ({@link BarrelInterface#getUpdatesSince(long, int, long, int, int)}).
+ * <p>
+ * Cada Barrel numera as páginas que aplica (número de sequência, crescente) e cada versão
+ * indexada guarda o número com que foi aplicada. Um Barrel que reinicia pede a um par apenas
+ * as páginas com número superior ao último que já conhecia desse par: o custo da recuperação
+ * depende do que foi perdido e não do tamanho do índice.
+ * <p>
+ * As posições são doc IDs do par, percorridos numa vista consistente tirada no primeiro
+ * pedido; {@link #next} é o cursor do pedido seguinte (repetir um pedido retoma a recuperação).
+ * Páginas removidas pelo par depois do número pedido vêm em {@link #removed}.
+ *
+ * @author Elemento 1: André Ramos 2023227306
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.io.Serializable;
+import java.util.List;
+
+import pt.uc.sd.googol.common.PageInfo;
+
+public class UpdateChunk implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Identificador da transferência (a usar nos pedidos seguintes). */
+    public final long transferId;
+
+    /** Número de sequência do par na vista transferida (nova marca depois do último bloco). */
+    public final int sequence;
+
+    /** Número de doc IDs da vista (total de posições). */
+    public final int size;
+
+    /** Posição seguinte (cursor do próximo pedido). */
+    public final int next;
+
+    /** Páginas aplicadas pelo par depois do número pedido. */
+    public final List<PageInfo> pages;
+
+    /** URLs removidos pelo par depois do número pedido. */
+    public final List<String> removed;
+
+    /** Tamanho aproximado do conteúdo do bloco (para medir o débito). */
+    public final int bytes;
+
+    public UpdateChunk(long transferId, int sequence, int size, int next, List<PageInfo> pages,
+                       List<String> removed, int bytes) {
+        this.transferId = transferId;
+        this.sequence = sequence;
+        this.size = size;
+        this.next = next;
+        this.pages = pages;
+        this.removed = removed;
+        this.bytes = bytes;
+    }
+
+    /** @return true se este é o último bloco da recuperação. */
+    public boolean isLast() {
+        return next >= size;
+    }
+}
@@ -0,0 +1,341 @@
+/**
+ * Log de escrita (write-ahead log) do Barrel: cada página indexada é acrescentada a um
+ * ficheiro só de escrita sequencial e fica em disco (fsync) antes de {@code addDocument} terminar.
+ * <p>
+ * <b>Group commit:</b> as threads que chamam {@link #appendAll(List)} ao mesmo tempo
+ * partilham o mesmo fsync. A primeira a chegar torna-se líder, escreve tudo o que estiver
+ * pendente e faz o fsync; as outras esperam e são libertadas em conjunto. Com muitas
+ * escritas concorrentes, o custo do fsync é dividido por todas.
+ * <p>
+ * O log está dividido em ficheiros numerados ({@code wal-N.log}). Um checkpoint chama
+ * {@link #roll()} para começar um ficheiro novo e, depois de gravar o estado, apaga os
+ * ficheiros anteriores com {@link #deleteUpTo(long)}. A recuperação é: checkpoint + reexecução
+ * dos ficheiros que sobraram ({@link #replay(Path, Consumer, Consumer)}).
+ * <p>
+ * Formato de cada registo: tamanho (int), CRC32 do conteúdo (int), página em {@link PageCodec}
+ * (ou registo de remoção de uma página, ver {@link PageCodec#encodeRemoval}).
+ * Um registo incompleto, com um tamanho maior do que o resto do ficheiro ou com CRC errado
+ * (escrita interrompida) marca o fim do ficheiro.
+ */
+
+package pt.uc.sd.googol.barrel;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import pt.uc.sd.googol.common.PageInfo;
+
+final class WriteAheadLog {
+
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final Object lock = new Object();
+
+    // Ficheiro atual
+    private FileChannel channel;
+    private long fileNumber;
+
+    // Registos à espera do próximo fsync e contadores do group commit
+    private byte[] pending = new byte[64 * 1024];
+    private byte[] spare = new byte[64 * 1024];
+    private int pendingLength = 0;
+    private long appended = 0;
+    private long durable = 0;
+    private boolean flushing = false;
+    private IOException failure;
+
+    // Bytes escritos em todos os ficheiros ainda não apagados por um checkpoint
+    private long logBytes = 0;
+    private long syncCount = 0;
+
+    /**
+     * Abre o log numa diretoria. Os ficheiros existentes ficam intactos (para a recuperação)
+     * e as novas escritas vão para um ficheiro com o número seguinte.
+     *
+     * @param directory Diretoria dos ficheiros de log.
+     * @throws IOException Se a diretoria ou o ficheiro não puderem ser criados.
+     */
+    WriteAheadLog(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        long last = 0;
+        for (Path file : files()) {
+            last = Math.max(last, numberOf(file));
+            logBytes += Files.size(file);
+        }
+        openFile(last + 1);
+    }
+
+    /**
+     * Regista várias páginas (um lote) e espera até estarem todas em disco, com um só fsync.
+     *
+     * @param pages Páginas a registar, pela ordem em que serão reexecutadas.
+     * @throws IOException Se a escrita ou o fsync falharem (o log fica inutilizável).
+     */
+    void appendAll(List<PageInfo> pages) throws IOException {
+        if (pages.isEmpty()) return;
+        byte[][] payloads = new byte[pages.size()][];
+        for (int i = 0; i < payloads.length; i++) payloads[i] = PageCodec.encode(pages.get(i));
+        appendPayloads(payloads);
+    }
+
+    /**
+     * Regista a remoção de uma página e espera até estar em disco.
+     *
+     * @param url URL da página removida.
+     * @throws IOException Se a escrita ou o fsync falharem (o log fica inutilizável).
+     */
+    void appendRemoval(String url) throws IOException {
+        appendPayloads(new byte[][] {PageCodec.encodeRemoval(url)});
+    }
+
+    private void appendPayloads(byte[][] payloads) throws IOException {
+        int[] crcs = new int[payloads.length];
+        int total = 0;
+        for (int i = 0; i < payloads.length; i++) {
+            CRC32 crc = new CRC32();
+            crc.update(payloads[i]);
+            crcs[i] = (int) crc.getValue();
+            total += 8 + payloads[i].length;
+        }
+
+        long ticket;
+        synchronized (lock) {
+            if (failure != null) throw failure;
+            ensureCapacity(total);
+            for (int i = 0; i < payloads.length; i++) {
+                ByteBuffer.wrap(pending, pendingLength, 8).putInt(payloads[i].length).putInt(crcs[i]);
+                System.arraycopy(payloads[i], 0, pending, pendingLength + 8, payloads[i].length);
+                pendingLength += 8 + payloads[i].length;
+            }
+            appended += payloads.length;
+            ticket = appended;
+        }
+        awaitDurable(ticket);
+    }
+
+    /**
+     * Espera até o registo {@code ticket} estar em disco, fazendo de líder do fsync se
+     * ninguém o estiver a fazer.
+     */
+    private void awaitDurable(long ticket) throws IOException {
+        while (true) {
+            byte[] batch;
+            int batchLength;
+            long upTo;
+            FileChannel target;
+            synchronized (lock) {
+                while (durable < ticket && flushing && failure == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrompido à espera do log", e);
+                    }
+                }
+                if (failure != null) throw failure;
+                if (durable >= ticket) return;
+
+                // Líder: leva tudo o que está pendente (incluindo registos de outras threads)
+                flushing = true;
+                batch = pending;
+                batchLength = pendingLength;
+                pending = spare;
+                pendingLength = 0;
+                upTo = appended;
+                target = channel;
+            }
+
+            IOException error = null;
+            try {
+                writeFully(target, batch, batchLength);
+                target.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+
+            synchronized (lock) {
+                flushing = false;
+                spare = batch;
+                if (error != null) {
+                    failure = error;
+                } else {
+                    durable = upTo;
+                    logBytes += batchLength;
+                    syncCount++;
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Fecha o ficheiro atual e começa um novo. Chamado pelo checkpoint com as escritas
+     * bloqueadas, para que todos os registos do ficheiro fechado já estejam aplicados ao índice.
+     *
+     * @return Número do ficheiro fechado (a passar a {@link #deleteUpTo(long)} depois do checkpoint).
+     * @throws IOException Se o novo ficheiro não puder ser criado.
+     */
+    long roll() throws IOException {
+        synchronized (lock) {
+            while (flushing) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrompido à espera do log", e);
+                }
+            }
+            if (failure != null) throw failure;
+            if (pendingLength > 0) {
+                writeFully(channel, pending, pendingLength);
+                logBytes += pendingLength;
+                pendingLength = 0;
+                durable = appended;
+                syncCount++;
+            }
+            channel.force(false);
+            channel.close();
+            long closed = fileNumber;
+            openFile(closed + 1);
+            return closed;
+        }
+    }
+
+    /**
+     * Apaga os ficheiros de log até ao número indicado (inclusive), já cobertos por um checkpoint.
+     *
+     * @param number Último ficheiro a apagar.
+     * @throws IOException Se a listagem da diretoria falhar.
+     */
+    void deleteUpTo(long number) throws IOException {
+        for (Path file : files()) {
+            if (numberOf(file) > number) continue;
+            long size = Files.size(file);
+            Files.deleteIfExists(file);
+            synchronized (lock) {
+                logBytes -= size;
+            }
+        }
+    }
+
+    /**
+     * @return Ficheiros de log existentes, por ordem de número (os anteriores ao atual
+     *         são os que a recuperação tem de reexecutar).
+     * @throws IOException Se a listagem falhar.
+     */
+    List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) files.add(file);
+        }
+        files.sort((a, b) -> Long.compare(numberOf(a), numberOf(b)));
+        return files;
+    }
+
+    /** @return Número do ficheiro atual (os ficheiros com número menor são de execuções/checkpoints anteriores). */
+    long currentFile() {
+        synchronized (lock) {
+            return fileNumber;
+        }
+    }
+
+    /** @return Bytes de log acumulados desde o último checkpoint. */
+    long size() {
+        synchronized (lock) {
+            return logBytes;
+        }
+    }
+
+    /** @return Registos escritos e fsyncs feitos (registos / fsyncs = tamanho médio do grupo). */
+    long[] counters() {
+        synchronized (lock) {
+            return new long[] {durable, syncCount};
+        }
+    }
+
+    /**
+     * Lê os registos de um ficheiro de log, por ordem, até ao fim ou ao primeiro registo inválido.
+     *
+     * @param file Ficheiro a ler.
+     * @param consumer Recebe cada página.
+     * @param removals Recebe o URL de cada página removida.
+     * @return Número de registos lidos.
+     * @throws IOException Se o ficheiro não puder ser aberto.
+     */
+    static int replay(Path file, Consumer<PageInfo> consumer, Consumer<String> removals) throws IOException {
+        int count = 0;
+        // O tamanho de um registo cortado a meio pode ser lixo: nunca se aloca mais do que o que resta
+        long remaining = Files.size(file);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                byte[] payload;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    checksum = in.readInt();
+                    remaining -= 8;
+                    if (length < 0 || length > remaining) {
+                        System.err.println(" [WAL] Registo com tamanho inválido em " + file.getFileName() + " (ignorado o resto do ficheiro)");
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    remaining -= length;
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    System.err.println(" [WAL] Registo corrompido em " + file.getFileName() + " (ignorado o resto do ficheiro)");
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.wrap(payload);
+                String removed = PageCodec.removedUrl(record);
+                if (removed != null) removals.accept(removed);
+                else consumer.accept(PageCodec.read(record));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void openFile(long number) throws IOException {
+        fileNumber = number;
+        channel = FileChannel.open(directory.resolve(PREFIX + number + SUFFIX),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (pendingLength + extra > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + extra));
+        }
+    }
+
+    private static void writeFully(FileChannel channel, byte[] data, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /** @return Número de um ficheiro de log ({@code wal-N.log}). */
+    static long numberOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
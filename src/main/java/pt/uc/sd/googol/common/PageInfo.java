@@ -4,6 +4,11 @@
  * Funciona como um Objeto de Transferência de Dados (DTO) que é criado pelos
  * Downloaders após o processamento de um URL e enviado para os Barrels
  * via Multicast para ser armazenado e indexado.
+ * <p>
+ * Além das palavras, leva a frequência de cada palavra na página e o comprimento do texto
+ * (número de palavras, com repetições), usados pelo Barrel na pontuação BM25. Só as
+ * frequências maiores que 1 são guardadas; páginas construídas só com o conjunto de
+ * palavras contam cada palavra uma vez.
  * Implementa {@link Serializable} para poder viajar através da rede (RMI).
  *
  * @author Elemento 1: André Ramos (2023227306)
@@ -12,7 +17,10 @@
 package pt.uc.sd.googol.common;
 
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class PageInfo implements Serializable {
@@ -25,6 +33,9 @@ public class PageInfo implements Serializable {
     private final String citation;
     private final Set<String> words;
     private final List<String> links;
+    /** Frequências maiores que 1 (as restantes palavras aparecem uma vez); pode ser null. */
+    private final Map<String, Integer> frequencies;
+    private final int length;
         
     /**
      * Constrói um novo objeto com a informação extraída de uma página.
@@ -42,6 +53,33 @@ public class PageInfo implements Serializable {
         this.citation = citation;
         this.words = words;
         this.links = links;
+        this.frequencies = null;
+        this.length = words.size();
+    }
+
+    /**
+     * Constrói um novo objeto com as frequências das palavras na página.
+     *
+     * @param url O URL completo da página visitada.
+     * @param title O título da página.
+     * @param citation Um excerto curto do texto da página.
+     * @param frequencies Número de ocorrências de cada palavra da página.
+     * @param length Número de palavras do texto, com repetições.
+     * @param links Lista de hiperligações encontradas na página.
+     */
+    public PageInfo(String url, String title, String citation,
+                    Map<String, Integer> frequencies, int length, List<String> links) {
+        this.url = url;
+        this.title = title;
+        this.citation = citation;
+        this.words = new HashSet<>(frequencies.keySet());
+        this.links = links;
+        Map<String, Integer> repeated = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            if (entry.getValue() > 1) repeated.put(entry.getKey(), entry.getValue());
+        }
+        this.frequencies = repeated.isEmpty() ? null : repeated;
+        this.length = length;
     }
     
     /**
@@ -73,6 +111,23 @@ public class PageInfo implements Serializable {
      * @return Lista de Strings com os URLs de destino.
      */
     public List<String> getLinks() { return links; }
+
+    /**
+     * Obtém o número de ocorrências de uma palavra da página.
+     * @param word Palavra (normalizada).
+     * @return Frequência da palavra (1 se não houver informação de frequências).
+     */
+    public int getFrequency(String word) {
+        if (frequencies == null) return 1;
+        return frequencies.getOrDefault(word, 1);
+    }
+
+    /**
+     * Obtém o comprimento do texto da página.
+     * @return Número de palavras, com repetições (o número de palavras distintas em objetos
+     *         serializados antes de o comprimento existir).
+     */
+    public int getLength() { return length > 0 ? length : words.size(); }
     
     @Override
     public String toString() {
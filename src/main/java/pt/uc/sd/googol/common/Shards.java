@@ -0,0 +1,63 @@
+/**
+ * Partição do índice entre Barrels (sharding), em um de dois modos:
+ * <ul>
+ * <li>{@link #DOCUMENTS}: cada página pertence a um único shard, escolhido pelo hash do seu
+ * URL. O Downloader envia cada página só às réplicas do seu shard e o Gateway pesquisa uma
+ * réplica de cada shard e junta os resultados.</li>
+ * <li>{@link #TERMS}: cada shard é dono de um intervalo do espaço de hashes dos termos. Todos
+ * os Barrels recebem todas as páginas (URL, título, links e, por isso, contagens globais de
+ * backlinks), mas só indexam as palavras dos seus termos; uma pesquisa só contacta os donos
+ * dos seus termos.</li>
+ * </ul>
+ * Com um só shard (omissão) todos os Barrels são réplicas completas.
+ *
+ * @author Elemento 1: André Ramos (2023227306)
+ */
+
+package pt.uc.sd.googol.common;
+
+public final class Shards {
+
+    /** Modo de partição por documentos (por URL). */
+    public static final int DOCUMENTS = 0;
+    /** Modo de partição por termos. */
+    public static final int TERMS = 1;
+
+    private Shards() { }
+
+    /**
+     * @param url URL da página.
+     * @param shards Número de shards (pelo menos 1).
+     * @return Shard da página, entre 0 e {@code shards - 1}.
+     */
+    public static int of(String url, int shards) {
+        if (shards <= 1) return 0;
+        // Mistura os bits do hash (o hashCode de URLs parecidos difere pouco nos bits baixos)
+        int h = url.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), shards);
+    }
+
+    /**
+     * @param term Termo (normalizado em minúsculas).
+     * @param shards Número de shards (pelo menos 1).
+     * @return Shard dono do termo: o espaço de hashes de 32 bits é dividido em intervalos iguais.
+     */
+    public static int ofTerm(String term, int shards) {
+        if (shards <= 1) return 0;
+        int h = term.hashCode() * 0x9E3779B9;
+        long unsigned = (h ^ (h >>> 16)) & 0xFFFFFFFFL;
+        return (int) ((unsigned * shards) >>> 32);
+    }
+
+    /**
+     * @param mode Nome do modo ("docs" ou "terms").
+     * @return Constante do modo.
+     */
+    public static int mode(String mode) {
+        switch (mode) {
+            case "docs": return DOCUMENTS;
+            case "terms": return TERMS;
+            default: throw new IllegalArgumentException("Modo de partição desconhecido: " + mode);
+        }
+    }
+}
@@ -56,9 +56,12 @@ public class Downloader {
      * @param numBarrels Número de Barrels esperados na rede.
      * @param queueHost Host onde está a Queue.
      * @param queuePort Porta do RMI Registry da Queue.
+     * @param batchDocs Número máximo de páginas por lote enviado aos Barrels.
+     * @param batchDelayMs Tempo máximo que uma página espera pelo seu lote.
      */
     public Downloader(int numWorkers, String barrelHost, int barrelPort, 
-                      int numBarrels, String queueHost, int queuePort) {
+                      int numBarrels, String queueHost, int queuePort,
+                      int batchDocs, long batchDelayMs) {
         this.numWorkers = numWorkers;
         this.robotsParser = new RobotsTxtParser("Googol Bot 1.0");
         this.workers = new ArrayList<>();
@@ -116,7 +119,7 @@ public class Downloader {
             if (barrels.isEmpty()) {
                 System.err.println("AVISO: Nenhum barrel encontrado. O sistema não guardará dados.");
             } else {
-                tempMulticast = new ReliableMulticast(barrels);
+                tempMulticast = new ReliableMulticast(barrels, batchDocs, batchDelayMs);
                 System.out.println(" Multicast iniciado com " + barrels.size() + " barrels");
             }
             
@@ -160,9 +163,16 @@ public class Downloader {
             if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
                 executorService.shutdownNow();
             }
+            // Enviar as páginas que ainda estão à espera de lote
+            if (multicast != null && !multicast.flush(5000)) {
+                System.err.println("AVISO: Ficaram páginas por enviar aos Barrels.");
+            }
         } catch (InterruptedException e) {
             executorService.shutdownNow();
         }
+        if (multicast != null) {
+            System.out.printf("Média de páginas por lote: %.1f%n", multicast.getAverageBatchSize());
+        }
         System.out.println("Fim.");
     }
     
@@ -176,6 +186,10 @@ public class Downloader {
         int numWorkers = 3;
         int numBarrels = 2;
         
+        // Janela de lotes do Multicast (páginas de todos os workers)
+        int batchDocs = ReliableMulticast.DEFAULT_BATCH_DOCS;
+        long batchDelayMs = ReliableMulticast.DEFAULT_BATCH_DELAY_MS;
+        
         String barrelHost = "localhost";
         int barrelPort = 1099;
         
@@ -189,7 +203,8 @@ public class Downloader {
             numWorkers, 
             barrelHost, barrelPort, 
             numBarrels, 
-            queueHost, queuePort
+            queueHost, queuePort,
+            batchDocs, batchDelayMs
         );
         
         downloader.start();
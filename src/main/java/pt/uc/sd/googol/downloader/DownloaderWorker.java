@@ -15,6 +15,9 @@
  *     <li>Enviar um objeto {@link PageInfo} para o Barrel</li>
  * </ol>
  *
+ * <p>Se a página já não existir (HTTP 404 ou 410), os Barrels são avisados para a retirarem
+ * do índice, caso tenha sido indexada num crawl anterior.
+ *
  * <p>Os workers funcionam continuamente até serem interrompidos ou o sistema ser encerrado.
  *
  * @author Elemento 1: André Ramos (2023227306)
@@ -28,10 +31,11 @@ package pt.uc.sd.googol.downloader;
 import java.io.IOException;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -118,14 +122,9 @@ public class DownloaderWorker implements Runnable {
                         System.err.println("Worker " + workerId + " - Erro ao atualizar Queue: " + e.getMessage());
                     }
                     
-                    // 6. Enviar dados processados para os Barrels (Multicast)
+                    // 6. Enviar dados processados para os Barrels (Multicast, em lotes partilhados pelos workers)
                     if (multicast != null) {
-                        try {
-                            ReliableMulticast.MulticastResult result = multicast.sendDocument(pageInfo);
-                            // System.out.println("Worker " + workerId + " - " + result);
-                        } catch (Exception e) {
-                            System.err.println("Worker " + workerId + " - Multicast falhou: " + e.getMessage());
-                        }
+                        multicast.submit(pageInfo);
                     }
                 }
                 
@@ -145,7 +144,7 @@ public class DownloaderWorker implements Runnable {
      * @param url O endereço Web a descarregar.
      * @return Objeto {@link PageInfo} com os dados extraídos, ou null se houver erro.
      */
-    private PageInfo downloadAndParse(String url) {
+    private PageInfo downloadAndParse(String url) throws InterruptedException {
         try {
             Document doc = Jsoup.connect(url)
                     .timeout(5000)
@@ -154,7 +153,9 @@ public class DownloaderWorker implements Runnable {
             
             String title = doc.title();
             String text = doc.text();
-            Set<String> words = extractWords(text);
+            Map<String, Integer> words = extractWords(text);
+            int length = 0;
+            for (int count : words.values()) length += count;
             List<String> links = extractLinks(doc);
             
             // Cria um snippet (citação) curto
@@ -162,23 +163,43 @@ public class DownloaderWorker implements Runnable {
                 ? text.substring(0, 150) + "..." 
                 : text;
             
-            return new PageInfo(url, title, citation, words, links);
+            return new PageInfo(url, title, citation, words, length, links);
             
+        } catch (HttpStatusException e) {
+            if (e.getStatusCode() == 404 || e.getStatusCode() == 410) pageGone(url);
+            return null;
         } catch (IOException e) {
-            // Erros de IO (404, timeout) são comuns na web, retornamos null para seguir em frente
+            // Erros de IO (timeout, ligação recusada) são comuns na web, retornamos null para seguir em frente
             return null;
         }
     }
+
+    /**
+     * A página deixou de existir: marca o URL como visitado e pede aos Barrels que a retirem
+     * do índice (não tem efeito se nunca tiver sido indexada).
+     *
+     * @param url URL que devolveu 404 ou 410.
+     */
+    private void pageGone(String url) throws InterruptedException {
+        try {
+            urlQueue.markAsVisited(url);
+        } catch (RemoteException e) { /* Ignorar erro de conexão aqui */ }
+        if (multicast != null) {
+            multicast.sendRemoval(url);
+            if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+        }
+    }
     
     /**
-     * Extrai palavras do texto, limpando caracteres especiais e números.
+     * Extrai palavras do texto, limpando caracteres especiais e números, e conta quantas
+     * vezes cada uma aparece (frequência usada na pontuação BM25).
      * Suporta caracteres Unicode (acentos, alfabetos não latinos).
      *
      * @param text O texto puro da página.
-     * @return Conjunto de palavras únicas normalizadas.
+     * @return Palavras normalizadas e número de ocorrências de cada uma.
      */
-    private Set<String> extractWords(String text) {
-        Set<String> words = new HashSet<>();
+    private Map<String, Integer> extractWords(String text) {
+        Map<String, Integer> words = new HashMap<>();
         
         // Regex Unicode: \p{L} apanha qualquer letra em qualquer língua
         String[] tokens = text.toLowerCase().split("[^\\p{L}\\p{N}]+");
@@ -186,7 +207,7 @@ public class DownloaderWorker implements Runnable {
         for (String token : tokens) {
             // Aceita palavras com 2 ou mais letras (ex: "bi", "ai", "uc")
             if (token.length() >= 2) { 
-                words.add(token);
+                words.merge(token, 1, Integer::sum);
             }
         }
         return words;
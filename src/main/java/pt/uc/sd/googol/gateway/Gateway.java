@@ -24,6 +24,12 @@
  *      • Uma referência remota para o Downloader.
  *  - Implementa um esquema simples de balanceamento round-robin para
  *    distribuir as pesquisas pelos Barrels.
+ *  - Com o índice partido em shards (ver Shards), cada pesquisa é
+ *    enviada em paralelo a uma réplica de cada shard (scatter-gather)
+ *    e os melhores resultados de todos são juntados.
+ *  - Com o índice partido por termos, cada pesquisa só contacta os donos
+ *    dos seus termos: os candidatos do grupo de termos mais raro passam
+ *    de dono em dono e o último ordena-os (backlinks globais).
  *
  *  @Fluxo principal:
  *   1. Ao iniciar, conecta-se a cada Barrel indicado na lista de hosts.
@@ -32,10 +38,19 @@
  *
  *  @Métodos remotos:
  *   - search(String query):
- *       Recebe uma query textual, separa-a em termos e distribui a
- *       pesquisa por um dos Barrels (round-robin). Cada Barrel devolve
- *       uma lista de objetos SearchResult. Se um Barrel falhar, o Gateway
- *       tenta automaticamente o seguinte (failover simples).
+ *       Recebe uma query textual, separa-a em termos e envia a pesquisa
+ *       a uma réplica de cada shard (round-robin entre réplicas). Cada
+ *       Barrel devolve os seus melhores SearchResult e o Gateway junta-os
+ *       por relevância. Se uma réplica falhar, o Gateway tenta
+ *       automaticamente outra do mesmo shard (failover simples).
+ *       Se a pesquisa não encontrar nada e algum termo não existir em
+ *       nenhum shard, repete-a com as variantes desse termo (erros
+ *       ortográficos), as mesmas em todos os shards.
+ *
+ *   - suggest(String prefix, int k):
+ *       Autocompletar: pede a cada shard os termos mais frequentes com
+ *       o prefixo e reordena-os juntando a popularidade das pesquisas
+ *       (searchCounts). Guardado numa cache de vida curta.
  *
  *   - addURL(String url):
  *       Recebe um URL de um cliente e encaminha-o para o Downloader,
@@ -46,7 +61,8 @@
  *  - Cliente → Gateway:
  *        O cliente invoca remotamente search() e addURL().
  *  - Gateway → Barrel:
- *        O Gateway chama barrel.search(terms, page) via RMI.
+ *        O Gateway chama barrel.searchTopK(terms, offset, limit) via RMI
+ *        (uma réplica por shard, em paralelo).
  *  - Gateway → Downloader:
  *        O Gateway invoca downloader.addURL(url) via RMI.
  *
@@ -59,7 +75,6 @@
  *  @Planos futuros:
  *   - Implementar replicação de estado entre múltiplos Gateways.
  *   - Adicionar balanceamento de carga dinâmico (com base em métricas).
- *   - Implementar cache de queries frequentes para reduzir latência.
  *   - Detetar automaticamente novos Barrels registados no RMI Registry.
  *
  *  @Execução:
@@ -74,22 +89,38 @@
 
 package pt.uc.sd.googol.gateway;
 
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import pt.uc.sd.googol.barrel.BarrelInterface;
+import pt.uc.sd.googol.barrel.MatchChunk;
+import pt.uc.sd.googol.common.Shards;
 import pt.uc.sd.googol.queue.URLQueueInterface;
 
 public class Gateway extends UnicastRemoteObject implements GatewayInterface {
@@ -100,18 +131,51 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
     /** Índice para o algoritmo Round-Robin de balanceamento de carga. */
     private int currentBarrelIndex = 0;
     
+    /** Shard de cada Barrel conhecido ({shard, número de shards}), pedido uma vez. */
+    private final Map<BarrelInterface, int[]> shardOf = new ConcurrentHashMap<>();
+    
+    /** Pesquisas feitas aos Barrels e shards contactados no total (para comparar os modos de partição). */
+    private final AtomicLong shardSearches = new AtomicLong();
+    private final AtomicLong shardsContacted = new AtomicLong();
+    
+    /** Threads para enviar a mesma pesquisa a vários shards em paralelo. */
+    private final ExecutorService scatterPool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "gateway-scatter");
+        t.setDaemon(true);
+        return t;
+    });
+    
     /** Cache de resultados de pesquisa (Termo+Página -> Lista de Resultados). */
     private final Map<String, CachedResult> searchCache;
     
     /** Tempo de vida da cache (5 minutos). */
     private static final long CACHE_TTL_MS = 5 * 60 * 1000;
 
+    /** Cache de sugestões (Prefixo+k -> termos), com vida curta: o dicionário e as contagens mudam depressa. */
+    private final Map<String, CachedSuggestions> suggestCache = new ConcurrentHashMap<>();
+    private static final long SUGGEST_TTL_MS = 10 * 1000;
+    
+    /** Cada shard devolve este múltiplo de k candidatos, reordenados depois pela popularidade. */
+    private static final int SUGGEST_CANDIDATES = 4;
+    
+    /** Peso da popularidade (por unidade de ln(1 + pesquisas)) face a ln(1 + documentos). */
+    private static final double POPULARITY_WEIGHT = 2.0;
+
+    /** Máximo de variantes (de todos os shards) em que um termo inexistente é expandido. */
+    private static final int FUZZY_MAX_EXPANSIONS = 16;
+
+    /** URLs por bloco na interseção entre donos de termos (-Dgoogol.match.chunk). */
+    private static final int MATCH_CHUNK = (int) (long) Long.getLong("googol.match.chunk", 4096);
+
     /** Referência remota para a fila de URLs (para indexação manual). */
     private final URLQueueInterface urlQueue;
     
     /** Contador de pesquisas para o "Top 10". */
     private final Map<String, Integer> searchCounts;
     
+    /** Últimos contadores enviados por cada Barrel (evita pedir getStats a todos a cada aviso). */
+    private final Map<BarrelInterface, Stats> pushedStats = new ConcurrentHashMap<>();
+    
     /** Registo de tempos de resposta por Barrel para cálculo de latência média. */
     private final Map<Integer, List<Long>> responseTimes;
 
@@ -161,6 +225,8 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
 
     @Override
     public void unregisterBarrel(BarrelInterface barrel) throws RemoteException {
+        shardOf.remove(barrel);
+        pushedStats.remove(barrel);
         if (barrels.remove(barrel)) {
             System.out.println(" [Gateway] Barrel saiu. Restantes: " + barrels.size());
             
@@ -178,8 +244,9 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
     }
 
     @Override
-    public void barrelNotifyUpdate() throws RemoteException {
-        // Um Barrel avisou que indexou algo. Vamos verificar e notificar o WebServer.
+    public void barrelNotifyUpdate(BarrelInterface barrel, Stats stats) throws RemoteException {
+        // Um Barrel avisou que indexou algo (com os contadores). Notificar o WebServer sem consultar os Barrels.
+        pushedStats.put(barrel, stats);
         checkAndNotify(false, true);
     }
 
@@ -255,42 +322,374 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
         
         System.out.println(" Pesquisando: " + normalizedTerms + " (página " + page + ")");
         
-        // Escolher barrel (round-robin)
-        int barrelIdx = currentBarrelIndex; 
-        BarrelInterface barrel = getNextBarrel();
-        
         long startTime = System.currentTimeMillis();
         
-        try {
-            // 3. Pesquisar no barrel escolhido
-            List<SearchResult> results = barrel.search(normalizedTerms, page);
-            
-            // 4. Registar tempo de resposta para estatísticas
-            long duration = System.currentTimeMillis() - startTime;
-            responseTimes.computeIfAbsent(barrelIdx, k -> new CopyOnWriteArrayList<>()).add(duration);
+        Map<Integer, List<BarrelInterface>> groups = groupByShard();
+        List<SearchResult> results;
+        int contacted;
+        boolean complete;
+        if (partitionMode() == Shards.TERMS) {
+            // 3. Partição por termos: só os donos dos termos da pesquisa
+            contacted = ownersOf(normalizedTerms).size();
+            results = searchByTerms(groups, normalizedTerms, page);
+            complete = true;
+        } else {
+            // 3. Pesquisar numa réplica de cada shard: cada um devolve os seus melhores até ao fim
+            // da página pedida (com um só shard, basta pedir a própria página)
+            boolean single = groups.size() <= 1;
+            int offset = single ? page * 10 : 0;
+            int limit = single ? 10 : (page + 1) * 10;
+            Map<Integer, List<SearchResult>> perShard = scatter(barrel -> barrel.searchTopK(normalizedTerms, offset, limit));
             
-            // Guardar em cache
+            // 4. Juntar por pontuação
+            results = merge(perShard, page, single);
+            if (results.isEmpty()) {
+                // 5. Nada encontrado: pesquisa aproximada, se algum termo não existir em nenhum shard
+                Map<Integer, List<SearchResult>> fuzzy = searchFuzzy(normalizedTerms, offset, limit);
+                if (fuzzy != null) results = merge(fuzzy, page, single);
+            }
+            contacted = perShard.size();
+            complete = perShard.size() == shardCount();
+        }
+        shardSearches.incrementAndGet();
+        shardsContacted.addAndGet(contacted);
+        
+        long duration = System.currentTimeMillis() - startTime;
+        
+        // Guardar em cache (só resultados completos: um shard em falha não fica memorizado)
+        if (complete) {
             searchCache.put(cacheKey, new CachedResult(results));
-            
-            System.out.println(" Encontrados " + results.size() + " resultados em " + duration + "ms (Barrel " + barrelIdx + ")");
+        }
+        
+        System.out.println(" Encontrados " + results.size() + " resultados em " + duration + "ms (" + contacted + " shard(s))");
 
-            // Executa numa thread à parte para não atrasar a resposta ao utilizador
-            new Thread(() -> checkAndNotify(true)).start();
+        // Executa numa thread à parte para não atrasar a resposta ao utilizador
+        new Thread(() -> checkAndNotify(true)).start();
 
-            return results;
-            
-        } catch (RemoteException e) {
-            System.err.println(" Erro ao pesquisar no barrel: " + e.getMessage());
-            
-            // Tentar com outro barrel (Failover)
-            removeBarrel(barrel);
-            if (!barrels.isEmpty()) {
-                return search(terms, page); // Retry recursivo
+        return results;
+    }
+
+    /**
+     * Sugestões para a pesquisa enquanto se escreve.
+     * Cada shard devolve os termos com o prefixo que aparecem em mais documentos; o Gateway
+     * soma as frequências dos vários shards e ordena por ln(1 + documentos) mais
+     * {@value #POPULARITY_WEIGHT} * ln(1 + vezes que o termo foi pesquisado).
+     *
+     * @param prefix Prefixo escrito pelo utilizador.
+     * @param k Número máximo de sugestões.
+     * @return Termos sugeridos, do melhor para o pior.
+     * @throws RemoteException Se nenhum Barrel responder.
+     */
+    @Override
+    public List<String> suggest(String prefix, int k) throws RemoteException {
+        String normalized = prefix == null ? "" : prefix.trim().toLowerCase();
+        if (normalized.isEmpty() || k <= 0) {
+            return new ArrayList<>();
+        }
+        String cacheKey = normalized + ":" + k;
+        CachedSuggestions cached = suggestCache.get(cacheKey);
+        if (cached != null && !cached.isExpired()) {
+            return cached.terms;
+        }
+        
+        Map<Integer, Map<String, Integer>> perShard = scatter(barrel -> barrel.suggest(normalized, k * SUGGEST_CANDIDATES));
+        Map<String, Integer> documents = new HashMap<>();
+        for (Map<String, Integer> shardTerms : perShard.values()) {
+            shardTerms.forEach((term, docs) -> documents.merge(term, docs, Integer::sum));
+        }
+        List<String> terms = documents.keySet().stream()
+            .sorted(Comparator.comparingDouble((String term) -> -suggestionWeight(term, documents.get(term)))
+                .thenComparing(Comparator.naturalOrder()))
+            .limit(k)
+            .collect(Collectors.toList());
+        
+        // Só sugestões completas ficam em cache (um shard em falha não fica memorizado)
+        if (perShard.size() == shardCount()) {
+            suggestCache.put(cacheKey, new CachedSuggestions(terms));
+        }
+        return terms;
+    }
+
+    /** @return Peso de uma sugestão: documentos que a contêm e popularidade nas pesquisas. */
+    private double suggestionWeight(String term, int documents) {
+        return Math.log1p(documents) + POPULARITY_WEIGHT * Math.log1p(searchCounts.getOrDefault(term, 0));
+    }
+
+    /**
+     * Junta os resultados dos shards por pontuação (desempate pelo URL, para a ordem ser estável
+     * entre páginas) e devolve a página pedida.
+     *
+     * @param single true se só há um shard (que já devolveu a própria página).
+     */
+    private static List<SearchResult> merge(Map<Integer, List<SearchResult>> perShard, int page, boolean single) {
+        if (single) return perShard.values().iterator().next();
+        Map<String, SearchResult> merged = new LinkedHashMap<>();
+        perShard.values().stream()
+            .flatMap(List::stream)
+            .sorted(Comparator.comparingDouble(SearchResult::getScore).reversed().thenComparing(SearchResult::getUrl))
+            .forEach(r -> merged.putIfAbsent(r.getUrl(), r));
+        List<SearchResult> all = new ArrayList<>(merged.values());
+        return new ArrayList<>(all.subList(Math.min(all.size(), page * 10), Math.min(all.size(), page * 10 + 10)));
+    }
+
+    /**
+     * Pesquisa aproximada na partição por documentos. A decisão de corrigir um termo é tomada
+     * aqui e não em cada shard, para que todos pesquisem o mesmo: um termo só é expandido se
+     * não existir em nenhum shard que respondeu, e as suas variantes são a união das de cada
+     * shard (as de menos edições primeiro e, entre essas, as que aparecem em mais shards), até
+     * {@value #FUZZY_MAX_EXPANSIONS}. Os termos que existem nalgum shard ficam como estão.
+     *
+     * @return Resultados de cada shard, ou null se todos os termos existem (nada a corrigir).
+     * @throws RemoteException Se nenhum shard respondeu.
+     */
+    private Map<Integer, List<SearchResult>> searchFuzzy(List<String> terms, int offset, int limit) throws RemoteException {
+        Map<Integer, Map<String, Map<String, Integer>>> perShard = scatter(barrel -> barrel.expandTerms(terms));
+        Map<String, Map<String, Integer>> expansions = new HashMap<>();
+        for (String term : new LinkedHashSet<>(terms)) {
+            Map<String, Integer> edits = new HashMap<>();
+            Map<String, Integer> shards = new HashMap<>();
+            for (Map<String, Map<String, Integer>> shard : perShard.values()) {
+                shard.getOrDefault(term, Map.of()).forEach((variant, d) -> {
+                    edits.merge(variant, d, Math::min);
+                    shards.merge(variant, 1, Integer::sum);
+                });
+            }
+            if (Integer.valueOf(0).equals(edits.get(term))) continue; // existe nalgum shard
+            if (edits.isEmpty()) return new TreeMap<>(); // sem variantes: nenhum documento
+            Map<String, Integer> best = new LinkedHashMap<>();
+            edits.keySet().stream()
+                .sorted(Comparator.comparing((String variant) -> edits.get(variant))
+                    .thenComparing(variant -> -shards.get(variant))
+                    .thenComparing(Comparator.naturalOrder()))
+                .limit(FUZZY_MAX_EXPANSIONS)
+                .forEach(variant -> best.put(variant, edits.get(variant)));
+            expansions.put(term, best);
+        }
+        if (expansions.isEmpty()) return null;
+        return scatter(barrel -> barrel.searchFuzzy(terms, expansions, offset, limit));
+    }
+
+    /**
+     * Pesquisa na partição por termos. Os termos são agrupados pelo shard dono; se houver um só
+     * dono, é uma pesquisa normal nesse shard. Caso contrário, a interseção começa no grupo com
+     * menos resultados estimados (estimativas pedidas em paralelo): os URLs desse grupo vêm em
+     * blocos de até {@code MATCH_CHUNK}, cada bloco passa pelos donos seguintes, que o filtram,
+     * e o último devolve os melhores candidatos do bloco; o Gateway junta os de todos os blocos.
+     * Cada dono soma a parte BM25 dos seus termos à de cada candidato, por isso a ordem final
+     * usa a pontuação de todos os termos da pesquisa.
+     * Todos os Barrels conhecem todas as páginas e links, por isso qualquer dono tem o título,
+     * o excerto e o número global de backlinks de cada resultado.
+     * <p>
+     * Nesta partição não há pesquisa aproximada: as variantes de um termo pertencem em geral a
+     * outros donos, e a interseção em cadeia não sabe unir listas de vários shards. Um termo
+     * que não existe dá um resultado vazio.
+     *
+     * @throws RemoteException Se algum dos donos dos termos não estiver disponível.
+     */
+    private List<SearchResult> searchByTerms(Map<Integer, List<BarrelInterface>> groups, List<String> terms, int page) throws RemoteException {
+        Map<Integer, List<String>> owners = ownersOf(terms);
+        for (Map.Entry<Integer, List<String>> owner : owners.entrySet()) {
+            if (!groups.containsKey(owner.getKey())) {
+                throw new RemoteException("Shard " + owner.getKey() + " indisponível (termos " + owner.getValue() + ")");
+            }
+        }
+        int turn = nextTurn();
+        if (owners.size() == 1) {
+            Map.Entry<Integer, List<String>> only = owners.entrySet().iterator().next();
+            return callShard(only.getKey(), groups.get(only.getKey()), turn,
+                barrel -> barrel.searchTopK(only.getValue(), page * 10, 10));
+        }
+        
+        // 1. Estimativas em paralelo, para começar pelo grupo mais raro
+        Map<Integer, Future<Integer>> estimates = new TreeMap<>();
+        for (Map.Entry<Integer, List<String>> owner : owners.entrySet()) {
+            estimates.put(owner.getKey(), scatterPool.submit(() -> callShard(owner.getKey(), groups.get(owner.getKey()), turn,
+                barrel -> barrel.estimateMatches(owner.getValue()))));
+        }
+        Map<Integer, Integer> sizes = new HashMap<>();
+        for (Map.Entry<Integer, Future<Integer>> estimate : estimates.entrySet()) {
+            sizes.put(estimate.getKey(), await(estimate.getValue()));
+        }
+        List<Integer> order = new ArrayList<>(owners.keySet());
+        order.sort(Comparator.comparing(sizes::get));
+        
+        // 2. Interseção em cadeia, bloco a bloco: cada dono filtra os candidatos do anterior
+        // Os candidatos levam a soma das partes BM25 dos termos já filtrados
+        int first = order.get(0);
+        int last = order.get(order.size() - 1);
+        List<SearchResult> best = new ArrayList<>();
+        MatchChunk chunk;
+        int cursor = 0;
+        do {
+            int from = cursor;
+            chunk = callShard(first, groups.get(first), turn, barrel -> barrel.matchChunk(owners.get(first), from, MATCH_CHUNK));
+            cursor = chunk.next;
+            Map<String, Double> candidates = chunk.scores;
+            for (int i = 1; i < order.size() - 1 && !candidates.isEmpty(); i++) {
+                int shard = order.get(i);
+                Map<String, Double> previous = candidates;
+                candidates = callShard(shard, groups.get(shard), turn, barrel -> barrel.matchUrls(owners.get(shard), previous));
+            }
+            if (candidates.isEmpty()) continue;
+            // 3. O último dono devolve os melhores do bloco até ao fim da página pedida
+            Map<String, Double> finalists = candidates;
+            best.addAll(callShard(last, groups.get(last), turn,
+                barrel -> barrel.searchWithin(owners.get(last), finalists, 0, (page + 1) * 10)));
+        } while (!chunk.isLast());
+        return merge(Map.of(first, best), page, false);
+    }
+
+    /** @return Termos distintos agrupados pelo shard dono (partição por termos). */
+    private Map<Integer, List<String>> ownersOf(List<String> terms) {
+        int shards = shardCount();
+        Map<Integer, List<String>> owners = new TreeMap<>();
+        for (String term : new LinkedHashSet<>(terms)) {
+            owners.computeIfAbsent(Shards.ofTerm(term, shards), k -> new ArrayList<>()).add(term);
+        }
+        return owners;
+    }
+
+    /** Operação remota a executar num Barrel (ex: pesquisa num shard). */
+    @FunctionalInterface
+    private interface BarrelCall<T> {
+        T call(BarrelInterface barrel) throws RemoteException;
+    }
+
+    /**
+     * Executa uma operação numa réplica de cada shard, em paralelo (scatter-gather).
+     * Em cada shard as réplicas são tentadas por ordem round-robin; uma réplica que falhe é
+     * removida e passa-se à seguinte. Regista o tempo de resposta de cada Barrel usado.
+     *
+     * @param call Operação a executar.
+     * @return Resultado de cada shard que respondeu (shard -> resultado).
+     * @throws RemoteException Se nenhum shard respondeu.
+     */
+    private <T> Map<Integer, T> scatter(BarrelCall<T> call) throws RemoteException {
+        Map<Integer, List<BarrelInterface>> groups = groupByShard();
+        if (groups.isEmpty()) {
+            throw new RemoteException("Nenhum barrel disponível");
+        }
+        int turn = nextTurn();
+        
+        Map<Integer, Future<T>> futures = new TreeMap<>();
+        for (Map.Entry<Integer, List<BarrelInterface>> group : groups.entrySet()) {
+            futures.put(group.getKey(), scatterPool.submit(() -> callShard(group.getKey(), group.getValue(), turn, call)));
+        }
+        
+        Map<Integer, T> results = new TreeMap<>();
+        RemoteException failure = null;
+        for (Map.Entry<Integer, Future<T>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                System.err.println(" [Gateway] Shard " + entry.getKey() + " indisponível: resultados parciais");
+                failure = e.getCause() instanceof RemoteException re ? re : new RemoteException("Falha no shard " + entry.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Pesquisa interrompida", e);
+            }
+        }
+        if (results.isEmpty()) throw failure;
+        return results;
+    }
+
+    /**
+     * Executa uma operação numa réplica de um shard. As réplicas são tentadas por ordem
+     * round-robin (a partir de {@code turn}); se uma réplica falhar passa-se à seguinte, e só
+     * é removida se estiver inacessível ({@link #unreachable}). Regista o tempo de resposta do
+     * Barrel usado.
+     *
+     * @throws RemoteException A falha da última réplica, se nenhuma respondeu.
+     */
+    private <T> T callShard(int shard, List<BarrelInterface> replicas, int turn, BarrelCall<T> call) throws RemoteException {
+        RemoteException last = new RemoteException("Nenhuma réplica do shard " + shard);
+        for (int i = 0; i < replicas.size(); i++) {
+            BarrelInterface barrel = replicas.get(Math.floorMod(turn + i, replicas.size()));
+            long start = System.currentTimeMillis();
+            try {
+                T result = call.call(barrel);
+                int barrelIdx = barrels.indexOf(barrel);
+                if (barrelIdx >= 0) {
+                    responseTimes.computeIfAbsent(barrelIdx, k -> new CopyOnWriteArrayList<>()).add(System.currentTimeMillis() - start);
+                }
+                return result;
+            } catch (RemoteException e) {
+                System.err.println(" Erro no barrel (shard " + shard + "): " + e.getMessage());
+                if (unreachable(e)) removeBarrel(barrel);
+                last = e;
             }
-            throw e;
+        }
+        throw last;
+    }
+
+    /**
+     * Distingue um Barrel em baixo (ligação recusada, objeto já não exportado, resposta
+     * cortada) de um erro no próprio pedido, que não justifica tirá-lo da lista.
+     *
+     * @return true se a falha indica que o Barrel está inacessível.
+     */
+    private static boolean unreachable(RemoteException e) {
+        return e instanceof ConnectException || e instanceof ConnectIOException
+                || e instanceof NoSuchObjectException || e instanceof UnmarshalException;
+    }
+
+    /** @return Vez seguinte do round-robin entre réplicas. */
+    private synchronized int nextTurn() {
+        return currentBarrelIndex++;
+    }
+
+    /** Espera pelo resultado de uma operação num shard, devolvendo a falha como RemoteException. */
+    private static <T> T await(Future<T> future) throws RemoteException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RemoteException re ? re : new RemoteException("Falha num shard", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Pesquisa interrompida", e);
         }
     }
 
+    /**
+     * Agrupa os Barrels ativos por shard. O shard de cada Barrel é pedido na primeira vez
+     * (Barrels inacessíveis são removidos; os que falham por outro motivo ficam de fora só
+     * desta vez).
+     *
+     * @return Réplicas de cada shard (shard -> Barrels), por ordem de shard.
+     */
+    private Map<Integer, List<BarrelInterface>> groupByShard() {
+        Map<Integer, List<BarrelInterface>> groups = new TreeMap<>();
+        for (BarrelInterface barrel : new ArrayList<>(barrels)) {
+            int[] shard = shardOf.get(barrel);
+            if (shard == null) {
+                try {
+                    shard = barrel.getShard();
+                    shardOf.put(barrel, shard);
+                } catch (RemoteException e) {
+                    if (unreachable(e)) removeBarrel(barrel);
+                    continue;
+                }
+            }
+            groups.computeIfAbsent(shard[0], k -> new ArrayList<>()).add(barrel);
+        }
+        return groups;
+    }
+
+    /** @return Modo de partição anunciado pelos Barrels ({@link Shards#DOCUMENTS} se ainda não há nenhum). */
+    private int partitionMode() {
+        for (int[] shard : shardOf.values()) {
+            if (shard.length > 2 && shard[2] == Shards.TERMS) return Shards.TERMS;
+        }
+        return Shards.DOCUMENTS;
+    }
+
+    /** @return Número de shards anunciado pelos Barrels (1 se ainda não há nenhum). */
+    private int shardCount() {
+        int count = 1;
+        for (int[] shard : shardOf.values()) count = Math.max(count, shard[1]);
+        return count;
+    }
+
     private synchronized void checkAndNotify(boolean checkRanking) {
         checkAndNotify(checkRanking, false); // Chama versão com força = false
     }
@@ -448,10 +847,15 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
             double avgTime = 0.0;
     
             try {
-                // Tenta obter dados via RMI
-                String s = barrels.get(i).getStats(); // Ex: "[Barrel0] P:150 | T:300"
+                // Contadores enviados pelo próprio Barrel no último aviso; senão, pedir via RMI
+                Stats pushed = pushedStats.get(barrels.get(i));
+                String s = pushed != null ? null : barrels.get(i).getStats(); // Ex: "[Barrel0] P:150 | T:300"
                 
-                if (s != null) {
+                if (pushed != null) {
+                    name = pushed.getServerName();
+                    urls = pushed.getIndexedUrls();
+                    words = pushed.getIndexedWords();
+                } else if (s != null) {
                     // --- CORREÇÃO AQUI (USAR REGEX) ---
                     
                     // 1. Extrair Nome Real [BarrelX]
@@ -525,28 +929,27 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
             variations.add(url + "/");
         }
 
-        // Tentar obter de um barrel (com failover)
-        int attempts = 0;
-        while (attempts < barrels.size()) {
-            BarrelInterface barrel = getNextBarrel();
-            try {
-                for (String v : variations) {
-                    List<String> res = barrel.getBacklinks(v);
-                    if (!res.isEmpty()) {
-                        System.out.println(" Encontrados backlinks para variação: " + v);
-                        return res;
-                    }
+        // As páginas que apontam para o URL podem estar em qualquer shard: juntar todos (com failover).
+        // Na partição por termos todos os Barrels têm todos os links e basta um shard.
+        Map<Integer, List<BarrelInterface>> groups = groupByShard();
+        if (groups.isEmpty()) throw new RemoteException("Nenhum barrel disponível para backlinks");
+        boolean anyShard = partitionMode() == Shards.TERMS;
+        for (String v : variations) {
+            Set<String> res = new LinkedHashSet<>();
+            if (anyShard) {
+                Map.Entry<Integer, List<BarrelInterface>> group = groups.entrySet().iterator().next();
+                res.addAll(callShard(group.getKey(), group.getValue(), nextTurn(), barrel -> barrel.getBacklinks(v)));
+            } else {
+                for (List<String> shardRes : scatter(barrel -> barrel.getBacklinks(v)).values()) {
+                    res.addAll(shardRes);
                 }
-                return new ArrayList<>(); 
-                
-            } catch (RemoteException e) {
-                System.err.println(" Erro no barrel (backlinks). Tentando outro...");
-                removeBarrel(barrel);
-                attempts++;
+            }
+            if (!res.isEmpty()) {
+                System.out.println(" Encontrados backlinks para variação: " + v);
+                return new ArrayList<>(res);
             }
         }
-        
-        throw new RemoteException("Nenhum barrel disponível para backlinks");
+        return new ArrayList<>();
     }
     
     /**
@@ -562,7 +965,11 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
         StringBuilder stats = new StringBuilder();
         stats.append("=== Estatísticas do Sistema ===\n");
         stats.append("Barrels ativos: ").append(barrels.size()).append("\n");
-        stats.append("Entradas em cache: ").append(searchCache.size()).append("\n\n");
+        stats.append("Entradas em cache: ").append(searchCache.size()).append("\n");
+        long searches = shardSearches.get();
+        stats.append(String.format(Locale.US, "Shards contactados por pesquisa: %.2f (%s, %d pesquisas)\n\n",
+            searches == 0 ? 0.0 : (double) shardsContacted.get() / searches,
+            partitionMode() == Shards.TERMS ? "partição por termos" : "partição por documentos", searches));
         
         // TOP 10 Pesquisas
         stats.append("--- Top 10 Pesquisas ---\n");
@@ -619,32 +1026,17 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
         return "Gateway OK - " + barrels.size() + " barrels disponíveis";
     }
 
-    /** Remove entradas expiradas da cache de pesquisa. */
+    /** Remove entradas expiradas das caches de pesquisa e de sugestões. */
     private void cleanExpiredCache() {
         searchCache.entrySet().removeIf(entry -> entry.getValue().isExpired());
-    }
-    
-    /**
-     * Seleciona o próximo Barrel disponível usando Round-Robin.
-     * @return Interface do Barrel escolhido.
-     * @throws RemoteException Se não houver Barrels disponíveis.
-     */
-    private synchronized BarrelInterface getNextBarrel() throws RemoteException {
-        if (barrels.isEmpty()) {
-            throw new RemoteException("Nenhum barrel disponível");
-        }
-        if (currentBarrelIndex >= barrels.size()) {
-            currentBarrelIndex = 0;
-        }
-        
-        BarrelInterface barrel = barrels.get(currentBarrelIndex);
-        currentBarrelIndex = (currentBarrelIndex + 1) % barrels.size();
-        return barrel;
+        suggestCache.entrySet().removeIf(entry -> entry.getValue().isExpired());
     }
     
     /** Remove um Barrel falhado da lista de ativos. */
     private synchronized void removeBarrel(BarrelInterface barrel) {
         barrels.remove(barrel);
+        shardOf.remove(barrel);
+        pushedStats.remove(barrel);
         System.err.println(" Barrel removido. Restantes: " + barrels.size());
     }
 
@@ -683,6 +1075,21 @@ public class Gateway extends UnicastRemoteObject implements GatewayInterface {
         }
     }
     
+    /** Sugestões em cache com timestamp (vida de {@value #SUGGEST_TTL_MS} ms). */
+    private static class CachedSuggestions {
+        final List<String> terms;
+        final long timestamp;
+        
+        CachedSuggestions(List<String> terms) {
+            this.terms = terms;
+            this.timestamp = System.currentTimeMillis();
+        }
+        
+        boolean isExpired() {
+            return (System.currentTimeMillis() - timestamp) > SUGGEST_TTL_MS;
+        }
+    }
+    
     /**
      * Ponto de entrada do Gateway.
      * Configura o RMI, descobre os Barrels e a Queue, e inicia o serviço.
@@ -67,6 +67,18 @@ public interface GatewayInterface extends Remote {
      */
     List<SearchResult> search(List<String> terms, int page) throws RemoteException;
     
+    /**
+     * Sugere termos para a pesquisa enquanto o utilizador escreve (autocompletar).
+     * Os termos que começam pelo prefixo são ordenados pelo número de documentos que os
+     * contêm e pela frequência com que já foram pesquisados.
+     *
+     * @param prefix Prefixo escrito pelo utilizador.
+     * @param k Número máximo de sugestões.
+     * @return Termos sugeridos, do mais relevante para o menos relevante.
+     * @throws RemoteException Se ocorrer um erro na comunicação com o Gateway ou Barrels.
+     */
+    List<String> suggest(String prefix, int k) throws RemoteException;
+
     /**
      * Obtém a lista de páginas que contêm hiperligações para o URL especificado.
      *
@@ -122,8 +134,9 @@ public interface GatewayInterface extends Remote {
     // WebServer chama isto para começar a receber atualizações
     void registerListener(StatsListener listener) throws RemoteException;
 
-    // Barrels chamam isto para avisar que indexaram algo novo
-    void barrelNotifyUpdate() throws RemoteException;
+    // Barrels chamam isto para avisar que indexaram algo novo (com os contadores atuais,
+    // agrupado e limitado no Barrel: ver ChangeNotifier)
+    void barrelNotifyUpdate(pt.uc.sd.googol.barrel.BarrelInterface barrel, Stats stats) throws RemoteException;
 
     // O Barrel chama isto quando arranca
     void registerBarrel(pt.uc.sd.googol.barrel.BarrelInterface barrel) throws java.rmi.RemoteException;
@@ -26,7 +26,9 @@
  *  - URL da página encontrada.
  *  - Título da página.
  *  - Excerto textual (snippet) relevante para a query.
- *  - Pontuação de relevância (ex.: baseada em backlinks).
+ *  - Número de backlinks da página (relevância).
+ *  - Pontuação da pesquisa (BM25 dos termos somado ao peso dos backlinks),
+ *    usada pelo Gateway para juntar os resultados de vários shards.
  *
  *  @Notas de desenho:
  *  - Esta classe segue o padrão DTO (Data Transfer Object).
@@ -51,6 +53,7 @@ public class SearchResult implements Serializable {
     private final String title;
     private final String snippet;
     private final int relevance;
+    private final double score;
     
     /**
      * Constrói um novo resultado de pesquisa.
@@ -65,6 +68,24 @@ public class SearchResult implements Serializable {
         this.title = title;
         this.snippet = snippet;
         this.relevance = relevance;
+        this.score = relevance;
+    }
+
+    /**
+     * Constrói um novo resultado de pesquisa com a pontuação calculada pelo Barrel.
+     *
+     * @param url O endereço Web da página encontrada.
+     * @param title O título da página.
+     * @param snippet Uma breve citação ou excerto do texto da página.
+     * @param relevance O número de backlinks da página.
+     * @param score A pontuação da página para a pesquisa (BM25 e backlinks).
+     */
+    public SearchResult(String url, String title, String snippet, int relevance, double score) {
+        this.url = url;
+        this.title = title;
+        this.snippet = snippet;
+        this.relevance = relevance;
+        this.score = score;
     }
     
     /**
@@ -90,6 +111,12 @@ public class SearchResult implements Serializable {
      * @return Inteiro representando a importância da página (ex: contagem de backlinks).
      */
     public int getRelevance() { return relevance; }
+
+    /**
+     * Obtém a pontuação do resultado para a pesquisa (ordem dos resultados).
+     * @return Pontuação BM25 somada ao peso dos backlinks.
+     */
+    public double getScore() { return score; }
     
     /**
      * Retorna uma representação formatada do resultado para exibição na consola.
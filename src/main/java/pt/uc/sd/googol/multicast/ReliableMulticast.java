@@ -58,6 +58,29 @@
  *   7. Caso contrário, devolve um {@code MulticastResult} com o nº
  *      de entregas bem-sucedidas e falhadas.
  *
+ *  @Lotes:
+ *   As páginas de todos os workers são entregues a submit() e juntadas
+ *   num lote até `maxBatchDocs` páginas ou `maxBatchDelayMs` desde a
+ *   primeira. Cada Barrel recebe o lote numa só chamada addDocuments
+ *   (um round-trip RMI e um fsync do log por lote), e os Barrels são
+ *   contactados em paralelo. A fila é limitada: se os Barrels não
+ *   acompanharem, submit() bloqueia os workers.
+ *
+ *  @Sharding:
+ *   Com o índice partido em shards (ver {@link pt.uc.sd.googol.common.Shards}),
+ *   cada página só é enviada às réplicas do shard do seu URL. O shard de
+ *   cada Barrel é pedido uma vez (getShard) e guardado com a referência.
+ *   Na partição por termos todos os Barrels recebem todas as páginas
+ *   (cada um indexa só as palavras dos seus termos).
+ *
+ *  @Remoções:
+ *   sendRemoval(url) pede às réplicas do URL que retirem a página do
+ *   índice (404/410 num novo crawl). Antes espera que as páginas
+ *   submetidas até esse momento sejam enviadas (cada página tem o número
+ *   da sua posição na fila), para que uma versão antiga da página não
+ *   chegue aos Barrels depois da remoção; páginas submetidas depois pelos
+ *   outros workers não atrasam a remoção.
+ *
  *  @Integração no projeto:
  *   - Esta classe deve ser usada pelo **Downloader** (ou pelo
  *     coordenador de download) em vez de chamar diretamente
@@ -84,13 +107,26 @@ import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import pt.uc.sd.googol.barrel.BarrelInterface;
 import pt.uc.sd.googol.common.PageInfo;
+import pt.uc.sd.googol.common.Shards;
 
 
 public class ReliableMulticast {
@@ -98,75 +134,392 @@ public class ReliableMulticast {
     /** Lista thread-safe de interfaces RMI para os Barrels conhecidos. */
     private final List<BarrelInterface> barrels;
     
+    /** Shard de cada Barrel conhecido ({shard, número de shards}). */
+    private final Map<BarrelInterface, int[]> shardOf = new ConcurrentHashMap<>();
+    
     /** Cache de IDs de mensagens enviadas para evitar processamento duplicado local. */
     private final Set<String> sentMessages = ConcurrentHashMap.newKeySet();
     
+    /** Valores por omissão da janela de lotes. */
+    public static final int DEFAULT_BATCH_DOCS = 64;
+    public static final long DEFAULT_BATCH_DELAY_MS = 100;
+    /** Tempo máximo de espera pelas páginas anteriores antes de enviar uma remoção. */
+    private static final long REMOVAL_FLUSH_TIMEOUT_MS = 10000;
+    
+    /** Janela de lotes: máximo de páginas por lote e espera máxima desde a primeira página. */
+    private final int maxBatchDocs;
+    private final long maxBatchDelayMs;
+    
+    /** Páginas à espera de lote (limitada: submit bloqueia quando está cheia). */
+    private final BlockingQueue<PageInfo> pending;
+    
     /**
-     * Construtor do ReliableMulticast.
-     * Inicializa a lista de barrels.
+     * Posição na fila: número de páginas já postas em {@code pending} (a fila é FIFO e os
+     * lotes são enviados pela ordem em que saem dela) e número de páginas, pela mesma ordem,
+     * cujo lote já foi tratado (protegido por {@code this}).
+     */
+    private final Object enqueueLock = new Object();
+    private final AtomicLong enqueued = new AtomicLong();
+    private long sentUpTo = 0;
+    
+    /** Lotes enviados e páginas neles (para o tamanho médio dos lotes). */
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedPages = new AtomicLong();
+    
+    /** Threads para enviar o mesmo lote a vários Barrels em paralelo. */
+    private final ExecutorService senders = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "multicast-send");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    /**
+     * Construtor do ReliableMulticast, com a janela de lotes por omissão.
      *
      * @param barrels Lista inicial de interfaces RMI para os Barrels.
      */
     public ReliableMulticast(List<BarrelInterface> barrels) {
+        this(barrels, DEFAULT_BATCH_DOCS, DEFAULT_BATCH_DELAY_MS);
+    }
+    
+    /**
+     * Construtor do ReliableMulticast.
+     * Inicializa a lista de barrels e a thread que forma e envia os lotes.
+     *
+     * @param barrels Lista inicial de interfaces RMI para os Barrels.
+     * @param maxBatchDocs Número máximo de páginas por lote.
+     * @param maxBatchDelayMs Tempo máximo que uma página espera pelo seu lote.
+     */
+    public ReliableMulticast(List<BarrelInterface> barrels, int maxBatchDocs, long maxBatchDelayMs) {
         this.barrels = new CopyOnWriteArrayList<>(barrels);
+        this.maxBatchDocs = Math.max(1, maxBatchDocs);
+        this.maxBatchDelayMs = Math.max(0, maxBatchDelayMs);
+        this.pending = new LinkedBlockingQueue<>(4 * this.maxBatchDocs);
+        
+        Thread batcher = new Thread(this::batchLoop, "multicast-batch");
+        batcher.setDaemon(true);
+        batcher.start();
+        
         // Se a lista vier vazia, não faz mal, vamos tentar descobrir depois
-        System.out.println(" Reliable Multicast inicializado.");
+        System.out.println(" Reliable Multicast inicializado (lotes até " + this.maxBatchDocs + " páginas / "
+            + this.maxBatchDelayMs + " ms).");
     }
     
     /**
-     * Envia um documento (PageInfo) para todos os Barrels registados.
-     * <p>
-     * Implementa lógica de "best-effort" com recuperação: se um envio falhar,
-     * o sistema tenta atualizar a referência RMI desse Barrel e tentar novamente.
+     * Entrega uma página para envio no próximo lote (usado pelos workers do Downloader).
+     * Não espera pelo envio; bloqueia apenas se já houver muitas páginas por enviar.
+     *
+     * @param page Página a indexar.
+     * @throws InterruptedException Se a thread for interrompida à espera de espaço na fila.
+     */
+    public void submit(PageInfo page) throws InterruptedException {
+        // A posição tem de ser a ordem real na fila: pôr e contar juntos
+        synchronized (enqueueLock) {
+            pending.put(page);
+            enqueued.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Espera até todas as páginas submetidas terem sido enviadas (ex: no fim do Downloader).
+     *
+     * @param timeoutMs Tempo máximo de espera.
+     * @return true se não ficou nada por enviar.
+     * @throws InterruptedException Se a thread for interrompida.
+     */
+    public boolean flush(long timeoutMs) throws InterruptedException {
+        return awaitSent(enqueued.get(), timeoutMs);
+    }
+    
+    /**
+     * Espera até as primeiras {@code position} páginas da fila terem sido enviadas.
+     *
+     * @return true se foram enviadas dentro do tempo.
+     */
+    private synchronized boolean awaitSent(long position, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (sentUpTo < position) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
+        }
+        return true;
+    }
+    
+    private synchronized void sent(int count) {
+        sentUpTo += count;
+        notifyAll();
+    }
+    
+    /**
+     * Forma os lotes: espera pela primeira página e junta as seguintes até o lote encher
+     * ou a janela da primeira expirar.
+     */
+    private void batchLoop() {
+        while (true) {
+            List<PageInfo> batch = new ArrayList<>();
+            try {
+                batch.add(pending.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMs);
+                while (batch.size() < maxBatchDocs) {
+                    pending.drainTo(batch, maxBatchDocs - batch.size());
+                    long left = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchDocs || left <= 0) break;
+                    PageInfo next = pending.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                sent(batch.size());
+                return;
+            }
+            try {
+                sendBatch(batch);
+            } catch (RuntimeException e) {
+                System.err.println(" [Multicast] Erro ao enviar lote: " + e.getMessage());
+            } finally {
+                sent(batch.size());
+            }
+        }
+    }
+    
+    /**
+     * Envia um documento (PageInfo) para todos os Barrels registados, sem esperar por um lote.
      *
      * @param page O objeto PageInfo contendo os dados da página a indexar.
      * @return Um objeto {@link MulticastResult} com o resumo do envio (sucessos/falhas).
      */
     public MulticastResult sendDocument(PageInfo page) {
         String messageId = page.getUrl() + ":" + System.currentTimeMillis();
-        if (sentMessages.contains(messageId)) return new MulticastResult(true, 0, 0);
+        if (sentMessages.contains(messageId)) return new MulticastResult(true, 0, 0, 0);
+        
+        MulticastResult result = sendBatch(List.of(page));
         
+        if (sentMessages.size() > 1000) sentMessages.clear();
+        sentMessages.add(messageId);
+        return result;
+    }
+    
+    /**
+     * Envia um lote de páginas: cada Barrel recebe, numa só chamada, as páginas do(s) seu(s)
+     * shard(s), e todos os Barrels são contactados em paralelo.
+     * <p>
+     * Implementa lógica de "best-effort" com recuperação: se o envio a algum Barrel falhar
+     * (ou algum Barrel não responder ao pedido do seu shard), a lista de referências RMI é
+     * atualizada e as páginas afetadas são reenviadas (uma vez) às réplicas que ainda não as
+     * confirmaram. Uma página que nenhuma réplica confirmou conta como perdida, mesmo que o
+     * Barrel que falhou já não esteja registado.
+     *
+     * @param pages Páginas do lote.
+     * @return Um objeto {@link MulticastResult} com o resumo do envio (Barrels com sucesso/falha
+     *         e páginas perdidas).
+     */
+    public MulticastResult sendBatch(List<PageInfo> pages) {
         // --- CORREÇÃO: Se não temos barrels, tenta procurar agora ---
         if (barrels.isEmpty()) {
             refreshBarrels();
             if (barrels.isEmpty()) {
-                System.err.println(" [Multicast] AVISO: Nenhum barrel encontrado. Dados perdidos: " + page.getUrl());
-                return new MulticastResult(false, 0, 0);
+                System.err.println(" [Multicast] AVISO: Nenhum barrel encontrado. Dados perdidos: " + pages.size() + " página(s)");
+                return new MulticastResult(false, 0, 0, pages.size());
             }
         }
+        batches.incrementAndGet();
+        batchedPages.addAndGet(pages.size());
         
-        int successCount = 0;
-        int failCount = 0;
+        Set<BarrelInterface> failed = new LinkedHashSet<>();
+        Map<BarrelInterface, List<PageInfo>> assigned = assign(pages, failed);
+        Set<BarrelInterface> delivered = deliver(assigned);
+        Set<PageInfo> confirmed = new HashSet<>();
+        for (BarrelInterface barrel : assigned.keySet()) {
+            if (delivered.contains(barrel)) confirmed.addAll(assigned.get(barrel));
+            else failed.add(barrel);
+        }
         
-        // Tenta enviar para todos
-        for (int i = 0; i < barrels.size(); i++) {
+        if (!failed.isEmpty()) {
+            // Se falhar, tenta refrescar a lista e reenviar as páginas dos envios falhados
+            // (todas, se houve Barrels sem shard conhecido: podiam ser réplicas de qualquer uma)
+            refreshBarrels();
+            boolean unknownShard = false;
+            Set<PageInfo> retry = new LinkedHashSet<>();
+            for (BarrelInterface barrel : failed) {
+                List<PageInfo> sent = assigned.get(barrel);
+                if (sent != null) retry.addAll(sent);
+                else unknownShard = true;
+            }
+            List<PageInfo> resend = unknownShard ? pages : new ArrayList<>(retry);
+            // Os Barrels que falham agora (ou que falharam e já não estão registados)
+            Set<BarrelInterface> stillFailed = new LinkedHashSet<>();
+            Map<BarrelInterface, List<PageInfo>> again = assign(resend, stillFailed);
+            again.keySet().removeAll(delivered);
+            Set<BarrelInterface> recovered = deliver(again);
+            for (BarrelInterface barrel : again.keySet()) {
+                if (recovered.contains(barrel)) confirmed.addAll(again.get(barrel));
+                else stillFailed.add(barrel);
+            }
+            for (BarrelInterface barrel : failed) {
+                if (assigned.containsKey(barrel) && !recovered.contains(barrel)) stillFailed.add(barrel);
+            }
+            failed = stillFailed;
+            delivered.addAll(recovered);
+        }
+        
+        int lost = 0;
+        for (PageInfo page : pages) {
+            if (!confirmed.contains(page)) lost++;
+        }
+        if (lost > 0) {
+            System.err.println(" [Multicast] AVISO: " + lost + " página(s) sem nenhuma réplica confirmada");
+        }
+        return new MulticastResult(lost == 0, delivered.size(), failed.size(), lost);
+    }
+    
+    /**
+     * Remove uma página de todas as réplicas do seu shard (a página deixou de existir).
+     * As páginas submetidas antes da remoção são enviadas primeiro, para que a remoção não seja
+     * ultrapassada por uma versão anterior da mesma página; as que chegam depois não a atrasam.
+     * Se alguma réplica falhar, a lista de Barrels é atualizada e a remoção é repetida (uma vez)
+     * nas que ainda não a confirmaram.
+     *
+     * @param url URL da página removida.
+     * @return Um objeto {@link MulticastResult} com o resumo do envio.
+     */
+    public MulticastResult sendRemoval(String url) {
+        try {
+            if (!awaitSent(enqueued.get(), REMOVAL_FLUSH_TIMEOUT_MS)) {
+                System.err.println(" [Multicast] AVISO: páginas anteriores não enviadas antes da remoção de " + url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new MulticastResult(false, 0, 0, 1);
+        }
+        if (barrels.isEmpty()) refreshBarrels();
+
+        Set<BarrelInterface> failed = new LinkedHashSet<>();
+        List<BarrelInterface> targets = replicasFor(url, failed);
+        Set<BarrelInterface> delivered = remove(targets, url);
+        for (BarrelInterface barrel : targets) {
+            if (!delivered.contains(barrel)) failed.add(barrel);
+        }
+        if (!failed.isEmpty()) {
+            refreshBarrels();
+            Set<BarrelInterface> stillFailed = new LinkedHashSet<>();
+            List<BarrelInterface> again = replicasFor(url, stillFailed);
+            again.removeAll(delivered);
+            Set<BarrelInterface> recovered = remove(again, url);
+            for (BarrelInterface barrel : again) {
+                if (!recovered.contains(barrel)) stillFailed.add(barrel);
+            }
+            for (BarrelInterface barrel : failed) {
+                if (targets.contains(barrel) && !recovered.contains(barrel)) stillFailed.add(barrel);
+            }
+            failed = stillFailed;
+            delivered.addAll(recovered);
+        }
+        int lost = delivered.isEmpty() ? 1 : 0;
+        if (lost > 0) System.err.println(" [Multicast] AVISO: remoção de " + url + " sem nenhuma réplica confirmada");
+        return new MulticastResult(lost == 0, delivered.size(), failed.size(), lost);
+    }
+
+    /**
+     * Pede a remoção de um URL a cada Barrel (removeDocument), em paralelo.
+     *
+     * @return Barrels que confirmaram a remoção.
+     */
+    private Set<BarrelInterface> remove(List<BarrelInterface> targets, String url) {
+        Map<BarrelInterface, Future<?>> calls = new LinkedHashMap<>();
+        for (BarrelInterface barrel : targets) {
+            calls.put(barrel, senders.submit(() -> {
+                barrel.removeDocument(url);
+                return null;
+            }));
+        }
+        Set<BarrelInterface> delivered = new LinkedHashSet<>();
+        for (Map.Entry<BarrelInterface, Future<?>> call : calls.entrySet()) {
             try {
-                barrels.get(i).addDocument(page);
-                successCount++;
-            } catch (RemoteException e) {
-                // Se falhar, tenta refrescar a lista e reenviar para o índice específico
-                // System.out.println(" [Multicast] Falha no envio. Refrescando ligações...");
-                refreshBarrels();
-                
-                // Tenta uma vez mais no novo objeto (se existir)
-                if (i < barrels.size()) {
-                    try {
-                        barrels.get(i).addDocument(page);
-                        successCount++;
-                        // System.out.println(" [Multicast] Recuperado!");
-                    } catch (Exception ex) {
-                        failCount++;
-                    }
-                } else {
-                    failCount++;
+                call.getValue().get();
+                delivered.add(call.getKey());
+            } catch (ExecutionException e) {
+                // falha deste Barrel: tratada pelo chamador
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Distribui as páginas pelos Barrels que as devem receber (Barrel -> páginas).
+     *
+     * @param unreachable Recebe os Barrels que não responderam (ver {@link #replicasFor}).
+     */
+    private Map<BarrelInterface, List<PageInfo>> assign(List<PageInfo> pages, Set<BarrelInterface> unreachable) {
+        Map<BarrelInterface, List<PageInfo>> assigned = new LinkedHashMap<>();
+        for (PageInfo page : pages) {
+            List<BarrelInterface> targets = replicasFor(page.getUrl(), unreachable);
+            if (targets.isEmpty()) {
+                System.err.println(" [Multicast] AVISO: Nenhuma réplica do shard de " + page.getUrl());
+            }
+            for (BarrelInterface barrel : targets) {
+                assigned.computeIfAbsent(barrel, k -> new ArrayList<>()).add(page);
+            }
+        }
+        return assigned;
+    }
+    
+    /**
+     * Envia a cada Barrel as suas páginas (addDocuments), em paralelo.
+     *
+     * @return Barrels que confirmaram a receção.
+     */
+    private Set<BarrelInterface> deliver(Map<BarrelInterface, List<PageInfo>> assigned) {
+        Map<BarrelInterface, Future<?>> calls = new LinkedHashMap<>();
+        for (Map.Entry<BarrelInterface, List<PageInfo>> entry : assigned.entrySet()) {
+            calls.put(entry.getKey(), senders.submit(() -> {
+                entry.getKey().addDocuments(entry.getValue());
+                return null;
+            }));
+        }
+        Set<BarrelInterface> delivered = new LinkedHashSet<>();
+        for (Map.Entry<BarrelInterface, Future<?>> call : calls.entrySet()) {
+            try {
+                call.getValue().get();
+                delivered.add(call.getKey());
+            } catch (ExecutionException e) {
+                // falha deste Barrel: tratada pelo chamador
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return delivered;
+    }
+    
+    /**
+     * Seleciona as réplicas do shard de um URL (todos os Barrels, na partição por termos).
+     * O número de shards é o anunciado pelos Barrels (todos devem usar o mesmo). Um Barrel
+     * que não responde pode ser réplica do URL: não é contactado, mas conta como envio falhado.
+     *
+     * @param url URL da página.
+     * @param unreachable Recebe os Barrels cujo shard não foi possível saber.
+     * @return Barrels que guardam o shard do URL.
+     */
+    private List<BarrelInterface> replicasFor(String url, Set<BarrelInterface> unreachable) {
+        List<BarrelInterface> replicas = new ArrayList<>();
+        for (BarrelInterface barrel : barrels) {
+            int[] shard = shardOf.get(barrel);
+            if (shard == null) {
+                try {
+                    shard = barrel.getShard();
+                    shardOf.put(barrel, shard);
+                } catch (RemoteException e) {
+                    unreachable.add(barrel);
+                    continue;
                 }
             }
+            if (shard[2] == Shards.TERMS || Shards.of(url, shard[1]) == shard[0]) replicas.add(barrel);
         }
-        
-        if (sentMessages.size() > 1000) sentMessages.clear();
-        sentMessages.add(messageId);
-        
-        return new MulticastResult(successCount > 0, successCount, failCount);
+        return replicas;
     }
     
     /**
@@ -195,6 +548,7 @@ public class ReliableMulticast {
             if (!foundBarrels.isEmpty()) {
                 barrels.clear();
                 barrels.addAll(foundBarrels);
+                shardOf.keySet().retainAll(foundBarrels);
                 // System.out.println(" [Multicast] Lista de Barrels atualizada: " + barrels.size() + " ativos.");
             }
             
@@ -209,18 +563,29 @@ public class ReliableMulticast {
      */
     public int getBarrelCount() { return barrels.size(); }
     
+    /**
+     * Obtém o tamanho médio dos lotes enviados até agora.
+     * @return Páginas por lote (0 se ainda não foi enviado nenhum).
+     */
+    public double getAverageBatchSize() {
+        long count = batches.get();
+        return count == 0 ? 0 : (double) batchedPages.get() / count;
+    }
+    
     /**
      * Classe auxiliar (DTO) para reportar o resultado de uma operação de multicast.
      */
     public static class MulticastResult {
-        /** Indica se a operação foi considerada globalmente bem sucedida (pelo menos 1 entrega). */
+        /** Indica se a operação foi bem sucedida (cada página confirmada por pelo menos 1 réplica). */
         public final boolean success;
-        /** Número de Barrels que confirmaram a receção. */
+        /** Número de Barrels que confirmaram a receção (do documento ou lote). */
         public final int delivered;
         /** Número de Barrels que falharam. */
         public final int failed;
+        /** Número de páginas (ou remoções) que nenhuma réplica confirmou. */
+        public final int lost;
         
-        public MulticastResult(boolean s, int d, int f) { success=s; delivered=d; failed=f; }
+        public MulticastResult(boolean s, int d, int f, int l) { success=s; delivered=d; failed=f; lost=l; }
         
         @Override
         public String toString() { return "Multicast: " + delivered + " OK"; }
@@ -7,6 +7,7 @@
  * Responsabilidades:
  * <ul>
  * <li>Gerir a página inicial e os resultados de pesquisa.</li>
+ * <li>Sugerir termos enquanto o utilizador escreve (JSON em /suggest).</li>
  * <li>Integrar com o Gateway RMI para obter dados do backend.</li>
  * <li>Coordenar os serviços de Hacker News (REST) e Ollama (IA).</li>
  * </ul>
@@ -27,6 +28,7 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import pt.uc.sd.googol.gateway.GatewayInterface;
@@ -132,6 +134,30 @@ public class WebController {
         return "index";
     }
 
+    /**
+     * Sugestões para a pesquisa enquanto se escreve (autocompletar), em JSON.
+     * Chamado pelo JavaScript da página a cada tecla (com atraso); as respostas ficam numa
+     * cache de vida curta no Gateway.
+     *
+     * @param prefix Prefixo escrito pelo utilizador (parâmetro 'q').
+     * @param k Número máximo de sugestões (parâmetro 'k', default 8, máximo 20).
+     * @return Lista de termos sugeridos (vazia se o Gateway estiver indisponível).
+     */
+    @GetMapping("/suggest")
+    @ResponseBody
+    public List<String> suggest(@RequestParam(value = "q", defaultValue = "") String prefix,
+                                @RequestParam(value = "k", defaultValue = "8") int k) {
+        if (gateway == null || prefix.isBlank()) {
+            return Collections.emptyList();
+        }
+        try {
+            return gateway.suggest(prefix, Math.max(1, Math.min(k, 20)));
+        } catch (Exception e) {
+            System.err.println("Erro nas sugestões: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
     /**
      * Processa a submissão manual de um URL para indexação.
      * Envia o URL para a fila prioritária do backend via RMI.